@@ -3,6 +3,7 @@ package jp.ikedam.jenkins.plugins.updatesitesmanager;
 import com.cloudbees.plugins.credentials.CredentialsMatcher;
 import com.cloudbees.plugins.credentials.CredentialsMatchers;
 import com.cloudbees.plugins.credentials.CredentialsProvider;
+import com.cloudbees.plugins.credentials.SystemCredentialsProvider;
 import com.cloudbees.plugins.credentials.common.StandardListBoxModel;
 import com.cloudbees.plugins.credentials.common.StandardUsernameCredentials;
 import com.cloudbees.plugins.credentials.common.StandardUsernamePasswordCredentials;
@@ -11,25 +12,29 @@ import com.cloudbees.plugins.credentials.domains.URIRequirementBuilder;
 import edu.umd.cs.findbugs.annotations.CheckForNull;
 import edu.umd.cs.findbugs.annotations.NonNull;
 import edu.umd.cs.findbugs.annotations.Nullable;
+import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
 import hudson.Extension;
-import hudson.ProxyConfiguration;
+import hudson.XmlFile;
 import hudson.model.Item;
 import hudson.model.Queue;
+import hudson.model.Saveable;
+import hudson.model.listeners.SaveableListener;
 import hudson.model.queue.Tasks;
 import hudson.security.ACL;
 import hudson.util.FormValidation;
 import hudson.util.ListBoxModel;
 import java.io.IOException;
-import java.net.URISyntaxException;
-import java.net.URL;
 import java.net.URLConnection;
-import java.net.http.HttpClient;
 import java.net.http.HttpRequest;
-import java.net.http.HttpResponse;
 import java.nio.charset.StandardCharsets;
 import java.util.Base64;
 import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 import jenkins.model.Jenkins;
+import jenkins.util.SystemProperties;
+import jp.ikedam.jenkins.plugins.updatesitesmanager.internal.SiteEvents;
 import org.apache.commons.lang.StringUtils;
 import org.kohsuke.stapler.AncestorInPath;
 import org.kohsuke.stapler.DataBoundConstructor;
@@ -39,8 +44,25 @@ import org.kohsuke.stapler.interceptor.RequirePOST;
 import org.springframework.security.core.Authentication;
 
 public class CredentialRequiredUpdateSite extends ManagedUpdateSite {
+    /**
+     * How long to reuse resolved credentials, in milliseconds.
+     * <p>
+     * Changes in the credentials stored in Jenkins are detected immediately,
+     * this limits how long changes in external credentials providers may be missed.
+     */
+    @SuppressFBWarnings(value = "MS_SHOULD_BE_FINAL", justification = "Accessible via System Groovy Scripts")
+    public static /* non-final */ long CREDENTIALS_CACHE_TTL = SystemProperties.getLong(
+            CredentialRequiredUpdateSite.class.getName() + ".credentialsCacheTtl", TimeUnit.MINUTES.toMillis(5));
+
+    /**
+     * Incremented each time credentials stored in Jenkins are changed.
+     */
+    private static final AtomicLong CREDENTIALS_GENERATION = new AtomicLong();
+
     private String credentialsId;
 
+    private transient volatile CachedAuthorization cachedAuthorization;
+
     /**
      * Create a new instance
      *
@@ -64,72 +86,131 @@ public class CredentialRequiredUpdateSite extends ManagedUpdateSite {
     @DataBoundSetter
     public void setCredentialsId(String credentialsId) {
         this.credentialsId = credentialsId;
+        this.cachedAuthorization = null;
     }
 
+    /**
+     * Looks up the credentials, recorded as a {@link SiteEvents.CredentialLookup} event.
+     */
     @Nullable
     private StandardUsernamePasswordCredentials getCredential() {
-        List<StandardUsernamePasswordCredentials> credentials = CredentialsProvider.lookupCredentialsInItem(
-                StandardUsernamePasswordCredentials.class, null, ACL.SYSTEM2, null);
-        return CredentialsMatchers.firstOrNull(credentials, CredentialsMatchers.withId(credentialsId));
+        SiteEvents.CredentialLookup event = new SiteEvents.CredentialLookup();
+        event.begin();
+        String outcome = "failed";
+        try {
+            List<StandardUsernamePasswordCredentials> credentials = CredentialsProvider.lookupCredentialsInItem(
+                    StandardUsernamePasswordCredentials.class, null, ACL.SYSTEM2, null);
+            StandardUsernamePasswordCredentials credential =
+                    CredentialsMatchers.firstOrNull(credentials, CredentialsMatchers.withId(credentialsId));
+            outcome = credential != null ? "found" : "not found";
+            return credential;
+        } finally {
+            event.end();
+            if (event.shouldCommit()) {
+                event.siteId = getId();
+                event.url = getUrl();
+                event.credentialsId = credentialsId;
+                event.outcome = outcome;
+                event.commit();
+            }
+        }
+    }
+
+    /**
+     * Returns the value for the {@code Authorization} header.
+     * <p>
+     * Resolving credentials scans all the credentials available,
+     * so the result is reused until credentials are changed or {@link #CREDENTIALS_CACHE_TTL} passes.
+     *
+     * @return the value for the {@code Authorization} header, or {@code null} if the credentials are not found
+     */
+    @CheckForNull
+    private String getAuthorization() {
+        long generation = CREDENTIALS_GENERATION.get();
+        CachedAuthorization cached = cachedAuthorization;
+        if (cached == null || !cached.isValid(credentialsId, generation)) {
+            StandardUsernamePasswordCredentials credential = getCredential();
+            String authorization = credential != null ? basicAuth(credential) : null;
+            cached = new CachedAuthorization(credentialsId, generation, authorization);
+            cachedAuthorization = cached;
+        }
+        return cached.authorization;
+    }
+
+    @NonNull
+    private static String basicAuth(@NonNull StandardUsernamePasswordCredentials credential) {
+        String token = credential.getUsername() + ':' + credential.getPassword().getPlainText();
+        return "Basic " + Base64.getEncoder().encodeToString(token.getBytes(StandardCharsets.UTF_8));
     }
 
     @Override
-    public @NonNull FormValidation updateDirectlyNow(boolean signatureCheck) throws IOException {
-        URL url = new URL(getUrl());
+    protected @NonNull String getUpdateCenterUrl() {
+        return getUrl();
+    }
+
+    @Override
+    protected void configureRequest(@NonNull HttpRequest.Builder builder) throws IOException {
+        builder.header("Authorization", getBasicAuth());
+    }
 
+    @Override
+    public @NonNull FormValidation updateDirectlyNow(boolean signatureCheck) throws IOException {
         if (credentialsId == null) {
             return FormValidation.error(Messages.CredentialRequiredUpdateSite_credentialsNotFound());
         }
-
-        StandardUsernamePasswordCredentials credential = getCredential();
-        if (credential != null) {
-            String token = String.format(
-                    "%s:%s", credential.getUsername(), credential.getPassword().getPlainText());
-            String basicAuth = String.format(
-                    "Basic %s", Base64.getEncoder().encodeToString((token.getBytes(StandardCharsets.UTF_8))));
-
-            HttpClient httpClient = ProxyConfiguration.newHttpClient();
-            HttpRequest httpRequest;
-            try {
-                httpRequest = ProxyConfiguration.newHttpRequestBuilder(url.toURI())
-                        .headers("Accept", "application/json", "Authorization", basicAuth)
-                        .GET()
-                        .build();
-            } catch (IllegalArgumentException | URISyntaxException e) {
-                return FormValidation.error(e.getMessage());
-            }
-            try {
-                HttpResponse<String> response = httpClient.send(httpRequest, HttpResponse.BodyHandlers.ofString());
-                String jsonp = response.body();
-                String json = "";
-                int start = jsonp.indexOf('{');
-                int end = jsonp.lastIndexOf('}');
-                if (start >= 0 && end > start) {
-                    json = jsonp.substring(start, end + 1);
-                } else {
-                    throw new IOException("Could not find JSON in " + url);
-                }
-                return updateData(json, signatureCheck);
-            } catch (IOException | InterruptedException e) {
-                return FormValidation.error(e.getMessage());
-            }
+        if (getAuthorization() == null) {
+            return FormValidation.error(Messages.CredentialRequiredUpdateSite_invalidCredentials(credentialsId));
         }
-        return FormValidation.error(Messages.CredentialRequiredUpdateSite_invalidCredentials(credentialsId));
+        return super.updateDirectlyNow(signatureCheck);
     }
 
     @Override
-    public URLConnection connect(URL src) throws IOException {
-        URLConnection connection = ProxyConfiguration.open(src);
-        StandardUsernamePasswordCredentials credential = getCredential();
-        if (credential != null) {
-            String token =
-                    credential.getUsername() + ':' + credential.getPassword().getPlainText();
-            String basicAuth = "Basic " + Base64.getEncoder().encodeToString(token.getBytes(StandardCharsets.UTF_8));
-            connection.setRequestProperty("Authorization", basicAuth);
-        } else {
+    protected void configureConnection(@NonNull URLConnection connection) throws IOException {
+        connection.setRequestProperty("Authorization", getBasicAuth());
+    }
+
+    @NonNull
+    private String getBasicAuth() throws IOException {
+        String authorization = getAuthorization();
+        if (authorization == null) {
             throw new IOException(Messages.CredentialRequiredUpdateSite_invalidCredentials(credentialsId));
         }
-        return connection;
+        return authorization;
+    }
+
+    /**
+     * Resolved credentials.
+     */
+    private static class CachedAuthorization {
+        private final String credentialsId;
+        private final long generation;
+        private final long timestamp = System.currentTimeMillis();
+        private final String authorization;
+
+        CachedAuthorization(String credentialsId, long generation, String authorization) {
+            this.credentialsId = credentialsId;
+            this.generation = generation;
+            this.authorization = authorization;
+        }
+
+        boolean isValid(String credentialsId, long generation) {
+            return Objects.equals(this.credentialsId, credentialsId)
+                    && this.generation == generation
+                    && System.currentTimeMillis() - timestamp < CREDENTIALS_CACHE_TTL;
+        }
+    }
+
+    /**
+     * Discards resolved credentials when credentials stored in Jenkins are changed.
+     */
+    @Extension
+    public static class CredentialsChangeListener extends SaveableListener {
+        @Override
+        public void onChange(Saveable o, XmlFile file) {
+            if (o instanceof SystemCredentialsProvider) {
+                CREDENTIALS_GENERATION.incrementAndGet();
+            }
+        }
     }
 
     @Extension
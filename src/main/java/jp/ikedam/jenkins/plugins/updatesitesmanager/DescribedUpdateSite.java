@@ -24,11 +24,19 @@
 package jp.ikedam.jenkins.plugins.updatesitesmanager;
 
 import hudson.DescriptorExtensionList;
+import hudson.Extension;
 import hudson.ExtensionPoint;
+import hudson.XmlFile;
 import hudson.model.Describable;
+import hudson.model.Saveable;
+import hudson.model.UpdateCenter;
 import hudson.model.UpdateSite;
+import hudson.model.listeners.SaveableListener;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
 import jenkins.model.Jenkins;
 import org.apache.commons.lang.StringUtils;
 
@@ -37,6 +45,17 @@ import org.apache.commons.lang.StringUtils;
  */
 public abstract class DescribedUpdateSite extends UpdateSite
         implements Describable<DescribedUpdateSite>, ExtensionPoint {
+    /**
+     * Incremented whenever the sites may have changed.
+     */
+    private static final AtomicLong GENERATION = new AtomicLong();
+
+    private transient volatile Memo<List<Plugin>> availables;
+
+    private transient volatile Memo<List<Plugin>> updates;
+
+    private transient volatile Memo<Boolean> hasUpdates;
+
     /**
      * Constructor
      *
@@ -75,6 +94,7 @@ public abstract class DescribedUpdateSite extends UpdateSite
      * Returns a list of plugins that should be shown in the "available" tab.
      * <p>
      * Returns nothing when disabled.
+     * The list is computed again only when the data of this site, the sites or the installed plugins changed.
      *
      * @return list of available plugins
      * @see hudson.model.UpdateSite#getAvailables()
@@ -82,15 +102,23 @@ public abstract class DescribedUpdateSite extends UpdateSite
     @Override
     public List<Plugin> getAvailables() {
         if (isDisabled()) {
-            return new ArrayList<>(0);
+            return Collections.emptyList();
         }
-        return super.getAvailables();
+        List<Object> key = Arrays.asList(getDataTimestamp(), GENERATION.get(), getPluginCount());
+        Memo<List<Plugin>> memo = availables;
+        if (memo == null || !memo.key.equals(key)) {
+            memo = new Memo<>(key, Collections.unmodifiableList(super.getAvailables()));
+            availables = memo;
+        }
+        return memo.value;
     }
 
     /**
      * Returns the list of plugins that have updates for currently installed ones.
      * <p>
      * Returns nothing when disabled.
+     * The list is computed again only when the data of any site, the sites or the installed plugins changed,
+     * as updates are looked up through the whole update center.
      *
      * @return list of plugins with updates
      * @see hudson.model.UpdateSite#getUpdates()
@@ -98,9 +126,15 @@ public abstract class DescribedUpdateSite extends UpdateSite
     @Override
     public List<Plugin> getUpdates() {
         if (isDisabled()) {
-            return new ArrayList<>(0);
+            return Collections.emptyList();
+        }
+        List<Object> key = getUpdatesKey();
+        Memo<List<Plugin>> memo = updates;
+        if (memo == null || !memo.key.equals(key)) {
+            memo = new Memo<>(key, Collections.unmodifiableList(super.getUpdates()));
+            updates = memo;
         }
-        return super.getUpdates();
+        return memo.value;
     }
 
     /**
@@ -132,7 +166,53 @@ public abstract class DescribedUpdateSite extends UpdateSite
         if (isDisabled()) {
             return false;
         }
-        return super.hasUpdates();
+        List<Object> key = getUpdatesKey();
+        Memo<Boolean> memo = hasUpdates;
+        if (memo == null || !memo.key.equals(key)) {
+            memo = new Memo<>(key, super.hasUpdates());
+            hasUpdates = memo;
+        }
+        return memo.value;
+    }
+
+    /**
+     * Returns what updates depend on: when the data of the enabled sites was downloaded,
+     * the generation of the sites and the installed plugins.
+     * Disabled sites are skipped without touching their data.
+     */
+    private static List<Object> getUpdatesKey() {
+        List<UpdateSite> sites = Jenkins.get().getUpdateCenter().getSiteList();
+        List<Object> key = new ArrayList<>(sites.size() + 2);
+        for (UpdateSite site : sites) {
+            boolean disabled = site instanceof DescribedUpdateSite described && described.isDisabled();
+            key.add(disabled ? null : site.getDataTimestamp());
+        }
+        key.add(GENERATION.get());
+        key.add(getPluginCount());
+        return key;
+    }
+
+    /**
+     * Returns the number of installed plugins.
+     * <p>
+     * Plugins installed without a restart are added to the installed ones, whatever they contain.
+     * Other changes of plugins take effect after a restart, which starts with empty caches.
+     */
+    private static int getPluginCount() {
+        return Jenkins.get().getPluginManager().getPlugins().size();
+    }
+
+    /**
+     * Discards computed lists when the sites are saved.
+     */
+    @Extension
+    public static class UpdateCenterChangeListener extends SaveableListener {
+        @Override
+        public void onChange(Saveable o, XmlFile file) {
+            if (o instanceof UpdateCenter) {
+                GENERATION.incrementAndGet();
+            }
+        }
     }
 
     /**
@@ -144,6 +224,19 @@ public abstract class DescribedUpdateSite extends UpdateSite
         return Jenkins.get().getDescriptorList(DescribedUpdateSite.class);
     }
 
+    /**
+     * A value computed for a key.
+     */
+    private static final class Memo<T> {
+        private final List<Object> key;
+        private final T value;
+
+        Memo(List<Object> key, T value) {
+            this.key = key;
+            this.value = value;
+        }
+    }
+
     /**
      * Returns the descriptor for this class.
      *
@@ -25,18 +25,91 @@ package jp.ikedam.jenkins.plugins.updatesitesmanager;
 
 import edu.umd.cs.findbugs.annotations.CheckForNull;
 import edu.umd.cs.findbugs.annotations.NonNull;
+import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
 import hudson.Extension;
+import hudson.ProxyConfiguration;
+import hudson.Util;
+import hudson.XmlFile;
+import hudson.model.UpdateCenter;
+import hudson.security.ACL;
+import hudson.security.ACLContext;
 import hudson.util.FormValidation;
-import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.ref.WeakReference;
+import java.net.HttpURLConnection;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.net.URLConnection;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.security.cert.CertificateException;
-import java.security.cert.CertificateFactory;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import jenkins.model.Jenkins;
 import jenkins.util.JSONSignatureValidator;
+import jenkins.util.SystemProperties;
+import jenkins.util.Timer;
+import jp.ikedam.jenkins.plugins.updatesitesmanager.internal.ArtifactCache;
+import jp.ikedam.jenkins.plugins.updatesitesmanager.internal.CachingJsonSignatureValidator;
+import jp.ikedam.jenkins.plugins.updatesitesmanager.internal.CachingURLConnection;
+import jp.ikedam.jenkins.plugins.updatesitesmanager.internal.CircuitBreaker;
+import jp.ikedam.jenkins.plugins.updatesitesmanager.internal.ContentEncodings;
+import jp.ikedam.jenkins.plugins.updatesitesmanager.internal.CountingInputStream;
+import jp.ikedam.jenkins.plugins.updatesitesmanager.internal.DataSnapshot;
+import jp.ikedam.jenkins.plugins.updatesitesmanager.internal.DecompressingURLConnection;
+import jp.ikedam.jenkins.plugins.updatesitesmanager.internal.DeltaPatches;
 import jp.ikedam.jenkins.plugins.updatesitesmanager.internal.ExtendedCertJsonSignValidator;
+import jp.ikedam.jenkins.plugins.updatesitesmanager.internal.FailoverURLConnection;
+import jp.ikedam.jenkins.plugins.updatesitesmanager.internal.JsonStreamParser;
+import jp.ikedam.jenkins.plugins.updatesitesmanager.internal.JsonpUnwrappingInputStream;
+import jp.ikedam.jenkins.plugins.updatesitesmanager.internal.MirrorSelector;
+import jp.ikedam.jenkins.plugins.updatesitesmanager.internal.RangedURLConnection;
+import jp.ikedam.jenkins.plugins.updatesitesmanager.internal.RecordingURLConnection;
+import jp.ikedam.jenkins.plugins.updatesitesmanager.internal.ResumingURLConnection;
+import jp.ikedam.jenkins.plugins.updatesitesmanager.internal.SiteEvents;
+import jp.ikedam.jenkins.plugins.updatesitesmanager.internal.SiteHttpClients;
+import jp.ikedam.jenkins.plugins.updatesitesmanager.internal.SiteState;
+import jp.ikedam.jenkins.plugins.updatesitesmanager.internal.SiteStatistics;
+import jp.ikedam.jenkins.plugins.updatesitesmanager.internal.SpoolingInputStream;
+import jp.ikedam.jenkins.plugins.updatesitesmanager.internal.TimingInputStream;
+import jp.ikedam.jenkins.plugins.updatesitesmanager.internal.TimingJsonSignatureValidator;
+import net.sf.json.JSONException;
+import net.sf.json.JSONObject;
 import org.apache.commons.lang.StringUtils;
 import org.kohsuke.stapler.DataBoundConstructor;
+import org.kohsuke.stapler.DataBoundSetter;
 import org.kohsuke.stapler.QueryParameter;
 import org.kohsuke.stapler.interceptor.RequirePOST;
 
@@ -48,6 +121,15 @@ import org.kohsuke.stapler.interceptor.RequirePOST;
  *   <li>can switch enabled/disabled.</li>
  *   <li>have a note field.</li>
  *   <li>can set a CA certificate for the signature of the site.</li>
+ *   <li>downloads update-center.json only when it changed since the last download.</li>
+ *   <li>receives contents compressed unless disabled.</li>
+ *   <li>loads the data from a binary snapshot at startup.</li>
+ *   <li>can ask only for changes since the last download.</li>
+ *   <li>holds no data while disabled.</li>
+ *   <li>refreshes on its own schedule, backing off while failing.</li>
+ *   <li>stops accessing the site for a while when it keeps failing.</li>
+ *   <li>downloads from the fastest of its mirrors, and fails over to the others.</li>
+ *   <li>can send a request again when the response is unusually late.</li>
  * </ul>
  *
  * The CA certificate is written as additional trust anchor dynamically
@@ -55,6 +137,103 @@ import org.kohsuke.stapler.interceptor.RequirePOST;
 public class ManagedUpdateSite extends DescribedUpdateSite {
     private static final Logger LOGGER = Logger.getLogger(ManagedUpdateSite.class.getName());
 
+    private static final long DAY = TimeUnit.DAYS.toMillis(1);
+
+    private static final int BUFFER_SIZE = 8192;
+
+    private static final int HTTP_TOO_MANY_REQUESTS = 429;
+
+    /**
+     * Maximum size of update-center.json to accept, in bytes.
+     * <p>
+     * Prevents a broken or malicious site from exhausting the heap.
+     */
+    @SuppressFBWarnings(value = "MS_SHOULD_BE_FINAL", justification = "Accessible via System Groovy Scripts")
+    public static /* non-final */ long MAX_PAYLOAD_SIZE =
+            SystemProperties.getLong(ManagedUpdateSite.class.getName() + ".maxPayloadSize", 128L * 1024 * 1024);
+
+    /**
+     * Random deviation of refresh intervals, in percent of the interval.
+     * <p>
+     * Keeps controllers configured alike from refreshing at the same moment.
+     */
+    @SuppressFBWarnings(value = "MS_SHOULD_BE_FINAL", justification = "Accessible via System Groovy Scripts")
+    public static /* non-final */ int REFRESH_JITTER =
+            SystemProperties.getInteger(ManagedUpdateSite.class.getName() + ".refreshJitter", 10);
+
+    /**
+     * Time to wait before retrying a failed refresh, in minutes.
+     * <p>
+     * Doubles with each failure in a row, up to the longer of the refresh interval and a day.
+     */
+    @SuppressFBWarnings(value = "MS_SHOULD_BE_FINAL", justification = "Accessible via System Groovy Scripts")
+    public static /* non-final */ long RETRY_DELAY =
+            SystemProperties.getLong(ManagedUpdateSite.class.getName() + ".retryDelay", 5L);
+
+    /**
+     * Number of failed refreshes in a row to stop accessing the site for a while.
+     */
+    @SuppressFBWarnings(value = "MS_SHOULD_BE_FINAL", justification = "Accessible via System Groovy Scripts")
+    public static /* non-final */ int CIRCUIT_BREAKER_THRESHOLD =
+            SystemProperties.getInteger(ManagedUpdateSite.class.getName() + ".circuitBreakerThreshold", 3);
+
+    /**
+     * Time to stop accessing a failing site, in minutes.
+     * <p>
+     * Doubles with each failed probe, up to the longer of the refresh interval and an hour.
+     */
+    @SuppressFBWarnings(value = "MS_SHOULD_BE_FINAL", justification = "Accessible via System Groovy Scripts")
+    public static /* non-final */ long CIRCUIT_BREAKER_OPEN_DURATION =
+            SystemProperties.getLong(ManagedUpdateSite.class.getName() + ".circuitBreakerOpenDuration", 5L);
+
+    /**
+     * Percentile of recent response times to wait before hedging a request, when {@link #isHedgedRequests()}.
+     */
+    @SuppressFBWarnings(value = "MS_SHOULD_BE_FINAL", justification = "Accessible via System Groovy Scripts")
+    public static /* non-final */ int HEDGE_PERCENTILE =
+            SystemProperties.getInteger(ManagedUpdateSite.class.getName() + ".hedgePercentile", 95);
+
+    /**
+     * Number of byte ranges to download at the same time, when {@link #isParallelDownloads()}.
+     */
+    @SuppressFBWarnings(value = "MS_SHOULD_BE_FINAL", justification = "Accessible via System Groovy Scripts")
+    public static /* non-final */ int PARALLEL_DOWNLOAD_PARTS =
+            SystemProperties.getInteger(ManagedUpdateSite.class.getName() + ".parallelDownloadParts", 4);
+
+    /**
+     * Smallest file to download in byte ranges, in bytes, when {@link #isParallelDownloads()}.
+     */
+    @SuppressFBWarnings(value = "MS_SHOULD_BE_FINAL", justification = "Accessible via System Groovy Scripts")
+    public static /* non-final */ long PARALLEL_DOWNLOAD_MIN_SIZE = SystemProperties.getLong(
+            ManagedUpdateSite.class.getName() + ".parallelDownloadMinSize", 16L * 1024 * 1024);
+
+    /**
+     * Number of times to resume a broken download from the bytes already received.
+     * <p>
+     * {@code 0} downloads again from the start.
+     */
+    @SuppressFBWarnings(value = "MS_SHOULD_BE_FINAL", justification = "Accessible via System Groovy Scripts")
+    public static /* non-final */ int RESUME_ATTEMPTS =
+            SystemProperties.getInteger(ManagedUpdateSite.class.getName() + ".resumeAttempts", 3);
+
+    /**
+     * Largest total size of plugins kept in the artifact cache, in megabytes.
+     * <p>
+     * {@code 0} disables the cache.
+     */
+    @SuppressFBWarnings(value = "MS_SHOULD_BE_FINAL", justification = "Accessible via System Groovy Scripts")
+    public static /* non-final */ long ARTIFACT_CACHE_SIZE =
+            SystemProperties.getLong(ManagedUpdateSite.class.getName() + ".artifactCacheSize", 1024L);
+
+    /**
+     * Whether to archive the downloaded data of disabled sites.
+     * <p>
+     * The data is compressed aside and restored when the site is enabled again.
+     */
+    @SuppressFBWarnings(value = "MS_SHOULD_BE_FINAL", justification = "Accessible via System Groovy Scripts")
+    public static /* non-final */ boolean ARCHIVE_DISABLED_DATA =
+            SystemProperties.getBoolean(ManagedUpdateSite.class.getName() + ".archiveDisabledData", false);
+
     private String caCertificate;
 
     /**
@@ -116,6 +295,205 @@ public class ManagedUpdateSite extends DescribedUpdateSite {
         return note;
     }
 
+    private boolean disableCompression;
+
+    /**
+     * Returns whether to receive contents without compression.
+     *
+     * @return {@code true} not to ask the site for compressed contents
+     */
+    public boolean isDisableCompression() {
+        return disableCompression;
+    }
+
+    /**
+     * Set whether to receive contents without compression.
+     *
+     * Useful for sites or proxies handling compression incorrectly.
+     *
+     * @param disableCompression {@code true} not to ask the site for compressed contents
+     */
+    @DataBoundSetter
+    public void setDisableCompression(boolean disableCompression) {
+        this.disableCompression = disableCompression;
+    }
+
+    private String mirrorUrls;
+
+    /**
+     * Returns the URLs of mirrors serving the same data as {@link #getUrl()}.
+     *
+     * @return the URLs of update-center.json in the mirrors, one in a line
+     */
+    public String getMirrorUrls() {
+        return mirrorUrls;
+    }
+
+    /**
+     * Set the URLs of mirrors serving the same data as {@link #getUrl()}.
+     *
+     * @param mirrorUrls the URLs of update-center.json in the mirrors, one in a line
+     */
+    @DataBoundSetter
+    public void setMirrorUrls(String mirrorUrls) {
+        this.mirrorUrls = Util.fixEmptyAndTrim(mirrorUrls);
+    }
+
+    /**
+     * Returns the URLs to download update-center.json from.
+     *
+     * @return {@link #getUrl()} followed by the mirrors
+     */
+    @NonNull
+    public List<String> getMirrorUrlList() {
+        Set<String> urls = new LinkedHashSet<>();
+        urls.add(getUrl());
+        if (mirrorUrls != null) {
+            for (String line : mirrorUrls.split("\\R")) {
+                if (StringUtils.isNotBlank(line)) {
+                    urls.add(line.trim());
+                }
+            }
+        }
+        return new ArrayList<>(urls);
+    }
+
+    /**
+     * Returns the selector choosing the mirror to access.
+     *
+     * @return the selector of this site
+     */
+    @NonNull
+    public MirrorSelector getMirrorSelector() {
+        return MirrorSelector.of(getId());
+    }
+
+    private boolean hedgedRequests;
+
+    /**
+     * Returns whether to send the request again when the response is late.
+     *
+     * @return {@code true} to hedge requests
+     */
+    public boolean isHedgedRequests() {
+        return hedgedRequests;
+    }
+
+    /**
+     * Set whether to send the request again when the response is late.
+     *
+     * The request is sent to the next mirror, or to the same site without mirrors,
+     * after waiting for {@link #HEDGE_PERCENTILE} percentile of the recent response times.
+     *
+     * @param hedgedRequests {@code true} to hedge requests
+     */
+    @DataBoundSetter
+    public void setHedgedRequests(boolean hedgedRequests) {
+        this.hedgedRequests = hedgedRequests;
+    }
+
+    private boolean parallelDownloads;
+
+    /**
+     * Returns whether to download large plugins in several byte ranges at the same time.
+     *
+     * @return {@code true} to download in parallel
+     */
+    public boolean isParallelDownloads() {
+        return parallelDownloads;
+    }
+
+    /**
+     * Set whether to download large plugins in several byte ranges at the same time.
+     *
+     * Plugins of {@link #PARALLEL_DOWNLOAD_MIN_SIZE} bytes or more are downloaded
+     * in {@link #PARALLEL_DOWNLOAD_PARTS} ranges when the server supports ranges,
+     * and in a single stream otherwise.
+     *
+     * @param parallelDownloads {@code true} to download in parallel
+     */
+    @DataBoundSetter
+    public void setParallelDownloads(boolean parallelDownloads) {
+        this.parallelDownloads = parallelDownloads;
+    }
+
+    private boolean deltaUpdates;
+
+    /**
+     * Returns whether to ask the site only for changes since the last download.
+     *
+     * @return {@code true} to ask for changes
+     * @see DeltaPatches
+     */
+    public boolean isDeltaUpdates() {
+        return deltaUpdates;
+    }
+
+    /**
+     * Set whether to ask the site only for changes since the last download.
+     *
+     * Requires the site to support {@link DeltaPatches}, and falls back to downloading the whole data otherwise.
+     *
+     * @param deltaUpdates {@code true} to ask for changes
+     */
+    @DataBoundSetter
+    public void setDeltaUpdates(boolean deltaUpdates) {
+        this.deltaUpdates = deltaUpdates;
+    }
+
+    private long refreshInterval;
+
+    /**
+     * Returns the interval to refresh this site.
+     *
+     * @return the interval in minutes, {@code 0} to refresh once a day
+     */
+    public long getRefreshInterval() {
+        return refreshInterval;
+    }
+
+    /**
+     * Set the interval to refresh this site.
+     *
+     * @param refreshInterval the interval in minutes, {@code 0} to refresh once a day
+     */
+    @DataBoundSetter
+    public void setRefreshInterval(long refreshInterval) {
+        this.refreshInterval = Math.max(0, refreshInterval);
+    }
+
+    private long getRefreshIntervalMillis() {
+        return refreshInterval > 0 ? TimeUnit.MINUTES.toMillis(refreshInterval) : DAY;
+    }
+
+    private static long getRetryDelayMillis() {
+        return TimeUnit.MINUTES.toMillis(Math.max(1, RETRY_DELAY));
+    }
+
+    private static long getCircuitOpenMillis() {
+        return TimeUnit.MINUTES.toMillis(Math.max(1, CIRCUIT_BREAKER_OPEN_DURATION));
+    }
+
+    /**
+     * Returns the statistics of transfers from this site.
+     *
+     * @return the statistics of transfers from this site
+     */
+    @NonNull
+    public SiteStatistics getStatistics() {
+        return SiteStatistics.of(getId());
+    }
+
+    /**
+     * Returns the circuit breaker stopping accesses to this site while it keeps failing.
+     *
+     * @return the circuit breaker of this site
+     */
+    @NonNull
+    public CircuitBreaker getCircuitBreaker() {
+        return CircuitBreaker.of(getId());
+    }
+
     /**
      * Create a new instance
      *
@@ -135,73 +513,1363 @@ public class ManagedUpdateSite extends DescribedUpdateSite {
         this.disabled = disabled;
     }
 
+    private transient SiteState state;
+
+    private transient volatile Checksums checksums;
+
     /**
-     * Verifier for the signature of downloaded update-center.json.
+     * Data parsed from the download, handed to the core by the next {@link #getJSONObject()}.
+     */
+    private transient JSONObject downloadedData;
+
+    /**
+     * Returns the file to store the state of this site.
      *
-     * @return JSONSignatureValidator object with additional cert as anchor if enabled
+     * @return the file to store the state of this site
+     */
+    @NonNull
+    protected XmlFile getStateFile() {
+        return new XmlFile(new File(Jenkins.get().getRootDir(), "updates/" + getId() + ".state.xml"));
+    }
+
+    /**
+     * Returns the state of this site kept between refreshes.
+     *
+     * @return the state of this site
+     */
+    @NonNull
+    protected synchronized SiteState getState() {
+        if (state == null) {
+            state = SiteState.load(getStateFile());
+        }
+        return state;
+    }
+
+    /**
+     * Returns the file to store the binary snapshot of the data of this site.
+     *
+     * @return the file to store the snapshot
+     * @see DataSnapshot
+     */
+    @NonNull
+    protected File getSnapshotFile() {
+        return new File(Jenkins.get().getRootDir(), "updates/" + getId() + ".snapshot");
+    }
+
+    /**
+     * Returns the cache of plugins downloaded from any site.
+     *
+     * @return the cache
+     * @see #ARTIFACT_CACHE_SIZE
+     */
+    @NonNull
+    protected ArtifactCache getArtifactCache() {
+        return ArtifactCache.of(getCacheDir("update-sites-manager"));
+    }
+
+    /**
+     * Returns the directory to hold ranges of plugins downloaded in parallel until they are read.
+     * <p>
+     * Kept apart from the {@link #getArtifactCache() artifact cache}, which takes all the files in its directory.
+     *
+     * @return the directory
+     * @see #isParallelDownloads()
+     */
+    @NonNull
+    protected Path getRangePartDir() {
+        return getCacheDir("update-sites-manager-ranges");
+    }
+
+    /**
+     * Returns the directory of a cache under {@code JENKINS_HOME/caches}.
      */
     @NonNull
+    private static Path getCacheDir(@NonNull String name) {
+        return new File(Jenkins.get().getRootDir(), "caches/" + name).toPath();
+    }
+
+    /**
+     * Returns the file to archive the data of this site to while disabled.
+     *
+     * @return the file to archive the data to
+     * @see #ARCHIVE_DISABLED_DATA
+     */
+    @NonNull
+    protected File getArchiveFile() {
+        return new File(Jenkins.get().getRootDir(), "updates/" + getId() + ".json.gz");
+    }
+
+    /**
+     * Returns the data of this site.
+     * <p>
+     * Disabled sites never load their data, so standby sites cost no memory until enabled.
+     * Sites are instantiated again when the configuration is saved,
+     * so disabling a site releases the data the enabled instance held.
+     *
+     * @return the data of this site, or {@code null} if disabled or not downloaded yet
+     */
+    @CheckForNull
     @Override
-    protected JSONSignatureValidator getJsonSignatureValidator(@CheckForNull String name) {
-        if (isUseCaCertificate()) {
-            return new ExtendedCertJsonSignValidator(name, getCaCertificate());
-        } else {
-            return super.getJsonSignatureValidator(name);
+    public Data getData() {
+        if (isDisabled()) {
+            return null;
         }
+        return super.getData();
     }
 
     /**
-     * Descriptor for this class.
+     * Moves the downloaded data aside, compressed, if this site is disabled and {@link #ARCHIVE_DISABLED_DATA} is set.
+     * <p>
+     * Called when the configuration is saved, so looking up the data never touches the files.
      */
-    @Extension
-    public static class DescriptorImpl extends DescribedUpdateSiteDescriptor {
-        /**
-         * Returns the kind name of this UpdateSite.
-         *
-         * shown when select UpdateSite to create.
-         *
-         * @return the kind name of the site
-         * @see hudson.model.Descriptor#getDisplayName()
-         */
-        @NonNull
-        @Override
-        public String getDisplayName() {
-            return Messages.ManagedUpdateSite_DisplayName();
+    synchronized void archiveData() {
+        if (!isDisabled() || !ARCHIVE_DISABLED_DATA) {
+            return;
+        }
+        File source = getDataFile().file;
+        if (!source.isFile()) {
+            return;
         }
+        try {
+            transfer(source, getArchiveFile(), true);
+            Files.delete(source.toPath());
+            Files.deleteIfExists(getSnapshotFile().toPath());
+            LOGGER.log(Level.FINE, "Archived the data of disabled site {0}", getId());
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Failed to archive the data of " + getId(), e);
+        }
+    }
 
-        /**
-         * Returns whether the certificate is valid.
-         *
-         * @param useCaCertificate {@code true} to use a specific CA certificate
-         * @param caCertificate the CA certificate
-         * @return FormValidation the validation result
-         */
-        @RequirePOST
-        public FormValidation doCheckCaCertificate(
-                @QueryParameter boolean useCaCertificate, @QueryParameter String caCertificate) {
-            if (!useCaCertificate) {
-                return FormValidation.ok();
+    /**
+     * Deletes the files kept for this site besides the data, when the site is removed or renamed.
+     * <p>
+     * Called when the configuration is saved without this site.
+     */
+    synchronized void deleteFiles() {
+        for (File file : new File[] {getStateFile().getFile(), getSnapshotFile(), getArchiveFile()}) {
+            try {
+                Files.deleteIfExists(file.toPath());
+            } catch (IOException e) {
+                LOGGER.log(Level.WARNING, "Failed to delete " + file, e);
+            }
+        }
+        LOGGER.log(Level.FINE, "Deleted the files of removed site {0}", getId());
+    }
+
+    /**
+     * Restores the data archived while this site was disabled.
+     */
+    private synchronized void restoreData() {
+        File archive = getArchiveFile();
+        if (!archive.isFile()) {
+            return;
+        }
+        try {
+            File target = getDataFile().file;
+            if (!target.exists()) {
+                transfer(archive, target, false);
+                LOGGER.log(Level.FINE, "Restored the archived data of {0}", getId());
             }
+            Files.delete(archive.toPath());
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Failed to restore the archived data of " + getId(), e);
+        }
+    }
 
-            if (StringUtils.isBlank(caCertificate)) {
-                return FormValidation.error(Messages.ManagedUpdateSite_caCertificate_required());
+    /**
+     * Copies the file compressing or decompressing it, replacing the destination only when complete.
+     */
+    private static void transfer(File from, File to, boolean compress) throws IOException {
+        Path tmp = Files.createTempFile(to.getParentFile().toPath(), to.getName(), ".tmp");
+        try {
+            try (InputStream in = Files.newInputStream(from.toPath());
+                    OutputStream out = Files.newOutputStream(tmp)) {
+                if (compress) {
+                    try (OutputStream gzip = new GZIPOutputStream(out)) {
+                        in.transferTo(gzip);
+                    }
+                } else {
+                    try (InputStream gzip = new GZIPInputStream(in)) {
+                        gzip.transferTo(out);
+                    }
+                }
             }
+            Files.move(tmp, to.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
 
-            CertificateFactory cf = null;
+    /**
+     * Loads the data of this site.
+     * <p>
+     * Returns the data just parsed from the download if not taken yet.
+     * Otherwise reads the binary snapshot written after the last refresh if it is up to date,
+     * and parses the JSON file only otherwise, writing a new snapshot for the next time.
+     * Strings in the data are shared with other sites listing the same plugins.
+     *
+     * @return the data of this site, or {@code null} if disabled or not downloaded yet
+     */
+    @CheckForNull
+    @Override
+    public JSONObject getJSONObject() {
+        if (isDisabled()) {
+            return null;
+        }
+        restoreData();
+        JSONObject downloaded = takeDownloadedData();
+        if (downloaded != null) {
+            return downloaded;
+        }
+        File source = getDataFile().file;
+        JSONObject o = DataSnapshot.read(source, getSnapshotFile());
+        if (o != null) {
+            return o;
+        }
+        if (!source.exists()) {
+            return null;
+        }
+        long length = source.length();
+        long lastModified = source.lastModified();
+        try (InputStream in = Files.newInputStream(source.toPath())) {
+            o = JsonStreamParser.parse(in);
+        } catch (IOException e) {
+            // as UpdateSite#getJSONObject() does
+            LOGGER.log(Level.SEVERE, "Failed to parse " + source, e);
             try {
-                cf = CertificateFactory.getInstance("X509");
-            } catch (CertificateException e) {
-                LOGGER.log(Level.WARNING, "Failed to retrieve CertificateFactory for X509", e);
+                Files.deleteIfExists(source.toPath());
+            } catch (IOException e2) {
+                // ignore
             }
+            return null;
+        }
+        writeSnapshotLater(o, length, lastModified);
+        return o;
+    }
 
-            if (cf != null) {
-                try {
-                    cf.generateCertificate(new ByteArrayInputStream(
-                            StringUtils.trim(caCertificate).getBytes(StandardCharsets.UTF_8)));
-                } catch (CertificateException e) {
-                    return FormValidation.error(
-                            Messages.ManagedUpdateSite_caCertificate_invalid(e.getLocalizedMessage()));
-                }
+    private synchronized JSONObject takeDownloadedData() {
+        JSONObject o = downloadedData;
+        downloadedData = null;
+        return o;
+    }
+
+    /**
+     * Returns when the data was last downloaded.
+     * <p>
+     * Data the site answered to be not modified counts as downloaded then.
+     *
+     * @return the time in milliseconds, {@code 0} if never downloaded
+     */
+    @Override
+    public long getDataTimestamp() {
+        return Math.max(super.getDataTimestamp(), getState().getValidatedTimestamp());
+    }
+
+    /**
+     * Writes the snapshot in the background, as it is needed only on the next startup.
+     *
+     * @param data the data read from the data file, or {@code null} to convert the data file as it is read
+     */
+    private void writeSnapshotLater(@CheckForNull JSONObject data, long sourceLength, long sourceLastModified) {
+        File source = getDataFile().file;
+        File snapshot = getSnapshotFile();
+        Timer.get().submit(() -> {
+            try {
+                if (data != null) {
+                    DataSnapshot.write(data, sourceLength, sourceLastModified, snapshot);
+                } else {
+                    DataSnapshot.write(source, sourceLength, sourceLastModified, snapshot);
+                }
+            } catch (IOException | RuntimeException e) {
+                LOGGER.log(Level.WARNING, "Failed to write " + snapshot, e);
+            }
+        });
+    }
+
+    /**
+     * Returns the URL to request update-center.json.
+     *
+     * @return the URL to request update-center.json
+     */
+    @NonNull
+    protected String getUpdateCenterUrl() {
+        return getUrl() + "?id=" + URLEncoder.encode(getId(), StandardCharsets.UTF_8) + "&version="
+                + URLEncoder.encode(Jenkins.VERSION, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Adds headers required by the site to the request for update-center.json.
+     *
+     * @param builder the request to be sent
+     * @throws IOException when the request cannot be prepared
+     */
+    protected void configureRequest(@NonNull HttpRequest.Builder builder) throws IOException {}
+
+    /**
+     * Adds headers required by the site to the connection to download plugins.
+     *
+     * @param connection the connection not connected yet
+     * @throws IOException when the connection cannot be prepared
+     */
+    protected void configureConnection(@NonNull URLConnection connection) throws IOException {}
+
+    /**
+     * Opens a connection to download files from this site.
+     * <p>
+     * Asks for compressed contents unless disabled,
+     * and decompresses them transparently for the caller.
+     * Large plugins are downloaded in several byte ranges at the same time when {@link #isParallelDownloads()}.
+     * Files under the directory of {@code update-center.json} are downloaded from the best mirror,
+     * and from the next one when the mirror fails to serve them.
+     * Plugins are served from the {@link #getArtifactCache() artifact cache} without accessing the site
+     * when a plugin with the same checksum was downloaded before, and stored in the cache otherwise.
+     * Broken downloads are resumed from the bytes already received, and verified with the published checksum.
+     * Each download is recorded as a {@link SiteEvents.Download} event while JDK Flight Recorder is recording.
+     *
+     * @param src the URL to download
+     * @return the connection to download from
+     * @throws IOException when failed to open the connection
+     */
+    @Override
+    public URLConnection connect(URL src) throws IOException {
+        String key = ArtifactCache.keyOf(getSha256Of(src));
+        if (key == null || ARTIFACT_CACHE_SIZE <= 0) {
+            return record(connectToMirrors(src, key));
+        }
+        ArtifactCache cache = getArtifactCache();
+        Path cached = cache.get(key);
+        if (cached != null) {
+            LOGGER.log(Level.FINE, "Serving {0} from the cache", src);
+            getStatistics().addArtifactCacheHit();
+            SiteEvents.Download event = new SiteEvents.Download();
+            if (event.shouldCommit()) {
+                event.siteId = getId();
+                event.url = src.toExternalForm();
+                event.bytes = Files.size(cached);
+                event.cached = true;
+                event.outcome = "completed";
+                event.commit();
+            }
+            return cached.toUri().toURL().openConnection();
+        }
+        URLConnection connection = connectToMirrors(src, key);
+        if (connection instanceof HttpURLConnection) {
+            connection = new CachingURLConnection(
+                    (HttpURLConnection) connection, cache, key, ARTIFACT_CACHE_SIZE * 1024 * 1024);
+        }
+        return record(connection);
+    }
+
+    /**
+     * Records the download through the connection as a JDK Flight Recorder event.
+     */
+    @NonNull
+    private URLConnection record(@NonNull URLConnection connection) {
+        if (connection instanceof HttpURLConnection && new SiteEvents.Download().isEnabled()) {
+            return new RecordingURLConnection((HttpURLConnection) connection, getId());
+        }
+        return connection;
+    }
+
+    /**
+     * Returns the checksum published for the plugin downloaded from the URL.
+     *
+     * @param src the URL to download
+     * @return the SHA-256 checksum in Base64, {@code null} if not a plugin of this site
+     */
+    @CheckForNull
+    private String getSha256Of(@NonNull URL src) {
+        Data data = getData();
+        if (data == null) {
+            return null;
+        }
+        Checksums checksums = this.checksums;
+        if (checksums == null || checksums.data().get() != data) {
+            checksums = Checksums.of(data);
+            this.checksums = checksums;
+        }
+        return checksums.byUrl().get(src.toExternalForm());
+    }
+
+    /**
+     * Checksums of the plugins by their URLs, indexed once for each data.
+     *
+     * @param data  the data indexed, held weakly so replaced data can be released
+     * @param byUrl SHA-256 checksums in Base64 by the URLs of the plugins
+     */
+    private record Checksums(WeakReference<Data> data, Map<String, String> byUrl) {
+        static Checksums of(Data data) {
+            Map<String, String> byUrl = new HashMap<>();
+            for (Plugin plugin : data.plugins.values()) {
+                String sha256 = plugin.getSha256();
+                if (plugin.url != null && sha256 != null) {
+                    byUrl.put(plugin.url, sha256);
+                }
+            }
+            return new Checksums(new WeakReference<>(data), byUrl);
+        }
+    }
+
+    /**
+     * Opens a connection to download the file from the best mirror holding it,
+     * failing over to the others when the request is sent.
+     */
+    @NonNull
+    private URLConnection connectToMirrors(@NonNull URL src, @CheckForNull String key) throws IOException {
+        List<String> mirrors = getMirrorUrlList();
+        String path = mirrors.size() > 1 ? pathInMirrors(src.toExternalForm(), mirrors) : null;
+        if (path == null) {
+            return open(src, key);
+        }
+        MirrorSelector selector = getMirrorSelector();
+        List<String> ranked = selector.rank(mirrors);
+        List<URL> urls = new ArrayList<>(ranked.size());
+        for (String mirror : ranked) {
+            urls.add(toURL(baseOf(mirror) + path));
+        }
+        URLConnection first = open(urls.get(0), key);
+        if (!(first instanceof HttpURLConnection)) {
+            return first;
+        }
+        return new FailoverURLConnection(
+                (HttpURLConnection) first, ranked, urls, url -> (HttpURLConnection) open(url, key), selector);
+    }
+
+    /**
+     * Returns the path of the file relative to the directory of {@code update-center.json} in any of the mirrors.
+     *
+     * @param url     URL of the file
+     * @param mirrors URLs of {@code update-center.json}
+     * @return the relative path, {@code null} if the file is not in the mirrors
+     */
+    @CheckForNull
+    private static String pathInMirrors(@NonNull String url, @NonNull List<String> mirrors) {
+        for (String mirror : mirrors) {
+            String base = baseOf(mirror);
+            if (url.startsWith(base)) {
+                return url.substring(base.length());
+            }
+        }
+        return null;
+    }
+
+    @NonNull
+    private static String baseOf(@NonNull String url) {
+        return url.substring(0, url.lastIndexOf('/') + 1);
+    }
+
+    @NonNull
+    private static URL toURL(@NonNull String url) throws IOException {
+        try {
+            return new URI(url).toURL();
+        } catch (URISyntaxException | IllegalArgumentException e) {
+            throw new IOException("Invalid URL: " + url, e);
+        }
+    }
+
+    /**
+     * Opens a connection to download the file.
+     *
+     * @param src the URL to download
+     * @param key the expected SHA-256 checksum in hex, {@code null} if not known
+     * @return the connection to download from
+     * @throws IOException when failed to open the connection
+     */
+    @NonNull
+    private URLConnection open(@NonNull URL src, @CheckForNull String key) throws IOException {
+        URLConnection connection = ProxyConfiguration.open(src);
+        configureConnection(connection);
+        if (!(connection instanceof HttpURLConnection)) {
+            return connection;
+        }
+        HttpURLConnection http = (HttpURLConnection) connection;
+        if (isParallelDownloads() && isPluginArchive(src)) {
+            return new RangedURLConnection(
+                    http,
+                    this::openPart,
+                    PARALLEL_DOWNLOAD_PARTS,
+                    PARALLEL_DOWNLOAD_MIN_SIZE,
+                    getRangePartDir(),
+                    getStatistics());
+        }
+        if (RESUME_ATTEMPTS > 0) {
+            http = new ResumingURLConnection(http, this::openPart, RESUME_ATTEMPTS, key, getStatistics());
+        }
+        if (!isDisableCompression()) {
+            return new DecompressingURLConnection(http, getStatistics());
+        }
+        return http;
+    }
+
+    /**
+     * Opens a connection to download a part of a file.
+     */
+    @NonNull
+    private HttpURLConnection openPart(@NonNull URL src) throws IOException {
+        URLConnection connection = ProxyConfiguration.open(src);
+        configureConnection(connection);
+        return (HttpURLConnection) connection;
+    }
+
+    private static boolean isPluginArchive(@NonNull URL src) {
+        String path = src.getPath();
+        return path.endsWith(".hpi") || path.endsWith(".jpi");
+    }
+
+    /**
+     * Downloads update-center.json and updates the data.
+     * <p>
+     * Sends {@code ETag} and {@code Last-Modified} of the last download as validators,
+     * and keeps the current data without parsing or verifying it again
+     * when the server answers it is not modified.
+     * When {@link #isDeltaUpdates()}, asks only for changes since the last download,
+     * and downloads the whole data when the changes cannot be applied.
+     * Disabled sites download nothing,
+     * and sites are not accessed while their {@link #getCircuitBreaker() circuit breakers} are open.
+     *
+     * @param signatureCheck whether to verify the signature
+     * @return the result of the update
+     * @throws IOException when failed to access the site
+     */
+    @NonNull
+    @Override
+    public FormValidation updateDirectlyNow(boolean signatureCheck) throws IOException {
+        if (isDisabled()) {
+            LOGGER.log(Level.FINE, "Skipping disabled site {0}", getId());
+            return FormValidation.ok();
+        }
+        restoreData();
+        CircuitBreaker breaker = getCircuitBreaker();
+        if (!breaker.tryAcquire(getCircuitOpenMillis())) {
+            LOGGER.log(Level.FINE, "Skipping {0} while its circuit is open", getId());
+            return FormValidation.error(
+                    Messages.ManagedUpdateSite_circuitOpen(getUrl(), new Date(breaker.getOpenUntil())));
+        }
+        claim();
+        SiteEvents.Refresh event = new SiteEvents.Refresh();
+        long receivedBefore = getStatistics().getCompressedBytes();
+        event.begin();
+        FormValidation result = null;
+        boolean reachable = false;
+        long retryAfter = 0;
+        try {
+            result = download(signatureCheck, isDeltaUpdates());
+            reachable = true;
+        } catch (SiteUnavailableException e) {
+            LOGGER.log(Level.INFO, "{0} is unavailable: {1}", new Object[] {getId(), e.getMessage()});
+            retryAfter = e.getRetryAfter();
+            result = failure(e);
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Failed to download update center data for " + getId(), e);
+            result = failure(e);
+        } catch (InterruptedException e) {
+            LOGGER.log(Level.WARNING, "Interrupted while downloading update center data for " + getId(), e);
+            Thread.currentThread().interrupt();
+            result = failure(e);
+        } finally {
+            event.end();
+            if (event.shouldCommit()) {
+                event.siteId = getId();
+                event.url = getUrl();
+                event.bytes = getStatistics().getCompressedBytes() - receivedBefore;
+                event.outcome = result != null ? result.kind.name() : "failed";
+                event.commit();
+            }
+            if (reachable) {
+                breaker.onSuccess();
+            } else {
+                long openDuration = getCircuitOpenMillis();
+                breaker.onFailure(
+                        CIRCUIT_BREAKER_THRESHOLD,
+                        openDuration,
+                        Math.max(openDuration, Math.max(getRefreshIntervalMillis(), TimeUnit.HOURS.toMillis(1))),
+                        retryAfter);
+            }
+            boolean succeeded = result != null && result.kind == FormValidation.Kind.OK;
+            getStatistics().addRefresh(succeeded);
+            schedule(succeeded);
+        }
+        return result;
+    }
+
+    /**
+     * Describes a failed refresh, as exceptions do not always have messages.
+     */
+    private FormValidation failure(Exception e) {
+        String message = e.getMessage();
+        return FormValidation.error(message != null ? message : Messages.ManagedUpdateSite_refreshFailed(getUrl()));
+    }
+
+    /**
+     * Puts off the next refresh while this one runs, so the site is not due for other callers meanwhile.
+     * The schedule is replaced when the refresh completes.
+     */
+    private void claim() {
+        SiteState siteState = getState();
+        siteState.scheduled(System.currentTimeMillis() + getRetryDelayMillis(), siteState.getConsecutiveFailures());
+        siteState.save(getStateFile());
+    }
+
+    /**
+     * Schedules the next refresh, backing off exponentially while refreshes fail.
+     * <p>
+     * This is the only backoff scheduled refreshes follow.
+     * The {@link #getCircuitBreaker() circuit breaker} sets a floor to it:
+     * while the circuit is open, the next refresh is put off until the circuit lets a probe through,
+     * so the later of the two wins.
+     * The circuit breaker itself only refuses refreshes requested otherwise, like those from users.
+     *
+     * @param succeeded whether the refresh succeeded
+     */
+    private void schedule(boolean succeeded) {
+        SiteState siteState = getState();
+        long interval = getRefreshIntervalMillis();
+        int failures = succeeded ? 0 : siteState.getConsecutiveFailures() + 1;
+        long delay = interval;
+        if (!succeeded) {
+            long maxDelay = Math.max(interval, DAY);
+            delay = getRetryDelayMillis();
+            for (int i = 1; i < failures && delay < maxDelay; i++) {
+                delay *= 2;
+            }
+            delay = Math.min(delay, maxDelay);
+        }
+        long jitter = delay * Math.max(0, Math.min(REFRESH_JITTER, 100)) / 100;
+        if (jitter > 0) {
+            delay += ThreadLocalRandom.current().nextLong(-jitter, jitter + 1);
+        }
+        long next = System.currentTimeMillis() + delay;
+        CircuitBreaker breaker = getCircuitBreaker();
+        if (breaker.getState() == CircuitBreaker.State.OPEN) {
+            next = Math.max(next, breaker.getOpenUntil());
+        }
+        siteState.scheduled(next, failures);
+        siteState.save(getStateFile());
+    }
+
+    /**
+     * Downloads the data from the site.
+     * <p>
+     * When the changes since the last download do not give valid data,
+     * the whole data is downloaded once more without asking for changes.
+     *
+     * @param signatureCheck whether to verify the signature
+     * @param delta          whether to ask only for changes since the last download
+     * @return the result of the update
+     * @throws IOException          when failed to access the site
+     * @throws InterruptedException when interrupted while waiting for the response
+     */
+    @NonNull
+    private FormValidation download(boolean signatureCheck, boolean delta) throws IOException, InterruptedException {
+        String since = delta && getDataFile().exists() ? getState().getVersion() : null;
+        FormValidation result = downloadOnce(signatureCheck, since);
+        if (result == null) {
+            getStatistics().addDeltaFallback();
+            result = Objects.requireNonNull(downloadOnce(signatureCheck, null));
+        }
+        return result;
+    }
+
+    /**
+     * Downloads the data from the site once.
+     *
+     * @param signatureCheck whether to verify the signature
+     * @param since          the version to ask for changes since, or {@code null} to ask for the whole data
+     * @return the result of the update, or {@code null} if the changes did not give valid data
+     * @throws IOException          when failed to access the site
+     * @throws InterruptedException when interrupted while waiting for the response
+     */
+    @CheckForNull
+    private FormValidation downloadOnce(boolean signatureCheck, @CheckForNull String since)
+            throws IOException, InterruptedException {
+        SiteState siteState = getState();
+        SiteStatistics statistics = getStatistics();
+        MirrorSelector selector = getMirrorSelector();
+        List<String> mirrors = selector.rank(getMirrorUrlList());
+        long hedgeDelay = isHedgedRequests() ? statistics.getLatencyPercentile(HEDGE_PERCENTILE) : -1;
+        List<IOException> failures = new ArrayList<>();
+        Exchange exchange = null;
+        for (int i = 0; i < mirrors.size() && exchange == null; i++) {
+            String candidate = mirrors.get(i);
+            long start = System.nanoTime();
+            try {
+                exchange = hedgeDelay >= 0
+                        ? sendHedged(candidate, mirrors.get((i + 1) % mirrors.size()), since, hedgeDelay)
+                        : send(candidate, since);
+                long elapsed = System.nanoTime() - start;
+                long latency = TimeUnit.NANOSECONDS.toMillis(elapsed);
+                selector.succeeded(exchange.mirror(), latency);
+                statistics.addLatency(latency);
+                statistics.addPhaseTime(SiteStatistics.Phase.CONNECT, elapsed);
+            } catch (IOException e) {
+                selector.failed(candidate);
+                failures.add(e);
+                if (failures.size() < mirrors.size()) {
+                    LOGGER.log(Level.FINE, "Failed to access " + candidate + ", trying the next mirror", e);
+                }
+            }
+        }
+        if (exchange == null) {
+            IOException failure = failures.get(failures.size() - 1);
+            for (IOException e : failures.subList(0, failures.size() - 1)) {
+                failure.addSuppressed(e);
+            }
+            throw failure;
+        }
+        String mirror = exchange.mirror();
+        String url = exchange.url();
+        HttpResponse<InputStream> response = exchange.response();
+
+        String contentType = response.headers().firstValue("Content-Type").orElse("");
+        boolean patch = since != null && contentType.startsWith(DeltaPatches.MEDIA_TYPE);
+        String patchJson = null;
+        Parsed parsed = null;
+        try (InputStream body = response.body()) {
+            if (response.statusCode() == HttpURLConnection.HTTP_NOT_MODIFIED) {
+                LOGGER.log(Level.FINE, "Update center data for {0} is not modified", getId());
+                siteState.validated(System.currentTimeMillis());
+                siteState.save(getStateFile());
+                return FormValidation.ok();
+            }
+            int status = response.statusCode();
+            if (status != HttpURLConnection.HTTP_OK) {
+                return FormValidation.error(Messages.ManagedUpdateSite_unexpectedResponse(status, mirror));
+            }
+            InputStream content = ContentEncodings.decode(
+                    new CountingInputStream(body, statistics::addCompressedBytes),
+                    response.headers().firstValue("Content-Encoding").orElse(null));
+            InputStream decompressed = new CountingInputStream(content, statistics::addUncompressedBytes);
+            long contentLength = response.headers().firstValueAsLong("Content-Length").orElse(-1);
+            if (patch) {
+                patchJson = readJson(decompressed, contentLength);
+            } else {
+                parsed = parseJson(decompressed, contentLength);
+            }
+        }
+
+        FormValidation result;
+        String version;
+        JSONObject snapshot;
+        if (parsed != null) {
+            version = parsed.digest();
+            try {
+                result = signatureCheck ? verify(parsed.data(), parsed.digest()) : FormValidation.ok();
+                if (result.kind == FormValidation.Kind.OK) {
+                    long start = System.nanoTime();
+                    result = store(parsed.data(), parsed.file());
+                    statistics.addPhaseTime(
+                            SiteStatistics.Phase.PARSE, parsed.parseNanos() + System.nanoTime() - start);
+                }
+            } finally {
+                Files.deleteIfExists(parsed.file());
+            }
+            snapshot = parsed.data();
+        } else {
+            long start = System.nanoTime();
+            JSONObject patchedData = getJSONObject();
+            String target = patchedData != null
+                    ? DeltaPatches.apply(patchedData, since, JSONObject.fromObject(patchJson))
+                    : null;
+            long parseNanos = System.nanoTime() - start;
+            if (target == null) {
+                LOGGER.log(Level.INFO, "Changes for {0} do not apply, downloading all", getId());
+                return null;
+            }
+            version = target;
+            // the data reconstructed from a patch is not byte-identical to what was verified before
+            result = signatureCheck ? verify(patchedData, null) : FormValidation.ok();
+            if (result.kind != FormValidation.Kind.OK) {
+                LOGGER.log(Level.INFO, "Data patched for {0} is not valid, downloading all", getId());
+                return null;
+            }
+            start = System.nanoTime();
+            result = store(patchedData);
+            statistics.addPhaseTime(SiteStatistics.Phase.PARSE, parseNanos + System.nanoTime() - start);
+            statistics.addDeltaUpdate();
+            snapshot = patchedData;
+        }
+        if (result.kind == FormValidation.Kind.OK) {
+            File source = getDataFile().file;
+            writeSnapshotLater(snapshot, source.length(), source.lastModified());
+            siteState.updated(
+                    url,
+                    response.headers().firstValue("ETag").orElse(null),
+                    response.headers().firstValue("Last-Modified").orElse(null),
+                    version,
+                    System.currentTimeMillis());
+            siteState.save(getStateFile());
+        }
+        return result;
+    }
+
+    /**
+     * Response for update-center.json and where it came from.
+     *
+     * @param mirror   URL of update-center.json in the mirror
+     * @param url      URL requested, with parameters added by {@link #getUpdateCenterUrl()}
+     * @param response the response, with the body still to read
+     */
+    private record Exchange(String mirror, String url, HttpResponse<InputStream> response) {}
+
+    /**
+     * Sends the request for update-center.json to the mirror.
+     *
+     * @param mirror URL of update-center.json in the mirror
+     * @param since  the version of the data to ask changes since, {@code null} to ask for the whole data
+     * @return the response
+     * @throws SiteUnavailableException when the mirror answers it cannot serve the data for now
+     * @throws IOException              when failed to access the mirror
+     * @throws InterruptedException     when interrupted while waiting for the response
+     */
+    @NonNull
+    private Exchange send(@NonNull String mirror, @CheckForNull String since) throws IOException, InterruptedException {
+        String url = toMirror(getUpdateCenterUrl(), mirror);
+        HttpResponse<InputStream> response = SiteHttpClients.get(getId(), getUrl())
+                .send(request(url, since), HttpResponse.BodyHandlers.ofInputStream());
+        return new Exchange(mirror, url, checkAvailable(response, mirror));
+    }
+
+    /**
+     * Sends the request for update-center.json to the mirror,
+     * and sends it again to another mirror when no response arrives in time.
+     * <p>
+     * The first response to arrive is used, and the other request is cancelled.
+     * When one of them fails, the response to the other one is used.
+     *
+     * @param mirror      URL of update-center.json in the mirror
+     * @param hedgeMirror URL of update-center.json in the mirror to send the second request to,
+     *                    can be the same as {@code mirror}
+     * @param since       the version of the data to ask changes since, {@code null} to ask for the whole data
+     * @param delay       time in milliseconds to wait for the response before sending the second request
+     * @return the response arrived first
+     * @throws SiteUnavailableException when the mirrors answer they cannot serve the data for now
+     * @throws IOException              when failed to access the mirrors
+     * @throws InterruptedException     when interrupted while waiting for the response
+     */
+    @NonNull
+    private Exchange sendHedged(
+            @NonNull String mirror, @NonNull String hedgeMirror, @CheckForNull String since, long delay)
+            throws IOException, InterruptedException {
+        HttpClient client = SiteHttpClients.get(getId(), getUrl());
+        String url = toMirror(getUpdateCenterUrl(), mirror);
+        CompletableFuture<HttpResponse<InputStream>> first =
+                client.sendAsync(request(url, since), HttpResponse.BodyHandlers.ofInputStream());
+        try {
+            return new Exchange(mirror, url, checkAvailable(first.get(delay, TimeUnit.MILLISECONDS), mirror));
+        } catch (TimeoutException e) {
+            LOGGER.log(Level.FINE, "No response from {0} in {1} ms, sending the request to {2}", new Object[] {
+                mirror, delay, hedgeMirror
+            });
+        } catch (ExecutionException e) {
+            throw unwrap(e);
+        } catch (InterruptedException e) {
+            first.cancel(true);
+            throw e;
+        }
+
+        SiteStatistics statistics = getStatistics();
+        statistics.addHedgedRequest();
+        String hedgeUrl = toMirror(getUpdateCenterUrl(), hedgeMirror);
+        CompletableFuture<HttpResponse<InputStream>> second =
+                client.sendAsync(request(hedgeUrl, since), HttpResponse.BodyHandlers.ofInputStream());
+        CompletableFuture<Exchange> winner = new CompletableFuture<>();
+        AtomicInteger pending = new AtomicInteger(2);
+        race(first, mirror, url, winner, pending, null);
+        race(second, hedgeMirror, hedgeUrl, winner, pending, statistics::addHedgeWin);
+        try {
+            return winner.get();
+        } catch (ExecutionException e) {
+            throw unwrap(e);
+        } finally {
+            // no effect on the winner, as it has already completed
+            first.cancel(true);
+            second.cancel(true);
+        }
+    }
+
+    /**
+     * Completes {@code winner} with the first successful response,
+     * or with the failure when all the requests have failed.
+     */
+    private static void race(
+            CompletableFuture<HttpResponse<InputStream>> future,
+            String mirror,
+            String url,
+            CompletableFuture<Exchange> winner,
+            AtomicInteger pending,
+            @CheckForNull Runnable onWin) {
+        future.whenComplete((response, failure) -> {
+            Throwable error = failure;
+            if (response != null) {
+                try {
+                    if (!winner.complete(new Exchange(mirror, url, checkAvailable(response, mirror)))) {
+                        response.body().close();
+                    } else if (onWin != null) {
+                        onWin.run();
+                    }
+                    return;
+                } catch (IOException e) {
+                    error = e;
+                }
+            }
+            if (pending.decrementAndGet() == 0) {
+                winner.completeExceptionally(error);
+            }
+        });
+    }
+
+    private static IOException unwrap(ExecutionException e) {
+        Throwable cause = e.getCause();
+        return cause instanceof IOException ? (IOException) cause : new IOException(cause);
+    }
+
+    /**
+     * Builds the request for update-center.json.
+     *
+     * @param url   URL to request, with parameters added by {@link #getUpdateCenterUrl()}
+     * @param since the version of the data to ask changes since, {@code null} to ask for the whole data
+     * @return the request
+     * @throws IOException when the request cannot be prepared
+     */
+    @NonNull
+    private HttpRequest request(@NonNull String url, @CheckForNull String since) throws IOException {
+        SiteState siteState = getState();
+        String requestUrl = since == null
+                ? url
+                : url + (url.contains("?") ? "&" : "?") + "since=" + URLEncoder.encode(since, StandardCharsets.UTF_8);
+        String accept = since == null ? "application/json" : DeltaPatches.MEDIA_TYPE + ", application/json";
+        HttpRequest.Builder builder;
+        try {
+            builder = ProxyConfiguration.newHttpRequestBuilder(new URI(requestUrl)).header("Accept", accept);
+        } catch (IllegalArgumentException | URISyntaxException e) {
+            throw new IOException(e.getMessage(), e);
+        }
+        configureRequest(builder);
+        if (!isDisableCompression()) {
+            builder.header("Accept-Encoding", ContentEncodings.ACCEPT_ENCODING);
+        }
+
+        if (getDataFile().exists() && siteState.hasValidatorsFor(url)) {
+            if (siteState.getEtag() != null) {
+                builder.header("If-None-Match", siteState.getEtag());
+            }
+            if (siteState.getLastModified() != null) {
+                builder.header("If-Modified-Since", siteState.getLastModified());
+            }
+        }
+        return builder.GET().build();
+    }
+
+    /**
+     * Fails when the mirror answers it cannot serve the data for now.
+     *
+     * @param response the response from the mirror
+     * @param mirror   URL of update-center.json in the mirror
+     * @return the response
+     * @throws SiteUnavailableException when the mirror answers {@code 429} or {@code 5xx}
+     */
+    @NonNull
+    private static HttpResponse<InputStream> checkAvailable(
+            @NonNull HttpResponse<InputStream> response, @NonNull String mirror) throws IOException {
+        int status = response.statusCode();
+        if (status == HTTP_TOO_MANY_REQUESTS || status >= HttpURLConnection.HTTP_INTERNAL_ERROR) {
+            response.body().close();
+            long retryAfter = retryAfterOf(response);
+            throw new SiteUnavailableException(
+                    Messages.ManagedUpdateSite_unexpectedResponse(status, mirror),
+                    // the site is throttling us even without telling how long
+                    status == HTTP_TOO_MANY_REQUESTS ? Math.max(retryAfter, 1) : retryAfter);
+        }
+        return response;
+    }
+
+    /**
+     * Replaces {@link #getUrl()} in the URL with the mirror.
+     *
+     * @param url    URL built from {@link #getUrl()}
+     * @param mirror URL of update-center.json in the mirror
+     * @return the URL in the mirror
+     */
+    @NonNull
+    private String toMirror(@NonNull String url, @NonNull String mirror) {
+        return url.startsWith(getUrl()) ? mirror + url.substring(getUrl().length()) : url;
+    }
+
+    /**
+     * Returns how long the site asked to wait with {@code Retry-After}.
+     *
+     * @param response the response from the site
+     * @return the time to wait in milliseconds, {@code 0} if not asked or not understood
+     */
+    private static long retryAfterOf(@NonNull HttpResponse<?> response) {
+        String retryAfter = response.headers().firstValue("Retry-After").orElse(null);
+        if (retryAfter == null) {
+            return 0;
+        }
+        try {
+            // either delay-seconds or an HTTP-date
+            if (retryAfter.trim().chars().allMatch(Character::isDigit)) {
+                return TimeUnit.SECONDS.toMillis(Long.parseLong(retryAfter.trim()));
+            }
+            ZonedDateTime until = ZonedDateTime.parse(retryAfter.trim(), DateTimeFormatter.RFC_1123_DATE_TIME);
+            return Math.max(0, until.toInstant().toEpochMilli() - System.currentTimeMillis());
+        } catch (NumberFormatException | DateTimeParseException e) {
+            LOGGER.log(Level.FINE, "Ignoring invalid Retry-After: {0}", retryAfter);
+            return 0;
+        }
+    }
+
+    /**
+     * Thrown when the site answers it cannot serve the data for now.
+     */
+    private static final class SiteUnavailableException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        private final long retryAfter;
+
+        SiteUnavailableException(String message, long retryAfter) {
+            super(message);
+            this.retryAfter = retryAfter;
+        }
+
+        /**
+         * @return the time in milliseconds the site asked to wait, {@code 0} if not asked
+         */
+        long getRetryAfter() {
+            return retryAfter;
+        }
+    }
+
+    /**
+     * Reads the changes downloaded as a patch, which are small enough to hold as text.
+     * <p>
+     * The JSONP wrapper is stripped while reading,
+     * and the bytes are decoded only once into the resulting string.
+     * The limit applies to the decompressed content as it is read, before any of it is held.
+     *
+     * @param in            the downloaded content, decompressed
+     * @param contentLength the length of the content as transferred if known, or {@code -1}
+     * @return the JSON object
+     * @throws IOException when failed to read, or the content exceeds {@link #MAX_PAYLOAD_SIZE}
+     */
+    @NonNull
+    private String readJson(@NonNull InputStream in, long contentLength) throws IOException {
+        if (contentLength > MAX_PAYLOAD_SIZE) {
+            throw new IOException(Messages.ManagedUpdateSite_payloadTooLarge(getUrl(), MAX_PAYLOAD_SIZE));
+        }
+        int initialSize = contentLength > 0 && contentLength < Integer.MAX_VALUE ? (int) contentLength : BUFFER_SIZE;
+        ByteArrayOutputStream out = new ByteArrayOutputStream(initialSize);
+        SiteStatistics statistics = getStatistics();
+        long[] downloadNanos = new long[1];
+        long start = System.nanoTime();
+        try (InputStream json = unwrap(new TimingInputStream(in, t -> downloadNanos[0] += t))) {
+            byte[] buf = new byte[BUFFER_SIZE];
+            int len;
+            while ((len = json.read(buf)) >= 0) {
+                out.write(buf, 0, len);
+            }
+        }
+        // decodes straight from the internal buffer without copying it
+        String json = out.toString(StandardCharsets.UTF_8);
+        statistics.addPhaseTime(SiteStatistics.Phase.DOWNLOAD, downloadNanos[0]);
+        statistics.addPhaseTime(SiteStatistics.Phase.UNWRAP, System.nanoTime() - start - downloadNanos[0]);
+        return json;
+    }
+
+    /**
+     * Strips the JSONP wrapper, failing once more than {@link #MAX_PAYLOAD_SIZE} bytes are read.
+     *
+     * @param in the downloaded content, decompressed
+     * @return the JSON object
+     */
+    @NonNull
+    private InputStream unwrap(@NonNull InputStream in) {
+        long maxSize = MAX_PAYLOAD_SIZE;
+        return new JsonpUnwrappingInputStream(
+                in, getUrl(), maxSize, () -> Messages.ManagedUpdateSite_payloadTooLarge(getUrl(), maxSize));
+    }
+
+    /**
+     * Parses downloaded update-center.json as it arrives.
+     * <p>
+     * The JSONP wrapper is stripped while reading,
+     * and the content is written to a temporary file next to the data file and digested on the way to the parser,
+     * so it is never held in memory as a whole.
+     * The limit applies to the decompressed content as it is read.
+     *
+     * @param in            the downloaded content, decompressed
+     * @param contentLength the length of the content as transferred if known, or {@code -1}
+     * @return the parsed data, its digest and the temporary file holding its content
+     * @throws IOException when failed to read or parse, or the content exceeds {@link #MAX_PAYLOAD_SIZE}
+     */
+    @NonNull
+    private Parsed parseJson(@NonNull InputStream in, long contentLength) throws IOException {
+        if (contentLength > MAX_PAYLOAD_SIZE) {
+            throw new IOException(Messages.ManagedUpdateSite_payloadTooLarge(getUrl(), MAX_PAYLOAD_SIZE));
+        }
+        Path dir = getDataFile().file.getParentFile().toPath();
+        Files.createDirectories(dir);
+        Path tmp = Files.createTempFile(dir, getDataFile().file.getName(), ".tmp");
+        MessageDigest digest = newDigest();
+        SiteStatistics statistics = getStatistics();
+        long[] downloadNanos = new long[1];
+        long[] readNanos = new long[1];
+        long start = System.nanoTime();
+        try {
+            JSONObject data;
+            try (OutputStream out = Files.newOutputStream(tmp);
+                    InputStream json = new SpoolingInputStream(
+                            new TimingInputStream(
+                                    unwrap(new TimingInputStream(in, t -> downloadNanos[0] += t)),
+                                    t -> readNanos[0] += t),
+                            out,
+                            digest)) {
+                data = JsonStreamParser.parse(json);
+            }
+            statistics.addPhaseTime(SiteStatistics.Phase.DOWNLOAD, downloadNanos[0]);
+            statistics.addPhaseTime(SiteStatistics.Phase.UNWRAP, readNanos[0] - downloadNanos[0]);
+            return new Parsed(data, Util.toHexString(digest.digest()), tmp, System.nanoTime() - start - readNanos[0]);
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(tmp);
+            throw e;
+        }
+    }
+
+    /**
+     * Installs data reconstructed from a patch, writing it to the data file without parsing it again.
+     * The signature is to be verified beforehand.
+     *
+     * @param data the data reconstructed from a patch
+     * @return the result of the validation
+     * @throws IOException when failed to store the data
+     */
+    @NonNull
+    private FormValidation store(@NonNull JSONObject data) throws IOException {
+        Path dir = getDataFile().file.getParentFile().toPath();
+        Files.createDirectories(dir);
+        Path tmp = Files.createTempFile(dir, getDataFile().file.getName(), ".tmp");
+        try {
+            Files.writeString(tmp, data.toString());
+            return store(data, tmp);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    /**
+     * Installs data parsed from the download, as {@link #updateData(String, boolean)} does for the text.
+     * <p>
+     * The file holding the content replaces the data file.
+     * The core replaces its data only in {@code updateData}, which would parse the text once more,
+     * so its data is invalidated instead and built again from the tree handed over by {@link #getJSONObject()}.
+     * The signature is to be verified beforehand.
+     *
+     * @param data the data parsed from the download
+     * @param file the file holding the content of the data
+     * @return the result of the validation
+     * @throws IOException when failed to store the data
+     */
+    @NonNull
+    private FormValidation store(@NonNull JSONObject data, @NonNull Path file) throws IOException {
+        int v;
+        try {
+            v = data.getInt("updateCenterVersion");
+        } catch (JSONException e) {
+            throw new IllegalArgumentException("Could not find (numeric) updateCenterVersion in " + getUrl(), e);
+        }
+        if (v != 1) {
+            throw new IllegalArgumentException("Unrecognized update center version: " + v);
+        }
+        LOGGER.log(Level.INFO, "Obtained the latest update center data file for UpdateSource {0}", getId());
+        Files.move(
+                file, getDataFile().file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        synchronized (this) {
+            downloadedData = data;
+        }
+        // the only way to drop the data held by the core besides updateData, checking for ADMINISTER
+        try (ACLContext ignored = ACL.as2(ACL.SYSTEM2)) {
+            doInvalidateData();
+        }
+        // taken right away rather than held until the data is next looked up
+        getData();
+        return FormValidation.ok();
+    }
+
+    /**
+     * Verifies the signature of downloaded data, as {@link #updateData(String, boolean)} does.
+     * <p>
+     * The result of verifying byte-identical data with the same trust anchors is reused.
+     * The data is the tree that is installed afterwards, so the signature taken out by the validator is put back.
+     *
+     * @param data   the data to verify
+     * @param digest digest of the downloaded payload, {@code null} if the data is not as downloaded
+     * @return the result of the verification
+     * @throws IOException when failed to verify
+     */
+    @NonNull
+    private FormValidation verify(@NonNull JSONObject data, @CheckForNull String digest) throws IOException {
+        String name = "update site '" + getId() + "'";
+        JSONSignatureValidator trusted = newJsonSignatureValidator(name);
+        JSONSignatureValidator validator = withTiming(name, trusted);
+        if (digest != null) {
+            String trustKey = trusted instanceof ExtendedCertJsonSignValidator extended
+                    ? extended.getCertDigest()
+                    : "default";
+            validator = new CachingJsonSignatureValidator(name, validator, digest, trustKey, getStatistics());
+        }
+        Object signature = data.get("signature");
+        FormValidation result;
+        try {
+            result = validator.verifySignature(data);
+        } finally {
+            if (signature != null && !data.has("signature")) {
+                data.element("signature", signature);
+            }
+        }
+        if (result.kind != FormValidation.Kind.OK) {
+            LOGGER.severe(result.toString());
+        }
+        return result;
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+
+    /**
+     * update-center.json parsed as it was downloaded.
+     *
+     * @param data       the JSON object
+     * @param digest     SHA-256 of the JSON object
+     * @param file       temporary file holding the JSON object
+     * @param parseNanos time in nanoseconds spent parsing
+     */
+    private record Parsed(JSONObject data, String digest, Path file, long parseNanos) {}
+
+    /**
+     * Returns true if it's time for us to check for newer versions.
+     * <p>
+     * Follows the schedule of this site rather than the global one:
+     * refreshes after {@link #getRefreshInterval()} with a random deviation,
+     * and retries failed refreshes with exponentially growing delays.
+     * The schedule already waits until the circuit breaker lets the site be accessed again.
+     * Data confirmed to be up to date by the server counts as fresh
+     * even if it was downloaded long ago.
+     * Never due when updates are turned off with {@link UpdateCenter#neverUpdate}, as in the core.
+     *
+     * @return {@code true} if time to check for newer versions.
+     * @see DescribedUpdateSite#isDue()
+     */
+    @Override
+    public boolean isDue() {
+        if (UpdateCenter.neverUpdate || isDisabled()) {
+            return false;
+        }
+        SiteState siteState = getState();
+        long now = System.currentTimeMillis();
+        long nextRefresh = siteState.getNextRefresh();
+        if (nextRefresh == 0 && getDataFile().exists()) {
+            // downloaded before schedules were recorded
+            long lastRefresh = Math.max(siteState.getValidatedTimestamp(), getDataFile().file.lastModified());
+            nextRefresh = lastRefresh + getRefreshIntervalMillis();
+        }
+        return now >= nextRefresh;
+    }
+
+    /**
+     * Verifier for the signature of downloaded update-center.json.
+     * <p>
+     * The time spent verifying is recorded to the {@link #getStatistics() statistics}.
+     *
+     * @return JSONSignatureValidator object with additional cert as anchor if enabled
+     */
+    @NonNull
+    @Override
+    protected JSONSignatureValidator getJsonSignatureValidator(@CheckForNull String name) {
+        return withTiming(name, newJsonSignatureValidator(name));
+    }
+
+    private JSONSignatureValidator newJsonSignatureValidator(@CheckForNull String name) {
+        if (isUseCaCertificate()) {
+            return new ExtendedCertJsonSignValidator(getId(), getCaCertificate());
+        }
+        return super.getJsonSignatureValidator(name);
+    }
+
+    private JSONSignatureValidator withTiming(@CheckForNull String name, @NonNull JSONSignatureValidator validator) {
+        SiteStatistics statistics = getStatistics();
+        return new TimingJsonSignatureValidator(name, getId(), getUrl(), validator, nanos -> {
+            statistics.addPhaseTime(SiteStatistics.Phase.VERIFY, nanos);
+        });
+    }
+
+    /**
+     * Descriptor for this class.
+     */
+    @Extension
+    public static class DescriptorImpl extends DescribedUpdateSiteDescriptor {
+        /**
+         * Returns the kind name of this UpdateSite.
+         *
+         * shown when select UpdateSite to create.
+         *
+         * @return the kind name of the site
+         * @see hudson.model.Descriptor#getDisplayName()
+         */
+        @NonNull
+        @Override
+        public String getDisplayName() {
+            return Messages.ManagedUpdateSite_DisplayName();
+        }
+
+        /**
+         * Returns whether the URLs of mirrors are valid.
+         *
+         * @param mirrorUrls the URLs of mirrors, one in a line
+         * @return FormValidation the validation result
+         */
+        @RequirePOST
+        public FormValidation doCheckMirrorUrls(@QueryParameter String mirrorUrls) {
+            if (StringUtils.isBlank(mirrorUrls)) {
+                return FormValidation.ok();
+            }
+            for (String line : mirrorUrls.split("\\R")) {
+                if (StringUtils.isNotBlank(line)) {
+                    FormValidation result = doCheckUrl(line.trim());
+                    if (result.kind != FormValidation.Kind.OK) {
+                        return result;
+                    }
+                }
+            }
+            return FormValidation.ok();
+        }
+
+        /**
+         * Returns whether the certificate is valid.
+         *
+         * @param useCaCertificate {@code true} to use a specific CA certificate
+         * @param caCertificate the CA certificate
+         * @return FormValidation the validation result
+         */
+        @RequirePOST
+        public FormValidation doCheckCaCertificate(
+                @QueryParameter boolean useCaCertificate, @QueryParameter String caCertificate) {
+            if (!useCaCertificate) {
+                return FormValidation.ok();
+            }
+
+            if (StringUtils.isBlank(caCertificate)) {
+                return FormValidation.error(Messages.ManagedUpdateSite_caCertificate_required());
+            }
+
+            try {
+                ExtendedCertJsonSignValidator.parseCertificates(caCertificate);
+            } catch (CertificateException e) {
+                return FormValidation.error(Messages.ManagedUpdateSite_caCertificate_invalid(e.getLocalizedMessage()));
             }
 
             return FormValidation.ok();
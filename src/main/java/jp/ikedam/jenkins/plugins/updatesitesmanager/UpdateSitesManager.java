@@ -30,20 +30,53 @@ import static com.google.common.collect.Sets.newHashSet;
 import com.google.common.base.Function;
 import com.google.common.base.Predicate;
 import com.google.common.collect.Iterables;
+import edu.umd.cs.findbugs.annotations.CheckForNull;
 import edu.umd.cs.findbugs.annotations.NonNull;
+import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
 import hudson.Extension;
+import hudson.init.Terminator;
+import hudson.model.AsyncPeriodicWork;
 import hudson.model.Descriptor.FormException;
 import hudson.model.ManagementLink;
+import hudson.model.TaskListener;
+import hudson.model.UpdateCenter;
 import hudson.model.UpdateSite;
+import hudson.util.DaemonThreadFactory;
 import hudson.util.FormApply;
+import hudson.util.FormValidation;
+import hudson.util.NamingThreadFactory;
 import jakarta.annotation.Nullable;
 import jakarta.servlet.ServletException;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 import jenkins.model.Jenkins;
+import jenkins.util.SystemProperties;
+import jenkins.util.Timer;
+import jp.ikedam.jenkins.plugins.updatesitesmanager.internal.CircuitBreaker;
+import jp.ikedam.jenkins.plugins.updatesitesmanager.internal.MirrorSelector;
+import jp.ikedam.jenkins.plugins.updatesitesmanager.internal.SiteHttpClients;
+import jp.ikedam.jenkins.plugins.updatesitesmanager.internal.SiteMetrics;
+import jp.ikedam.jenkins.plugins.updatesitesmanager.internal.SiteStatistics;
 import jp.ikedam.jenkins.plugins.updatesitesmanager.internal.Sites;
+import net.sf.json.JSONArray;
+import net.sf.json.JSONObject;
 import org.apache.commons.lang.StringUtils;
+import org.kohsuke.stapler.HttpResponse;
+import org.kohsuke.stapler.HttpResponses;
+import org.kohsuke.stapler.QueryParameter;
 import org.kohsuke.stapler.StaplerRequest2;
 import org.kohsuke.stapler.StaplerResponse2;
 import org.kohsuke.stapler.interceptor.RequirePOST;
@@ -59,8 +92,47 @@ import org.kohsuke.stapler.interceptor.RequirePOST;
 @Extension(ordinal = Integer.MAX_VALUE - 410) // show just after Manage Plugins (1.489 and later)
 public class UpdateSitesManager extends ManagementLink {
 
+    private static final Logger LOGGER = Logger.getLogger(UpdateSitesManager.class.getName());
+
     public static final String URL = "updatesites";
 
+    /**
+     * Maximum number of sites refreshed at the same time by {@link #refreshAll()}.
+     */
+    @SuppressFBWarnings(value = "MS_SHOULD_BE_FINAL", justification = "Accessible via System Groovy Scripts")
+    public static /* non-final */ int REFRESH_THREADS =
+            SystemProperties.getInteger(UpdateSitesManager.class.getName() + ".refreshThreads", 8);
+
+    /**
+     * Time allowed to refresh each managed site by {@link #refreshAll()}, in seconds.
+     * Counted from when the refresh of the site starts, so time spent waiting for a free thread does not count.
+     */
+    @SuppressFBWarnings(value = "MS_SHOULD_BE_FINAL", justification = "Accessible via System Groovy Scripts")
+    public static /* non-final */ long REFRESH_TIMEOUT =
+            SystemProperties.getLong(UpdateSitesManager.class.getName() + ".refreshTimeout", 60L);
+
+    /**
+     * Time allowed to refresh each managed site when it becomes due, in seconds, {@code 0} or less for no limit.
+     * Counted from when the refresh of the site starts.
+     * Refreshes in the background are not waited for, so large data from slow sites is allowed more time
+     * than {@link #REFRESH_TIMEOUT}.
+     */
+    @SuppressFBWarnings(value = "MS_SHOULD_BE_FINAL", justification = "Accessible via System Groovy Scripts")
+    public static /* non-final */ long SCHEDULED_REFRESH_TIMEOUT =
+            SystemProperties.getLong(UpdateSitesManager.class.getName() + ".scheduledRefreshTimeout", 600L);
+
+    /**
+     * Interval to look for managed sites due to refresh, in minutes.
+     */
+    @SuppressFBWarnings(value = "MS_SHOULD_BE_FINAL", justification = "Accessible via System Groovy Scripts")
+    public static /* non-final */ long REFRESH_CHECK_PERIOD =
+            SystemProperties.getLong(UpdateSitesManager.class.getName() + ".refreshCheckPeriod", 5L);
+
+    /**
+     * Created on the first refresh, see {@link #getRefreshExecutor()}.
+     */
+    private static ThreadPoolExecutor refreshExecutor;
+
     /**
      * Return the name of the link shown in Manage Jenkins page.
      *
@@ -129,6 +201,15 @@ public class UpdateSitesManager extends ManagementLink {
         return newArrayList(Iterables.filter(Jenkins.get().getUpdateCenter().getSites(), not(new IsSiteManaged())));
     }
 
+    /**
+     * Return a list of ManagedUpdateSites registered in Jenkins.
+     *
+     * @return a list of ManagedUpdateSites
+     */
+    public List<ManagedUpdateSite> getManagedSiteList() {
+        return newArrayList(Iterables.filter(Jenkins.get().getUpdateCenter().getSites(), ManagedUpdateSite.class));
+    }
+
     /**
      * Returns all the registered DescribedUpdateSite.
      *
@@ -154,6 +235,7 @@ public class UpdateSitesManager extends ManagementLink {
 
         Jenkins.get().checkPermission(Jenkins.ADMINISTER);
 
+        List<UpdateSite> oldManaged = getManagedUpdateSiteList();
         List<UpdateSite> newSitesList = newArrayList(Iterables.concat(getNotManagedUpdateSiteList(), managed));
 
         shouldNotContainDuplicatedIds(newSitesList);
@@ -161,10 +243,216 @@ public class UpdateSitesManager extends ManagementLink {
 
         Jenkins.get().getUpdateCenter().getSites().replaceBy(newSitesList);
         Jenkins.get().getUpdateCenter().save();
+        for (UpdateSite site : managed) {
+            if (site instanceof ManagedUpdateSite managedSite) {
+                managedSite.archiveData();
+            }
+        }
+        Set<String> ids = newHashSet(Iterables.transform(newSitesList, new IdExtractor()));
+        for (UpdateSite site : oldManaged) {
+            if (site instanceof ManagedUpdateSite managedSite && !ids.contains(site.getId())) {
+                // not to pick up the state again when the id is used again
+                managedSite.deleteFiles();
+            }
+        }
+        SiteHttpClients.retain(ids);
+        CircuitBreaker.retain(ids);
+        MirrorSelector.retain(ids);
+        SiteStatistics.retain(ids);
 
         FormApply.success(req.getContextPath() + "/manage").generateResponse(req, rsp, null);
     }
 
+    /**
+     * Refresh all the managed sites at once
+     * @return the result of the refresh of each site in JSON
+     */
+    @RequirePOST
+    @SuppressWarnings("unused")
+    public HttpResponse doRefreshAll() {
+        Jenkins.get().checkPermission(Jenkins.ADMINISTER);
+
+        JSONArray results = new JSONArray();
+        for (RefreshResult result : refreshAll()) {
+            results.add(result.toJSONObject());
+        }
+        return HttpResponses.okJSON(results);
+    }
+
+    /**
+     * Serves the metrics of the managed sites: times taken by each phase of refreshes,
+     * transferred bytes, numbers of refreshes, failures and of the optimizations taking effect,
+     * and the age of the data.
+     *
+     * @param format {@code prometheus} for the Prometheus text format, JSON otherwise
+     * @return the metrics
+     */
+    @SuppressWarnings("unused")
+    public HttpResponse doMetrics(@QueryParameter String format) {
+        Jenkins.get().checkPermission(Jenkins.ADMINISTER);
+
+        List<SiteMetrics> metrics = new ArrayList<>();
+        for (ManagedUpdateSite site : getManagedSiteList()) {
+            metrics.add(new SiteMetrics(site.getId(), site.getStatistics(), site.getDataTimestamp()));
+        }
+        long now = System.currentTimeMillis();
+        if ("prometheus".equals(format)) {
+            return HttpResponses.text(SiteMetrics.toPrometheus(metrics, now));
+        }
+        return HttpResponses.okJSON(SiteMetrics.toJSON(metrics, now));
+    }
+
+    /**
+     * Refresh all the managed sites in parallel.
+     * <p>
+     * A site not refreshed in {@link #REFRESH_TIMEOUT} seconds from its start is interrupted,
+     * so a slow site does not block the others.
+     * Disabled sites are skipped.
+     *
+     * @return the result of the refresh of each site
+     */
+    @NonNull
+    public List<RefreshResult> refreshAll() {
+        List<RefreshResult> results = new ArrayList<>();
+        List<UpdateSite> sites = new ArrayList<>();
+        for (UpdateSite site : getManagedUpdateSiteList()) {
+            if (((DescribedUpdateSite) site).isDisabled()) {
+                results.add(new RefreshResult(site.getId(), RefreshResult.Status.SKIPPED, 0, null));
+            } else {
+                sites.add(site);
+            }
+        }
+        results.addAll(refresh(sites, REFRESH_TIMEOUT));
+        return results;
+    }
+
+    /**
+     * Refreshes sites in parallel, allowing each of them {@code timeout} seconds from when it starts.
+     */
+    private static List<RefreshResult> refresh(List<UpdateSite> sites, long timeout) {
+        ExecutorService executor = getRefreshExecutor();
+        List<RefreshTask> tasks = new ArrayList<>();
+        for (UpdateSite site : sites) {
+            RefreshTask task = new RefreshTask(site, timeout);
+            executor.execute(task);
+            tasks.add(task);
+        }
+        List<RefreshResult> results = new ArrayList<>();
+        for (RefreshTask task : tasks) {
+            try {
+                results.add(task.get());
+            } catch (CancellationException e) {
+                results.add(new RefreshResult(
+                        task.site.getId(), RefreshResult.Status.TIMEOUT, task.getElapsed(), null));
+            } catch (ExecutionException e) {
+                // refresh() handles all the exceptions
+                LOGGER.log(Level.WARNING, "Unexpected failure in refreshing update sites", e);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                tasks.forEach(t -> t.cancel(true));
+                break;
+            }
+        }
+        return results;
+    }
+
+    /**
+     * Refreshes a site, and interrupts it once it runs longer than the timeout.
+     */
+    private static final class RefreshTask extends FutureTask<RefreshResult> {
+        private final UpdateSite site;
+
+        private final long timeout;
+
+        private volatile long start;
+
+        /**
+         * @param site    the site to refresh
+         * @param timeout time allowed from the start in seconds, {@code 0} or less to wait without a limit
+         */
+        RefreshTask(UpdateSite site, long timeout) {
+            super(() -> refresh(site));
+            this.site = site;
+            this.timeout = timeout;
+        }
+
+        @Override
+        public void run() {
+            start = System.nanoTime();
+            // no effect once the refresh has completed
+            ScheduledFuture<?> watchdog =
+                    timeout > 0 ? Timer.get().schedule(() -> cancel(true), timeout, TimeUnit.SECONDS) : null;
+            try {
+                super.run();
+            } finally {
+                if (watchdog != null) {
+                    watchdog.cancel(false);
+                }
+            }
+        }
+
+        /**
+         * @return time in milliseconds since the refresh started, {@code 0} if not started
+         */
+        long getElapsed() {
+            long started = start;
+            return started == 0 ? 0 : TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started);
+        }
+    }
+
+    private static RefreshResult refresh(UpdateSite site) {
+        long start = System.nanoTime();
+        RefreshResult.Status status;
+        String message;
+        try {
+            FormValidation result = site.updateDirectlyNow();
+            status = RefreshResult.Status.valueOf(result.kind.name());
+            message = result.getMessage();
+        } catch (IOException | RuntimeException e) {
+            status = RefreshResult.Status.ERROR;
+            message = e.getMessage();
+        }
+        return new RefreshResult(
+                site.getId(), status, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start), message);
+    }
+
+    /**
+     * Returns the threads to refresh sites, as many as {@link #REFRESH_THREADS} at the time.
+     * Idle threads exit after a while.
+     */
+    private static synchronized ExecutorService getRefreshExecutor() {
+        int threads = Math.max(1, REFRESH_THREADS);
+        if (refreshExecutor == null) {
+            refreshExecutor = new ThreadPoolExecutor(
+                    threads,
+                    threads,
+                    60L,
+                    TimeUnit.SECONDS,
+                    new LinkedBlockingQueue<>(),
+                    new NamingThreadFactory(
+                            new DaemonThreadFactory(), UpdateSitesManager.class.getSimpleName() + ".refresh"));
+            refreshExecutor.allowCoreThreadTimeOut(true);
+        } else if (threads > refreshExecutor.getMaximumPoolSize()) {
+            refreshExecutor.setMaximumPoolSize(threads);
+            refreshExecutor.setCorePoolSize(threads);
+        } else if (threads < refreshExecutor.getMaximumPoolSize()) {
+            refreshExecutor.setCorePoolSize(threads);
+            refreshExecutor.setMaximumPoolSize(threads);
+        }
+        return refreshExecutor;
+    }
+
+    /**
+     * Stops refreshing sites when Jenkins shuts down.
+     */
+    @Terminator
+    public static synchronized void shutdownRefresh() {
+        if (refreshExecutor != null) {
+            refreshExecutor.shutdownNow();
+            refreshExecutor = null;
+        }
+    }
+
     /**
      * Check method for duplicated ids of submitted sites
      */
@@ -185,6 +473,63 @@ public class UpdateSitesManager extends ManagementLink {
         }
     }
 
+    /**
+     * Result of the refresh of a site
+     */
+    public static class RefreshResult {
+        /**
+         * How the refresh ended
+         */
+        public enum Status {
+            OK,
+            WARNING,
+            ERROR,
+            TIMEOUT,
+            SKIPPED
+        }
+
+        private final String id;
+        private final Status status;
+        private final long duration;
+        private final String message;
+
+        public RefreshResult(String id, Status status, long duration, String message) {
+            this.id = id;
+            this.status = status;
+            this.duration = duration;
+            this.message = message;
+        }
+
+        public String getId() {
+            return id;
+        }
+
+        public Status getStatus() {
+            return status;
+        }
+
+        /**
+         * @return time taken to refresh the site in milliseconds
+         */
+        public long getDuration() {
+            return duration;
+        }
+
+        @CheckForNull
+        public String getMessage() {
+            return message;
+        }
+
+        JSONObject toJSONObject() {
+            JSONObject o = new JSONObject();
+            o.put("id", id);
+            o.put("status", status.name());
+            o.put("duration", duration);
+            o.put("message", message);
+            return o;
+        }
+    }
+
     /**
      * This predicate helps to filter which sites should be shown on UI as editable/not editable
      */
@@ -214,4 +559,40 @@ public class UpdateSitesManager extends ManagementLink {
             return StringUtils.isBlank(input.getId());
         }
     }
+
+    /**
+     * Refreshes managed sites as each of them becomes due.
+     * <p>
+     * Jenkins checks update sites only once a day, and refreshes all of them at once,
+     * which does not allow sites to have their own schedules.
+     */
+    @Extension
+    public static class ScheduledRefresh extends AsyncPeriodicWork {
+        public ScheduledRefresh() {
+            super("Refresh of managed update sites");
+        }
+
+        @Override
+        public long getRecurrencePeriod() {
+            return TimeUnit.MINUTES.toMillis(Math.max(1, REFRESH_CHECK_PERIOD));
+        }
+
+        @Override
+        protected void execute(TaskListener listener) {
+            if (UpdateCenter.neverUpdate) {
+                return;
+            }
+            List<UpdateSite> sites = new ArrayList<>();
+            for (UpdateSite site : Jenkins.get().getUpdateCenter().getSiteList()) {
+                if (site instanceof ManagedUpdateSite && site.isDue()) {
+                    sites.add(site);
+                }
+            }
+            for (RefreshResult result : refresh(sites, SCHEDULED_REFRESH_TIMEOUT)) {
+                LOGGER.log(Level.FINE, "Refreshed {0}: {1} {2}", new Object[] {
+                    result.getId(), result.getStatus(), result.getMessage()
+                });
+            }
+        }
+    }
 }
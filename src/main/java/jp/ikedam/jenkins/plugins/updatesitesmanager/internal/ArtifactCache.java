@@ -0,0 +1,286 @@
+package jp.ikedam.jenkins.plugins.updatesitesmanager.internal;
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import edu.umd.cs.findbugs.annotations.NonNull;
+import hudson.Util;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Keeps downloaded plugins on the disk, by the SHA-256 checksum the update sites publish for them.
+ * <p>
+ * The same plugin version published by several sites, or installed again later, is served from the disk.
+ * A download is stored only when it completes and its checksum matches,
+ * so a broken or tampered download never gets in the cache.
+ * The cache is bounded by size, removing the files least recently used first.
+ * Using a file refreshes its modification time, which survives restarts and copies of the directory.
+ */
+public class ArtifactCache {
+    private static final Logger LOGGER = Logger.getLogger(ArtifactCache.class.getName());
+
+    private static final Map<Path, ArtifactCache> CACHES = new ConcurrentHashMap<>();
+
+    private static final int SHA256_LENGTH = 32;
+
+    private final Path dir;
+
+    ArtifactCache(Path dir) {
+        this.dir = dir;
+    }
+
+    /**
+     * Returns the cache stored in the directory.
+     *
+     * @param dir the directory to store files in
+     * @return the cache
+     */
+    @NonNull
+    public static ArtifactCache of(@NonNull Path dir) {
+        return CACHES.computeIfAbsent(dir.toAbsolutePath().normalize(), ArtifactCache::new);
+    }
+
+    /**
+     * Returns the key for the checksum published in update-center.json.
+     *
+     * @param sha256 the SHA-256 checksum encoded in Base64
+     * @return the checksum in hex, {@code null} if not a valid checksum
+     */
+    @CheckForNull
+    public static String keyOf(@CheckForNull String sha256) {
+        if (sha256 == null) {
+            return null;
+        }
+        try {
+            byte[] digest = Base64.getDecoder().decode(sha256.trim());
+            return digest.length == SHA256_LENGTH ? Util.toHexString(digest) : null;
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Returns the cached file, marking it as used.
+     *
+     * @param key the key from {@link #keyOf(String)}
+     * @return the file, {@code null} if not cached
+     */
+    @CheckForNull
+    public Path get(@NonNull String key) {
+        Path file = dir.resolve(key);
+        if (!Files.isRegularFile(file)) {
+            return null;
+        }
+        try {
+            Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis()));
+        } catch (IOException e) {
+            // removed by eviction in the meantime
+            LOGGER.log(Level.FINE, "Failed to touch " + file, e);
+            return null;
+        }
+        return file;
+    }
+
+    /**
+     * Stores the content read through the returned stream.
+     * <p>
+     * The content is stored once the stream is read to the end and its checksum matches the key,
+     * and the cache is trimmed to {@code maxSize} afterwards.
+     * Failing to store the content does not fail reading it.
+     *
+     * @param in      the content
+     * @param key     the key from {@link #keyOf(String)}
+     * @param maxSize largest total size of the cached files in bytes
+     * @return the stream to read the content from instead
+     */
+    @NonNull
+    public InputStream store(@NonNull InputStream in, @NonNull String key, long maxSize) {
+        Path tmp;
+        OutputStream out;
+        MessageDigest digest;
+        try {
+            Files.createDirectories(dir);
+            tmp = Files.createTempFile(dir, key, ".tmp");
+            out = Files.newOutputStream(tmp);
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (IOException | NoSuchAlgorithmException e) {
+            LOGGER.log(Level.WARNING, "Failed to prepare caching " + key, e);
+            return in;
+        }
+        return new StoringInputStream(in, key, maxSize, tmp, out, digest);
+    }
+
+    /**
+     * Removes the files least recently used until the total size fits.
+     *
+     * @param maxSize largest total size of the cached files in bytes
+     */
+    public synchronized void trim(long maxSize) {
+        List<Entry> entries = new ArrayList<>();
+        long total = 0;
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir, f -> !f.toString().endsWith(".tmp"))) {
+            for (Path file : files) {
+                Entry entry = new Entry(file, Files.size(file), Files.getLastModifiedTime(file).toMillis());
+                entries.add(entry);
+                total += entry.size();
+            }
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Failed to list " + dir, e);
+            return;
+        }
+        entries.sort(Comparator.comparingLong(Entry::lastUsed));
+        for (Entry entry : entries) {
+            if (total <= maxSize) {
+                break;
+            }
+            try {
+                Files.deleteIfExists(entry.file());
+                total -= entry.size();
+                LOGGER.log(Level.FINE, "Evicted {0} from the cache", entry.file());
+            } catch (IOException e) {
+                LOGGER.log(Level.WARNING, "Failed to evict " + entry.file(), e);
+            }
+        }
+    }
+
+    private record Entry(Path file, long size, long lastUsed) {}
+
+    /**
+     * Copies the content to a temporary file as it is read, and moves it into the cache at the end.
+     */
+    private final class StoringInputStream extends FilterInputStream {
+        private final String key;
+
+        private final long maxSize;
+
+        private final Path tmp;
+
+        private final MessageDigest digest;
+
+        /**
+         * Reused by {@link #read()}.
+         */
+        private final byte[] single = new byte[1];
+
+        /**
+         * {@code null} once failed to write, or closed.
+         */
+        private OutputStream out;
+
+        StoringInputStream(
+                InputStream in, String key, long maxSize, Path tmp, OutputStream out, MessageDigest digest) {
+            super(in);
+            this.key = key;
+            this.maxSize = maxSize;
+            this.tmp = tmp;
+            this.out = out;
+            this.digest = digest;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int n = read(single, 0, 1);
+            return n < 0 ? -1 : single[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = super.read(b, off, len);
+            if (n > 0) {
+                write(b, off, n);
+            } else if (n < 0) {
+                complete();
+            }
+            return n;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            // skipped bytes would make the copy incomplete
+            return n > 0 ? Math.max(read(new byte[(int) Math.min(n, 8192)]), 0) : 0;
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+
+        private void write(byte[] b, int off, int len) {
+            if (out == null) {
+                return;
+            }
+            digest.update(b, off, len);
+            try {
+                out.write(b, off, len);
+            } catch (IOException e) {
+                LOGGER.log(Level.WARNING, "Failed to cache " + key, e);
+                discard();
+            }
+        }
+
+        private void complete() {
+            if (out == null) {
+                return;
+            }
+            try {
+                out.close();
+                out = null;
+                String actual = Util.toHexString(digest.digest());
+                if (!actual.equals(key)) {
+                    LOGGER.log(Level.WARNING, "Not caching {0} as the checksum was {1}", new Object[] {key, actual});
+                    discard();
+                    return;
+                }
+                Files.move(tmp, dir.resolve(key), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                LOGGER.log(Level.FINE, "Cached {0}", key);
+            } catch (IOException e) {
+                LOGGER.log(Level.WARNING, "Failed to cache " + key, e);
+                discard();
+                return;
+            }
+            trim(maxSize);
+        }
+
+        private void discard() {
+            if (out != null) {
+                try {
+                    out.close();
+                } catch (IOException e) {
+                    LOGGER.log(Level.FINE, "Failed to close " + tmp, e);
+                }
+                out = null;
+            }
+            try {
+                Files.deleteIfExists(tmp);
+            } catch (IOException e) {
+                LOGGER.log(Level.FINE, "Failed to delete " + tmp, e);
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                super.close();
+            } finally {
+                // not read to the end
+                discard();
+            }
+        }
+    }
+}
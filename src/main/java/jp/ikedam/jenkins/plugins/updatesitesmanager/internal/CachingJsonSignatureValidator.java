@@ -0,0 +1,99 @@
+package jp.ikedam.jenkins.plugins.updatesitesmanager.internal;
+
+import edu.umd.cs.findbugs.annotations.NonNull;
+import hudson.util.FormValidation;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import jenkins.util.JSONSignatureValidator;
+import net.sf.json.JSONObject;
+
+/**
+ * Reuses the result of verifying a byte-identical update-center.json.
+ * <p>
+ * Sites often serve the same data for many refreshes in a row,
+ * and verifying it again means canonicalizing the whole document and checking the certificate chain.
+ * A result is keyed by the digest of the downloaded payload and the trust configuration of the site,
+ * so changing the CA certificate of a site never reuses results verified with the old one.
+ * Only successful results are kept, and only for a limited time,
+ * as certificates expire and the trust anchors installed to Jenkins may change.
+ */
+public class CachingJsonSignatureValidator extends JSONSignatureValidator {
+    private static final int MAX_ENTRIES = 64;
+
+    private static final long TTL = TimeUnit.HOURS.toMillis(1);
+
+    /**
+     * Maps keys of verified payloads to when they were verified, in the order of access.
+     */
+    private static final Map<String, Long> VERIFIED = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Long> eldest) {
+            return size() > MAX_ENTRIES;
+        }
+    };
+
+    private final JSONSignatureValidator delegate;
+
+    private final String key;
+
+    private final SiteStatistics statistics;
+
+    /**
+     * @param name          name of the validator
+     * @param delegate      the validator actually verifying the signature
+     * @param payloadDigest digest of the downloaded payload
+     * @param trustKey      identifies the trust anchors {@code delegate} uses
+     * @param statistics    statistics to record cache hits to
+     */
+    public CachingJsonSignatureValidator(
+            String name,
+            @NonNull JSONSignatureValidator delegate,
+            @NonNull String payloadDigest,
+            @NonNull String trustKey,
+            @NonNull SiteStatistics statistics) {
+        super(name);
+        this.delegate = delegate;
+        this.key = payloadDigest + ":" + trustKey;
+        this.statistics = statistics;
+    }
+
+    @Override
+    public FormValidation verifySignature(JSONObject o) throws IOException {
+        if (isVerified(key)) {
+            statistics.addSignatureCacheHit();
+            return FormValidation.ok();
+        }
+        FormValidation result = delegate.verifySignature(o);
+        if (result.kind == FormValidation.Kind.OK) {
+            synchronized (VERIFIED) {
+                VERIFIED.put(key, System.currentTimeMillis());
+            }
+        }
+        return result;
+    }
+
+    private static boolean isVerified(String key) {
+        synchronized (VERIFIED) {
+            Long timestamp = VERIFIED.get(key);
+            if (timestamp == null) {
+                return false;
+            }
+            if (System.currentTimeMillis() - timestamp > TTL) {
+                VERIFIED.remove(key);
+                return false;
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Discards all the cached results.
+     */
+    public static void clearCache() {
+        synchronized (VERIFIED) {
+            VERIFIED.clear();
+        }
+    }
+}
@@ -0,0 +1,43 @@
+package jp.ikedam.jenkins.plugins.updatesitesmanager.internal;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+
+/**
+ * Stores the downloaded content in the {@link ArtifactCache} as it is read.
+ * <p>
+ * Only successful responses are stored, and only once read to the end with the expected checksum.
+ */
+public class CachingURLConnection extends DelegatingHttpURLConnection {
+    private final ArtifactCache cache;
+
+    private final String key;
+
+    private final long maxSize;
+
+    private InputStream in;
+
+    /**
+     * @param delegate the connection not connected yet
+     * @param cache    the cache to store the content in
+     * @param key      the key from {@link ArtifactCache#keyOf(String)}
+     * @param maxSize  largest total size of the cached files in bytes
+     */
+    public CachingURLConnection(HttpURLConnection delegate, ArtifactCache cache, String key, long maxSize) {
+        super(delegate);
+        this.cache = cache;
+        this.key = key;
+        this.maxSize = maxSize;
+    }
+
+    @Override
+    public synchronized InputStream getInputStream() throws IOException {
+        if (in == null) {
+            in = delegate.getResponseCode() == HTTP_OK
+                    ? cache.store(delegate.getInputStream(), key, maxSize)
+                    : delegate.getInputStream();
+        }
+        return in;
+    }
+}
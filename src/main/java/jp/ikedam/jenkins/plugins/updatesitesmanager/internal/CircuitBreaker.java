@@ -0,0 +1,196 @@
+package jp.ikedam.jenkins.plugins.updatesitesmanager.internal;
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import edu.umd.cs.findbugs.annotations.NonNull;
+import java.util.Collection;
+import java.util.Date;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.LongSupplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Stops accessing an update site while it keeps failing.
+ * <p>
+ * The circuit opens after a number of failures in a row, or as soon as the site asks to come back later
+ * with {@code Retry-After}, and requests are refused without touching the network while it is open.
+ * Once the open period is over, a single request is let through as a probe:
+ * the circuit closes when the probe succeeds, and opens again when it fails.
+ * <p>
+ * Kept by the id of the site so the state survives the site being re-instantiated
+ * when the configuration is saved.
+ */
+public class CircuitBreaker {
+    private static final Logger LOGGER = Logger.getLogger(CircuitBreaker.class.getName());
+
+    private static final Map<String, CircuitBreaker> BREAKERS = new ConcurrentHashMap<>();
+
+    /**
+     * States of the circuit.
+     */
+    public enum State {
+        /**
+         * Requests go through.
+         */
+        CLOSED,
+        /**
+         * Requests are refused.
+         */
+        OPEN,
+        /**
+         * A probe is in flight, and other requests are refused.
+         */
+        HALF_OPEN,
+    }
+
+    private final String id;
+
+    private final LongSupplier clock;
+
+    private State state = State.CLOSED;
+
+    private int consecutiveFailures;
+
+    private long openUntil;
+
+    private long probeStarted;
+
+    private long openDuration;
+
+    CircuitBreaker(String id, LongSupplier clock) {
+        this.id = id;
+        this.clock = clock;
+    }
+
+    /**
+     * Returns the circuit breaker of the site.
+     *
+     * @param id id of the site
+     * @return the circuit breaker of the site
+     */
+    @NonNull
+    public static CircuitBreaker of(@NonNull String id) {
+        return BREAKERS.computeIfAbsent(id, k -> new CircuitBreaker(k, System::currentTimeMillis));
+    }
+
+    /**
+     * Forgets circuit breakers of sites no longer registered.
+     *
+     * @param ids ids of sites still registered
+     */
+    public static void retain(@NonNull Collection<String> ids) {
+        BREAKERS.keySet().retainAll(ids);
+    }
+
+    /**
+     * Returns the state of the circuit.
+     *
+     * @return the state of the circuit
+     */
+    @NonNull
+    public synchronized State getState() {
+        return state;
+    }
+
+    /**
+     * Returns the number of requests failed in a row.
+     *
+     * @return the number of failures since the last success
+     */
+    public synchronized int getConsecutiveFailures() {
+        return consecutiveFailures;
+    }
+
+    /**
+     * Returns when the circuit lets a probe through.
+     *
+     * @return the timestamp in milliseconds, {@code 0} if the circuit has never opened
+     */
+    public synchronized long getOpenUntil() {
+        return openUntil;
+    }
+
+    /**
+     * Returns when the circuit lets a probe through, for views.
+     *
+     * @return the date, {@code null} if the circuit has never opened
+     */
+    @CheckForNull
+    public synchronized Date getOpenUntilDate() {
+        return openUntil > 0 ? new Date(openUntil) : null;
+    }
+
+    /**
+     * Asks for a request to go through.
+     * <p>
+     * Succeeds while the circuit is closed.
+     * After the open period, the first caller gets through as the probe.
+     * A probe not reporting its outcome for {@code probeTimeout} is considered lost and replaced by a new one.
+     *
+     * @param probeTimeout time in milliseconds for a probe to report its outcome
+     * @return {@code true} if the request may go through, and its outcome must be reported
+     */
+    public synchronized boolean tryAcquire(long probeTimeout) {
+        long now = clock.getAsLong();
+        switch (state) {
+            case OPEN:
+                if (now < openUntil) {
+                    return false;
+                }
+                break;
+            case HALF_OPEN:
+                if (now - probeStarted < probeTimeout) {
+                    return false;
+                }
+                break;
+            default:
+                return true;
+        }
+        LOGGER.log(Level.FINE, "Probing {0}", id);
+        state = State.HALF_OPEN;
+        probeStarted = now;
+        return true;
+    }
+
+    /**
+     * Records a successful request, closing the circuit.
+     */
+    public synchronized void onSuccess() {
+        if (state != State.CLOSED) {
+            LOGGER.log(Level.INFO, "{0} is back, closing the circuit", id);
+        }
+        state = State.CLOSED;
+        consecutiveFailures = 0;
+        openDuration = 0;
+    }
+
+    /**
+     * Records a failed request.
+     * <p>
+     * Opens the circuit when failures reach {@code threshold}, the probe failed, or the site asked to retry later.
+     * Each failed probe doubles the open period, up to {@code maxOpenDuration}.
+     *
+     * @param threshold       number of failures in a row to open the circuit
+     * @param minOpenDuration time in milliseconds to keep the circuit open first
+     * @param maxOpenDuration longest time in milliseconds to keep the circuit open
+     * @param retryAfter      time in milliseconds the site asked to wait, {@code 0} if not asked
+     */
+    public synchronized void onFailure(int threshold, long minOpenDuration, long maxOpenDuration, long retryAfter) {
+        consecutiveFailures++;
+        if (state != State.HALF_OPEN && consecutiveFailures < threshold && retryAfter <= 0) {
+            return;
+        }
+        openDuration = state == State.HALF_OPEN && openDuration > 0
+                ? Math.min(openDuration * 2, maxOpenDuration)
+                : Math.min(minOpenDuration, maxOpenDuration);
+        long now = clock.getAsLong();
+        openUntil = now + Math.max(openDuration, retryAfter);
+        if (state == State.CLOSED) {
+            LOGGER.log(Level.WARNING, "{0} failed {1} times in a row, opening the circuit", new Object[] {
+                id, consecutiveFailures
+            });
+        }
+        state = State.OPEN;
+    }
+}
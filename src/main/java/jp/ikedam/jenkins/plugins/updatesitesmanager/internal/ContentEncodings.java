@@ -0,0 +1,55 @@
+package jp.ikedam.jenkins.plugins.updatesitesmanager.internal;
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import edu.umd.cs.findbugs.annotations.NonNull;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Locale;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Handles {@code Content-Encoding} of update site responses.
+ */
+public final class ContentEncodings {
+    /**
+     * Value for {@code Accept-Encoding} listing the encodings {@link #decode(InputStream, String)} supports.
+     */
+    public static final String ACCEPT_ENCODING = "gzip, deflate";
+
+    private ContentEncodings() {}
+
+    /**
+     * Returns whether the content needs decoding.
+     *
+     * @param encoding the value of {@code Content-Encoding}
+     * @return {@code true} if the content is compressed
+     */
+    public static boolean isCompressed(@CheckForNull String encoding) {
+        return encoding != null && !encoding.isBlank() && !"identity".equalsIgnoreCase(encoding.trim());
+    }
+
+    /**
+     * Wraps the stream to decompress the content as it is read.
+     *
+     * @param in       the content received
+     * @param encoding the value of {@code Content-Encoding}
+     * @return the stream of the decompressed content
+     * @throws IOException the encoding is not supported or the content is broken
+     */
+    @NonNull
+    public static InputStream decode(@NonNull InputStream in, @CheckForNull String encoding) throws IOException {
+        if (!isCompressed(encoding)) {
+            return in;
+        }
+        switch (encoding.trim().toLowerCase(Locale.ENGLISH)) {
+            case "gzip":
+            case "x-gzip":
+                return new GZIPInputStream(in);
+            case "deflate":
+                return new InflaterInputStream(in);
+            default:
+                throw new IOException("Unsupported Content-Encoding: " + encoding);
+        }
+    }
+}
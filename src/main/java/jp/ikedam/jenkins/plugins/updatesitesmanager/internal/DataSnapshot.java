@@ -0,0 +1,327 @@
+package jp.ikedam.jenkins.plugins.updatesitesmanager.internal;
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import edu.umd.cs.findbugs.annotations.NonNull;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import net.sf.json.JSONArray;
+import net.sf.json.JSONNull;
+import net.sf.json.JSONObject;
+
+/**
+ * Compact binary form of parsed update-center.json.
+ * <p>
+ * Reading the snapshot skips lexing the JSON text, which dominates loading the data of large sites at startup.
+ * Strings are written only once and referred by their index afterwards,
+ * as plugin names, versions and labels repeat many times in a catalog,
+ * and are shared with other sites through {@link JsonInterner} when read.
+ * The snapshot can also be written straight from the bytes of the JSON file, without building the tree.
+ * The snapshot records the length and the modification time of the JSON file it was made from,
+ * and is ignored when they no longer match, or when it was written in another format version.
+ */
+public final class DataSnapshot {
+    private static final Logger LOGGER = Logger.getLogger(DataSnapshot.class.getName());
+
+    private static final int MAGIC = 0x55534d53;
+
+    /**
+     * Increment when changing the format.
+     */
+    private static final int VERSION = 2;
+
+    private static final byte NULL = 0;
+    private static final byte TRUE = 1;
+    private static final byte FALSE = 2;
+    private static final byte INT = 3;
+    private static final byte LONG = 4;
+    private static final byte DOUBLE = 5;
+    private static final byte BIG_INTEGER = 6;
+    private static final byte BIG_DECIMAL = 7;
+    private static final byte STRING = 8;
+    private static final byte STRING_REF = 9;
+    private static final byte OBJECT = 10;
+    private static final byte ARRAY = 11;
+    private static final byte END = 12;
+
+    private DataSnapshot() {}
+
+    /**
+     * Writes the snapshot of the data.
+     * <p>
+     * The snapshot is written to a temporary file first, and replaces the existing one only when complete.
+     * The length and the modification time of the source should be taken before the data was read from it,
+     * so a concurrent update of the source leaves the snapshot stale rather than wrong.
+     *
+     * @param o                  the parsed data
+     * @param sourceLength       length of the JSON file the data was read from
+     * @param sourceLastModified modification time of the JSON file the data was read from
+     * @param snapshot           the file to write the snapshot to
+     * @throws IOException when failed to write
+     */
+    public static void write(@NonNull JSONObject o, long sourceLength, long sourceLastModified, @NonNull File snapshot)
+            throws IOException {
+        write(sourceLength, sourceLastModified, snapshot, writer -> writer.value(o));
+    }
+
+    /**
+     * Writes the snapshot of the JSON file, converting its content as it is read.
+     *
+     * @param source             the JSON file
+     * @param sourceLength       length of the JSON file, taken before it was read
+     * @param sourceLastModified modification time of the JSON file, taken before it was read
+     * @param snapshot           the file to write the snapshot to
+     * @throws IOException when failed to read the JSON file or to write
+     * @see #write(JSONObject, long, long, File)
+     */
+    public static void write(
+            @NonNull File source, long sourceLength, long sourceLastModified, @NonNull File snapshot)
+            throws IOException {
+        write(sourceLength, sourceLastModified, snapshot, writer -> {
+            try (InputStream in = Files.newInputStream(source.toPath())) {
+                JsonStreamParser.parse(in, writer);
+            }
+        });
+    }
+
+    private static void write(long sourceLength, long sourceLastModified, File snapshot, Content content)
+            throws IOException {
+        Path target = snapshot.toPath();
+        Files.createDirectories(target.getParent());
+        Path tmp = Files.createTempFile(target.getParent(), snapshot.getName(), ".tmp");
+        try {
+            try (OutputStream os = Files.newOutputStream(tmp);
+                    DataOutputStream out = new DataOutputStream(new BufferedOutputStream(os))) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeLong(sourceLength);
+                out.writeLong(sourceLastModified);
+                content.writeTo(new Writer(out));
+            }
+            Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    /**
+     * Reads the snapshot of the data.
+     *
+     * @param source   the JSON file the data is read from otherwise
+     * @param snapshot the file the snapshot is written to
+     * @return the data, or {@code null} if there is no usable snapshot
+     */
+    @CheckForNull
+    public static JSONObject read(@NonNull File source, @NonNull File snapshot) {
+        if (!snapshot.isFile() || !source.isFile()) {
+            return null;
+        }
+        long size = snapshot.length();
+        try (InputStream is = Files.newInputStream(snapshot.toPath());
+                DataInputStream in = new DataInputStream(new BufferedInputStream(is))) {
+            if (size < 24
+                    || in.readInt() != MAGIC
+                    || in.readInt() != VERSION
+                    || in.readLong() != source.length()
+                    || in.readLong() != source.lastModified()) {
+                LOGGER.log(Level.FINE, "Ignoring stale snapshot {0}", snapshot);
+                return null;
+            }
+            Object o = new Reader(in, size).value(in.readByte());
+            return o instanceof JSONObject ? (JSONObject) o : null;
+        } catch (IOException | RuntimeException e) {
+            // EOFException for a truncated file
+            LOGGER.log(Level.WARNING, "Ignoring broken snapshot " + snapshot, e);
+            return null;
+        }
+    }
+
+    @FunctionalInterface
+    private interface Content {
+        void writeTo(Writer writer) throws IOException;
+    }
+
+    /**
+     * Writes either a tree, or the content passed from {@link JsonStreamParser}.
+     * Objects and arrays are closed with {@link #END}, as their sizes are not known in the latter case.
+     */
+    private static final class Writer implements JsonStreamParser.Handler {
+        private final DataOutputStream out;
+
+        private final Map<String, Integer> strings = new HashMap<>();
+
+        Writer(DataOutputStream out) {
+            this.out = out;
+        }
+
+        @Override
+        public void startObject() throws IOException {
+            out.writeByte(OBJECT);
+        }
+
+        @Override
+        public void key(@NonNull String key) throws IOException {
+            string(key);
+        }
+
+        @Override
+        public void endObject() throws IOException {
+            out.writeByte(END);
+        }
+
+        @Override
+        public void startArray() throws IOException {
+            out.writeByte(ARRAY);
+        }
+
+        @Override
+        public void endArray() throws IOException {
+            out.writeByte(END);
+        }
+
+        @Override
+        public void value(@NonNull Object v) throws IOException {
+            if (v instanceof JSONNull || (v instanceof JSONObject && ((JSONObject) v).isNullObject())) {
+                out.writeByte(NULL);
+            } else if (v instanceof JSONObject) {
+                JSONObject o = (JSONObject) v;
+                startObject();
+                for (Object key : o.keySet()) {
+                    key(key.toString());
+                    value(o.get(key));
+                }
+                endObject();
+            } else if (v instanceof JSONArray) {
+                JSONArray a = (JSONArray) v;
+                startArray();
+                for (int i = 0; i < a.size(); i++) {
+                    value(a.get(i));
+                }
+                endArray();
+            } else if (v instanceof Boolean) {
+                out.writeByte((Boolean) v ? TRUE : FALSE);
+            } else if (v instanceof Integer) {
+                out.writeByte(INT);
+                out.writeInt((Integer) v);
+            } else if (v instanceof Long) {
+                out.writeByte(LONG);
+                out.writeLong((Long) v);
+            } else if (v instanceof Double || v instanceof Float) {
+                out.writeByte(DOUBLE);
+                out.writeDouble(((Number) v).doubleValue());
+            } else if (v instanceof BigInteger) {
+                out.writeByte(BIG_INTEGER);
+                string(v.toString());
+            } else if (v instanceof BigDecimal) {
+                out.writeByte(BIG_DECIMAL);
+                string(v.toString());
+            } else {
+                string(v.toString());
+            }
+        }
+
+        void string(String s) throws IOException {
+            Integer index = strings.get(s);
+            if (index != null) {
+                out.writeByte(STRING_REF);
+                out.writeInt(index);
+                return;
+            }
+            strings.put(s, strings.size());
+            byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+            out.writeByte(STRING);
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        }
+    }
+
+    private static final class Reader {
+        private final DataInputStream in;
+
+        /**
+         * Size of the snapshot file, bounding the length of a string.
+         */
+        private final long size;
+
+        private final List<String> strings = new ArrayList<>();
+
+        Reader(DataInputStream in, long size) {
+            this.in = in;
+            this.size = size;
+        }
+
+        Object value(byte type) throws IOException {
+            switch (type) {
+                case NULL:
+                    return JSONNull.getInstance();
+                case TRUE:
+                    return Boolean.TRUE;
+                case FALSE:
+                    return Boolean.FALSE;
+                case INT:
+                    return in.readInt();
+                case LONG:
+                    return in.readLong();
+                case DOUBLE:
+                    return in.readDouble();
+                case BIG_INTEGER:
+                    return new BigInteger(string(in.readByte()));
+                case BIG_DECIMAL:
+                    return new BigDecimal(string(in.readByte()));
+                case STRING:
+                case STRING_REF:
+                    return string(type);
+                case OBJECT:
+                    JSONObject o = new JSONObject();
+                    for (byte next = in.readByte(); next != END; next = in.readByte()) {
+                        String key = string(next);
+                        o.element(key, value(in.readByte()));
+                    }
+                    return o;
+                case ARRAY:
+                    JSONArray a = new JSONArray();
+                    for (byte next = in.readByte(); next != END; next = in.readByte()) {
+                        a.add(value(next));
+                    }
+                    return a;
+                default:
+                    throw new IOException("Unknown type " + type);
+            }
+        }
+
+        String string(byte type) throws IOException {
+            if (type == STRING_REF) {
+                return strings.get(in.readInt());
+            }
+            if (type != STRING) {
+                throw new IOException("Expected a string but was " + type);
+            }
+            int length = in.readInt();
+            if (length < 0 || length > size) {
+                throw new IOException("Invalid string length " + length);
+            }
+            byte[] bytes = new byte[length];
+            in.readFully(bytes);
+            String s = JsonInterner.intern(new String(bytes, StandardCharsets.UTF_8));
+            strings.add(s);
+            return s;
+        }
+    }
+}
@@ -0,0 +1,64 @@
+package jp.ikedam.jenkins.plugins.updatesitesmanager.internal;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+
+/**
+ * Asks for compressed content and decompresses it as it is read.
+ * <p>
+ * Headers describing the compressed content ({@code Content-Length} and {@code Content-Encoding})
+ * are hidden, so that the caller sees the connection as if it received the uncompressed content.
+ */
+public class DecompressingURLConnection extends DelegatingHttpURLConnection {
+    private final SiteStatistics statistics;
+
+    private InputStream in;
+
+    /**
+     * @param delegate   the connection not connected yet
+     * @param statistics where to record the transferred bytes
+     */
+    public DecompressingURLConnection(HttpURLConnection delegate, SiteStatistics statistics) {
+        super(delegate);
+        this.statistics = statistics;
+        delegate.setRequestProperty("Accept-Encoding", ContentEncodings.ACCEPT_ENCODING);
+    }
+
+    private boolean isCompressed() {
+        return ContentEncodings.isCompressed(delegate.getContentEncoding());
+    }
+
+    @Override
+    public synchronized InputStream getInputStream() throws IOException {
+        if (in == null) {
+            InputStream raw = new CountingInputStream(delegate.getInputStream(), statistics::addCompressedBytes);
+            in = new CountingInputStream(
+                    ContentEncodings.decode(raw, delegate.getContentEncoding()), statistics::addUncompressedBytes);
+        }
+        return in;
+    }
+
+    @Override
+    public int getContentLength() {
+        return isCompressed() ? -1 : delegate.getContentLength();
+    }
+
+    @Override
+    public long getContentLengthLong() {
+        return isCompressed() ? -1 : delegate.getContentLengthLong();
+    }
+
+    @Override
+    public String getContentEncoding() {
+        return isCompressed() ? null : delegate.getContentEncoding();
+    }
+
+    @Override
+    public String getHeaderField(String name) {
+        if (isCompressed() && ("Content-Length".equalsIgnoreCase(name) || "Content-Encoding".equalsIgnoreCase(name))) {
+            return null;
+        }
+        return delegate.getHeaderField(name);
+    }
+}
@@ -0,0 +1,165 @@
+package jp.ikedam.jenkins.plugins.updatesitesmanager.internal;
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import edu.umd.cs.findbugs.annotations.NonNull;
+import hudson.Util;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import net.sf.json.JSONNull;
+import net.sf.json.JSONObject;
+
+/**
+ * Patches between versions of update-center.json, for sites listing many plugins changing only a few at once.
+ * <p>
+ * A version is identified by the SHA-256 of the JSON object as published, without any JSONP wrapper.
+ * A site asking for changes sends the version it has in the {@code since} query parameter,
+ * and accepts {@link #MEDIA_TYPE} in addition to {@code application/json}.
+ * The server answers either the whole document as usual,
+ * or a patch with the content type {@link #MEDIA_TYPE}:
+ * <pre>
+ * {
+ *   "deltaFormat": 1,
+ *   "base": "(version the patch applies to)",
+ *   "target": "(version the patch results in)",
+ *   "replace": { "(top level key)": (new value, or null to remove), ... },
+ *   "entries": { "(top level key)": { "(entry name)": (new value, or null to remove), ... }, ... }
+ * }
+ * </pre>
+ * {@code entries} patches top level objects like {@code plugins} entry by entry.
+ * The {@code signature} of the target version comes in {@code replace},
+ * so the reconstructed document is verified just like a downloaded one.
+ * Sites fall back to downloading the whole document whenever the patch does not apply to the version they have.
+ */
+public final class DeltaPatches {
+    /**
+     * Content type of patches.
+     */
+    public static final String MEDIA_TYPE = "application/vnd.update-sites-manager.delta+json";
+
+    private static final int FORMAT = 1;
+
+    private DeltaPatches() {}
+
+    /**
+     * Returns the version of the document.
+     *
+     * @param json the JSON object as published
+     * @return the version
+     */
+    @NonNull
+    public static String versionOf(@NonNull byte[] json) {
+        try {
+            return Util.toHexString(MessageDigest.getInstance("SHA-256").digest(json));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+
+    /**
+     * Generates the patch from one version to another.
+     *
+     * @param base          the document the patch applies to
+     * @param baseVersion   version of {@code base}
+     * @param target        the document the patch results in
+     * @param targetVersion version of {@code target}
+     * @return the patch
+     */
+    @NonNull
+    public static JSONObject diff(
+            @NonNull JSONObject base,
+            @NonNull String baseVersion,
+            @NonNull JSONObject target,
+            @NonNull String targetVersion) {
+        JSONObject replace = new JSONObject();
+        JSONObject entries = new JSONObject();
+        for (Object k : target.keySet()) {
+            String key = k.toString();
+            Object newValue = target.get(key);
+            Object oldValue = base.get(key);
+            if (newValue.equals(oldValue)) {
+                continue;
+            }
+            if (newValue instanceof JSONObject && oldValue instanceof JSONObject) {
+                JSONObject newObject = (JSONObject) newValue;
+                JSONObject oldObject = (JSONObject) oldValue;
+                JSONObject changes = new JSONObject();
+                for (Object name : newObject.keySet()) {
+                    if (!newObject.get(name).equals(oldObject.get(name))) {
+                        changes.element(name.toString(), newObject.get(name));
+                    }
+                }
+                for (Object name : oldObject.keySet()) {
+                    if (!newObject.containsKey(name)) {
+                        changes.element(name.toString(), JSONNull.getInstance());
+                    }
+                }
+                entries.element(key, changes);
+            } else {
+                replace.element(key, newValue);
+            }
+        }
+        for (Object key : base.keySet()) {
+            if (!target.containsKey(key)) {
+                replace.element(key.toString(), JSONNull.getInstance());
+            }
+        }
+        JSONObject patch = new JSONObject();
+        patch.element("deltaFormat", FORMAT);
+        patch.element("base", baseVersion);
+        patch.element("target", targetVersion);
+        patch.element("replace", replace);
+        patch.element("entries", entries);
+        return patch;
+    }
+
+    /**
+     * Applies the patch to the document.
+     *
+     * @param base        the document to patch, modified in place
+     * @param baseVersion version of {@code base}
+     * @param patch       the patch
+     * @return the version the patch results in, or {@code null} if the patch does not apply to {@code base}
+     */
+    @CheckForNull
+    public static String apply(@NonNull JSONObject base, @NonNull String baseVersion, @NonNull JSONObject patch) {
+        if (patch.optInt("deltaFormat") != FORMAT || !baseVersion.equals(patch.optString("base", null))) {
+            return null;
+        }
+        String target = patch.optString("target", null);
+        if (target == null) {
+            return null;
+        }
+        JSONObject replace = patch.optJSONObject("replace");
+        if (replace != null) {
+            for (Object key : replace.keySet()) {
+                put(base, key.toString(), replace.get(key));
+            }
+        }
+        JSONObject entries = patch.optJSONObject("entries");
+        if (entries != null) {
+            for (Object key : entries.keySet()) {
+                JSONObject changes = entries.optJSONObject(key.toString());
+                if (changes == null) {
+                    return null;
+                }
+                JSONObject object = base.optJSONObject(key.toString());
+                if (object == null) {
+                    object = new JSONObject();
+                }
+                for (Object name : changes.keySet()) {
+                    put(object, name.toString(), changes.get(name));
+                }
+                base.element(key.toString(), object);
+            }
+        }
+        return target;
+    }
+
+    private static void put(JSONObject o, String key, Object value) {
+        if (value == null || value instanceof JSONNull) {
+            o.remove(key);
+        } else {
+            o.element(key, value);
+        }
+    }
+}
@@ -1,13 +1,25 @@
 package jp.ikedam.jenkins.plugins.updatesitesmanager.internal;
 
+import edu.umd.cs.findbugs.annotations.NonNull;
+import hudson.Util;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.security.cert.Certificate;
 import java.security.cert.CertificateException;
 import java.security.cert.CertificateFactory;
 import java.security.cert.TrustAnchor;
 import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import jenkins.util.JSONSignatureValidator;
@@ -15,28 +27,179 @@ import org.apache.tools.ant.filters.StringInputStream;
 
 /**
  * Adds provided cert to trust anchors when validating update center json
+ * <p>
+ * The cert may be a bundle of several PEM certificates, e.g. to trust both the old and the new CA while rotating.
+ * Parsed certificates and the resulting trust anchors are shared by all sites using the same cert,
+ * as sites create a new validator for each verification.
+ * Loading trust anchors is recorded as a {@link SiteEvents.TrustAnchorsLoad} event.
  *
  * @author lanwen (Merkushev Kirill)
  */
 public class ExtendedCertJsonSignValidator extends JSONSignatureValidator {
     private static final Logger LOGGER = Logger.getLogger(ExtendedCertJsonSignValidator.class.getName());
 
+    /**
+     * Limits the number of certs cached, as a new entry is added each time a site is configured with a new cert.
+     * The least recently used ones are discarded first.
+     */
+    private static final int MAX_CACHE_SIZE = 64;
+
+    /**
+     * Trust anchors also include anchors installed to Jenkins, which may change while Jenkins runs.
+     */
+    private static final long TRUST_ANCHORS_TTL = TimeUnit.HOURS.toMillis(1);
+
+    private static final Map<String, List<X509Certificate>> CERTIFICATES = newCache();
+
+    private static final Map<String, CachedTrustAnchors> TRUST_ANCHORS = newCache();
+
+    private final String id;
+
     private final String cert;
 
+    private final String certDigest;
+
     public ExtendedCertJsonSignValidator(String id, String cert) {
         super("Update site with own cert for %s".formatted(id));
+        this.id = id;
         this.cert = cert;
+        this.certDigest = digestOf(cert);
+    }
+
+    /**
+     * Returns the digest identifying the cert in caches.
+     *
+     * @return the SHA-256 of the cert in hex
+     */
+    @NonNull
+    public String getCertDigest() {
+        return certDigest;
     }
 
     @Override
     protected Set<TrustAnchor> loadTrustAnchors(CertificateFactory cf) throws IOException {
-        Set<TrustAnchor> trustAnchors = super.loadTrustAnchors(cf);
-        try (InputStream stream = new StringInputStream(cert)) {
-            Certificate certificate = cf.generateCertificate(stream);
-            trustAnchors.add(new TrustAnchor((X509Certificate) certificate, null));
-        } catch (CertificateException e) {
-            LOGGER.log(Level.SEVERE, e.getMessage(), e);
+        SiteEvents.TrustAnchorsLoad event = new SiteEvents.TrustAnchorsLoad();
+        event.begin();
+        Set<TrustAnchor> result = null;
+        String outcome = "failed";
+        CachedTrustAnchors cached = TRUST_ANCHORS.get(certDigest);
+        boolean reused = cached != null && !cached.isExpired();
+        try {
+            if (!reused) {
+                Set<TrustAnchor> trustAnchors = super.loadTrustAnchors(cf);
+                try {
+                    for (X509Certificate certificate : getCertificates(cert)) {
+                        trustAnchors.add(new TrustAnchor(certificate, null));
+                    }
+                } catch (CertificateException e) {
+                    LOGGER.log(Level.SEVERE, e.getMessage(), e);
+                    outcome = SiteEvents.failed(e);
+                    result = trustAnchors;
+                    return result;
+                }
+                cached = new CachedTrustAnchors(trustAnchors);
+                TRUST_ANCHORS.put(certDigest, cached);
+            }
+            // the caller may modify the set
+            result = new HashSet<>(cached.trustAnchors);
+            outcome = "loaded";
+            return result;
+        } catch (IOException | RuntimeException e) {
+            outcome = SiteEvents.failed(e);
+            throw e;
+        } finally {
+            event.end();
+            if (event.shouldCommit()) {
+                event.siteId = id;
+                event.trustAnchors = result != null ? result.size() : 0;
+                event.cached = reused;
+                event.outcome = outcome;
+                event.commit();
+            }
+        }
+    }
+
+    /**
+     * Returns the certificates in the PEM bundle.
+     * <p>
+     * Each bundle is parsed only once.
+     * Use {@link #parseCertificates(String)} for bundles not yet configured to any site.
+     *
+     * @param pem one or more certificates in PEM format
+     * @return the certificates in the bundle
+     * @throws CertificateException when the bundle contains no valid certificates
+     */
+    @NonNull
+    public static List<X509Certificate> getCertificates(@NonNull String pem) throws CertificateException {
+        String digest = digestOf(pem);
+        List<X509Certificate> certificates = CERTIFICATES.get(digest);
+        if (certificates == null) {
+            certificates = parseCertificates(pem);
+            CERTIFICATES.put(digest, certificates);
+        }
+        return certificates;
+    }
+
+    /**
+     * Parses the certificates in the PEM bundle without caching them.
+     *
+     * @param pem one or more certificates in PEM format
+     * @return the certificates in the bundle
+     * @throws CertificateException when the bundle contains no valid certificates
+     */
+    @NonNull
+    public static List<X509Certificate> parseCertificates(@NonNull String pem) throws CertificateException {
+        CertificateFactory cf = CertificateFactory.getInstance("X509");
+        List<X509Certificate> certificates = new ArrayList<>();
+        try (InputStream stream = new StringInputStream(pem.trim())) {
+            for (Certificate certificate : cf.generateCertificates(stream)) {
+                certificates.add((X509Certificate) certificate);
+            }
+        } catch (IOException e) {
+            throw new CertificateException(e);
+        }
+        if (certificates.isEmpty()) {
+            throw new CertificateException("No certificates found");
+        }
+        return Collections.unmodifiableList(certificates);
+    }
+
+    /**
+     * Discards all the cached certificates and trust anchors.
+     */
+    public static void clearCache() {
+        CERTIFICATES.clear();
+        TRUST_ANCHORS.clear();
+    }
+
+    private static <V> Map<String, V> newCache() {
+        return Collections.synchronizedMap(new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, V> eldest) {
+                return size() > MAX_CACHE_SIZE;
+            }
+        });
+    }
+
+    private static String digestOf(String cert) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            return Util.toHexString(digest.digest(String.valueOf(cert).trim().getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+
+    private static class CachedTrustAnchors {
+        private final Set<TrustAnchor> trustAnchors;
+        private final long timestamp = System.currentTimeMillis();
+
+        CachedTrustAnchors(Set<TrustAnchor> trustAnchors) {
+            this.trustAnchors = Collections.unmodifiableSet(new HashSet<>(trustAnchors));
+        }
+
+        boolean isExpired() {
+            return System.currentTimeMillis() - timestamp > TRUST_ANCHORS_TTL;
         }
-        return trustAnchors;
     }
 }
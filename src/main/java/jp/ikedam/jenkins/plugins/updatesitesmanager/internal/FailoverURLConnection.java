@@ -0,0 +1,289 @@
+package jp.ikedam.jenkins.plugins.updatesitesmanager.internal;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.security.Permission;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Downloads a file from the first of the mirrors able to serve it.
+ * <p>
+ * Nothing is sent until the caller asks for the response,
+ * so the request goes out with the timeouts and headers the caller set.
+ * When a mirror fails to connect, or answers {@code 404}, {@code 429} or a server error,
+ * the same request is sent to the next mirror, and the last one is left to the caller as it answers.
+ * The outcomes are recorded to the {@link MirrorSelector}.
+ */
+public class FailoverURLConnection extends DelegatingHttpURLConnection {
+    private static final Logger LOGGER = Logger.getLogger(FailoverURLConnection.class.getName());
+
+    private static final int HTTP_TOO_MANY_REQUESTS = 429;
+
+    private final List<String> mirrors;
+
+    private final List<URL> urls;
+
+    private final RangedURLConnection.Opener opener;
+
+    private final MirrorSelector selector;
+
+    private Settings settings;
+
+    private HttpURLConnection resolved;
+
+    /**
+     * @param first    the connection to the first mirror, not connected yet
+     * @param mirrors  the mirrors in the order to try, as recorded to the selector
+     * @param urls     the URL of the file in each of the mirrors
+     * @param opener   opens connections to the other mirrors
+     * @param selector where to record the outcomes
+     */
+    public FailoverURLConnection(
+            HttpURLConnection first,
+            List<String> mirrors,
+            List<URL> urls,
+            RangedURLConnection.Opener opener,
+            MirrorSelector selector) {
+        super(first);
+        this.mirrors = mirrors;
+        this.urls = urls;
+        this.opener = opener;
+        this.selector = selector;
+    }
+
+    /**
+     * Sends the request to the mirrors in turn until one of them serves it.
+     *
+     * @return the connection to read the response from
+     * @throws IOException when failed to open a connection to the last mirror
+     */
+    private synchronized HttpURLConnection resolve() throws IOException {
+        if (resolved != null) {
+            return resolved;
+        }
+        if (settings == null) {
+            // taken before the request is sent, as they cannot be read from a connected one
+            settings = new Settings(delegate);
+        }
+        HttpURLConnection connection = delegate;
+        for (int i = 0; i < mirrors.size() - 1; i++) {
+            String mirror = mirrors.get(i);
+            long start = System.nanoTime();
+            try {
+                if (i > 0) {
+                    connection = settings.applyTo(opener.open(urls.get(i)));
+                }
+                int status = connection.getResponseCode();
+                if (status != HTTP_NOT_FOUND && status != HTTP_TOO_MANY_REQUESTS && status < HTTP_INTERNAL_ERROR) {
+                    selector.succeeded(mirror, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+                    resolved = connection;
+                    return connection;
+                }
+                LOGGER.log(Level.FINE, "{0} answered {1} for {2}, trying the next mirror", new Object[] {
+                    mirror, status, urls.get(i)
+                });
+                connection.disconnect();
+            } catch (IOException e) {
+                LOGGER.log(Level.FINE, "Failed to access " + mirror + ", trying the next mirror", e);
+            }
+            selector.failed(mirror);
+        }
+        int last = mirrors.size() - 1;
+        resolved = last > 0 ? settings.applyTo(opener.open(urls.get(last))) : delegate;
+        return resolved;
+    }
+
+    /**
+     * Resolves the connection for methods not allowed to fail.
+     */
+    private HttpURLConnection current() {
+        try {
+            return resolve();
+        } catch (IOException e) {
+            LOGGER.log(Level.FINE, "Failed to access any mirror for " + delegate.getURL(), e);
+            return delegate;
+        }
+    }
+
+    /**
+     * Returns the connection resolved so far, without sending the request.
+     */
+    private synchronized HttpURLConnection peek() {
+        return resolved != null ? resolved : delegate;
+    }
+
+    @Override
+    public URL getURL() {
+        return peek().getURL();
+    }
+
+    @Override
+    public void connect() throws IOException {
+        resolve().connect();
+    }
+
+    @Override
+    public void disconnect() {
+        peek().disconnect();
+    }
+
+    @Override
+    public boolean usingProxy() {
+        return current().usingProxy();
+    }
+
+    @Override
+    public InputStream getInputStream() throws IOException {
+        return resolve().getInputStream();
+    }
+
+    @Override
+    public InputStream getErrorStream() {
+        return current().getErrorStream();
+    }
+
+    @Override
+    public int getResponseCode() throws IOException {
+        return resolve().getResponseCode();
+    }
+
+    @Override
+    public String getResponseMessage() throws IOException {
+        return resolve().getResponseMessage();
+    }
+
+    @Override
+    public int getContentLength() {
+        return current().getContentLength();
+    }
+
+    @Override
+    public long getContentLengthLong() {
+        return current().getContentLengthLong();
+    }
+
+    @Override
+    public String getContentType() {
+        return current().getContentType();
+    }
+
+    @Override
+    public String getContentEncoding() {
+        return current().getContentEncoding();
+    }
+
+    @Override
+    public long getExpiration() {
+        return current().getExpiration();
+    }
+
+    @Override
+    public long getDate() {
+        return current().getDate();
+    }
+
+    @Override
+    public long getLastModified() {
+        return current().getLastModified();
+    }
+
+    @Override
+    public String getHeaderField(String name) {
+        return current().getHeaderField(name);
+    }
+
+    @Override
+    public String getHeaderField(int n) {
+        return current().getHeaderField(n);
+    }
+
+    @Override
+    public String getHeaderFieldKey(int n) {
+        return current().getHeaderFieldKey(n);
+    }
+
+    @Override
+    public Map<String, List<String>> getHeaderFields() {
+        return current().getHeaderFields();
+    }
+
+    @Override
+    public int getHeaderFieldInt(String name, int defaultValue) {
+        return current().getHeaderFieldInt(name, defaultValue);
+    }
+
+    @Override
+    public long getHeaderFieldLong(String name, long defaultValue) {
+        return current().getHeaderFieldLong(name, defaultValue);
+    }
+
+    @Override
+    public long getHeaderFieldDate(String name, long defaultValue) {
+        return current().getHeaderFieldDate(name, defaultValue);
+    }
+
+    @Override
+    public Permission getPermission() throws IOException {
+        return peek().getPermission();
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + "[" + peek() + "]";
+    }
+
+    /**
+     * What the caller set to the request, to send the same request to the other mirrors.
+     */
+    private static final class Settings {
+        private final String method;
+
+        private final int connectTimeout;
+
+        private final int readTimeout;
+
+        private final boolean followRedirects;
+
+        private final boolean useCaches;
+
+        private final long ifModifiedSince;
+
+        private final Map<String, List<String>> headers;
+
+        Settings(HttpURLConnection connection) {
+            method = connection.getRequestMethod();
+            connectTimeout = connection.getConnectTimeout();
+            readTimeout = connection.getReadTimeout();
+            followRedirects = connection.getInstanceFollowRedirects();
+            useCaches = connection.getUseCaches();
+            ifModifiedSince = connection.getIfModifiedSince();
+            headers = connection.getRequestProperties();
+        }
+
+        HttpURLConnection applyTo(HttpURLConnection connection) throws IOException {
+            connection.setRequestMethod(method);
+            connection.setConnectTimeout(connectTimeout);
+            connection.setReadTimeout(readTimeout);
+            connection.setInstanceFollowRedirects(followRedirects);
+            connection.setUseCaches(useCaches);
+            connection.setIfModifiedSince(ifModifiedSince);
+            for (Map.Entry<String, List<String>> header : headers.entrySet()) {
+                if (header.getKey() == null || header.getValue().isEmpty()) {
+                    continue;
+                }
+                // replaces what the opener set, as the caller may have changed it
+                connection.setRequestProperty(header.getKey(), header.getValue().get(0));
+                for (String value : header.getValue().subList(1, header.getValue().size())) {
+                    connection.addRequestProperty(header.getKey(), value);
+                }
+            }
+            return connection;
+        }
+    }
+}
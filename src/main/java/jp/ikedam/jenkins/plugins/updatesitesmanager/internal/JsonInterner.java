@@ -0,0 +1,30 @@
+package jp.ikedam.jenkins.plugins.updatesitesmanager.internal;
+
+import com.google.common.collect.Interner;
+import com.google.common.collect.Interners;
+import edu.umd.cs.findbugs.annotations.NonNull;
+
+/**
+ * Shares strings in update center data between sites.
+ * <p>
+ * Sites mirroring the same catalog hold the same plugin names, versions, URLs, labels and dependencies,
+ * and {@link hudson.model.UpdateSite.Data} keeps the strings of the tree it is built from.
+ * Interning them while the tree is built lets all the sites refer to a single copy of each.
+ * Strings are held weakly, so they are released once no site refers to them.
+ */
+public final class JsonInterner {
+    private static final Interner<String> STRINGS = Interners.newWeakInterner();
+
+    private JsonInterner() {}
+
+    /**
+     * Returns the shared instance of the string.
+     *
+     * @param s the string
+     * @return the shared instance equal to {@code s}
+     */
+    @NonNull
+    public static String intern(@NonNull String s) {
+        return STRINGS.intern(s);
+    }
+}
@@ -0,0 +1,405 @@
+package jp.ikedam.jenkins.plugins.updatesitesmanager.internal;
+
+import edu.umd.cs.findbugs.annotations.NonNull;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import net.sf.json.JSONArray;
+import net.sf.json.JSONNull;
+import net.sf.json.JSONObject;
+
+/**
+ * Builds the tree of update-center.json straight from a stream.
+ * <p>
+ * The document is tokenized once as it is read, without holding its text as a whole,
+ * so the memory needed is about the size of the resulting tree.
+ * Keys and strings are shared through {@link JsonInterner} as they are read,
+ * and values take the same types as {@link JSONObject#fromObject(Object)} gives them.
+ * The content can also be passed to a {@link Handler} without building the tree.
+ */
+public final class JsonStreamParser {
+    /**
+     * Limits the nesting, as values are read recursively.
+     */
+    private static final int MAX_DEPTH = 256;
+
+    private final Reader reader;
+
+    private final Handler handler;
+
+    private final char[] buf = new char[8192];
+
+    private final StringBuilder token = new StringBuilder();
+
+    private int pos;
+
+    private int len;
+
+    private long offset;
+
+    private JsonStreamParser(InputStream in, Handler handler) {
+        this.reader = new InputStreamReader(in, StandardCharsets.UTF_8);
+        this.handler = handler;
+    }
+
+    /**
+     * Receives the content of a JSON object as it is read.
+     * <p>
+     * Scalar values are passed as {@link String}, {@link Boolean}, {@link Number} or {@link JSONNull}.
+     */
+    public interface Handler {
+        void startObject() throws IOException;
+
+        /**
+         * @param key the key of the value passed next
+         */
+        void key(@NonNull String key) throws IOException;
+
+        void endObject() throws IOException;
+
+        void startArray() throws IOException;
+
+        void endArray() throws IOException;
+
+        void value(@NonNull Object value) throws IOException;
+    }
+
+    /**
+     * Reads a JSON object from the stream.
+     *
+     * @param in the stream containing a single JSON object, encoded in UTF-8
+     * @return the object
+     * @throws IOException when failed to read, or the content is not a JSON object
+     */
+    @NonNull
+    public static JSONObject parse(@NonNull InputStream in) throws IOException {
+        TreeBuilder builder = new TreeBuilder();
+        parse(in, builder);
+        return builder.root;
+    }
+
+    /**
+     * Reads a JSON object from the stream, passing its content to the handler.
+     *
+     * @param in      the stream containing a single JSON object, encoded in UTF-8
+     * @param handler receives the content
+     * @throws IOException when failed to read, or the content is not a JSON object
+     */
+    public static void parse(@NonNull InputStream in, @NonNull Handler handler) throws IOException {
+        JsonStreamParser parser = new JsonStreamParser(in, handler);
+        if (parser.skipWhitespace() != '{') {
+            throw parser.error("Expected an object");
+        }
+        parser.object(0);
+        if (parser.skipWhitespace() != -1) {
+            throw parser.error("Unexpected content after the object");
+        }
+    }
+
+    private int peek() throws IOException {
+        if (pos == len) {
+            offset += len;
+            len = reader.read(buf);
+            pos = 0;
+            if (len <= 0) {
+                len = 0;
+                return -1;
+            }
+        }
+        return buf[pos];
+    }
+
+    private int next() throws IOException {
+        int c = peek();
+        if (c >= 0) {
+            pos++;
+        }
+        return c;
+    }
+
+    private int skipWhitespace() throws IOException {
+        while (true) {
+            int c = peek();
+            if (c != ' ' && c != '\n' && c != '\r' && c != '\t') {
+                return c;
+            }
+            pos++;
+        }
+    }
+
+    private void expect(char expected) throws IOException {
+        if (skipWhitespace() != expected) {
+            throw error("Expected '" + expected + "'");
+        }
+        pos++;
+    }
+
+    private void value(int depth) throws IOException {
+        int c = skipWhitespace();
+        switch (c) {
+            case '{':
+                object(depth + 1);
+                break;
+            case '[':
+                array(depth + 1);
+                break;
+            case '"':
+                handler.value(string());
+                break;
+            case 't':
+                literal("true");
+                handler.value(Boolean.TRUE);
+                break;
+            case 'f':
+                literal("false");
+                handler.value(Boolean.FALSE);
+                break;
+            case 'n':
+                literal("null");
+                handler.value(JSONNull.getInstance());
+                break;
+            default:
+                if (c == '-' || (c >= '0' && c <= '9')) {
+                    handler.value(number());
+                    break;
+                }
+                throw error(c < 0 ? "Unexpected end of the content" : "Unexpected character '" + (char) c + "'");
+        }
+    }
+
+    private void object(int depth) throws IOException {
+        checkDepth(depth);
+        pos++; // '{'
+        handler.startObject();
+        if (skipWhitespace() == '}') {
+            pos++;
+            handler.endObject();
+            return;
+        }
+        while (true) {
+            if (skipWhitespace() != '"') {
+                throw error("Expected a key");
+            }
+            handler.key(string());
+            expect(':');
+            value(depth);
+            int c = skipWhitespace();
+            pos++;
+            if (c == '}') {
+                handler.endObject();
+                return;
+            }
+            if (c != ',') {
+                throw error("Expected ',' or '}'");
+            }
+        }
+    }
+
+    private void array(int depth) throws IOException {
+        checkDepth(depth);
+        pos++; // '['
+        handler.startArray();
+        if (skipWhitespace() == ']') {
+            pos++;
+            handler.endArray();
+            return;
+        }
+        while (true) {
+            value(depth);
+            int c = skipWhitespace();
+            pos++;
+            if (c == ']') {
+                handler.endArray();
+                return;
+            }
+            if (c != ',') {
+                throw error("Expected ',' or ']'");
+            }
+        }
+    }
+
+    private String string() throws IOException {
+        pos++; // '"'
+        token.setLength(0);
+        while (true) {
+            // copy the run of plain characters at once
+            int start = pos;
+            while (pos < len && buf[pos] != '"' && buf[pos] != '\\' && buf[pos] >= 0x20) {
+                pos++;
+            }
+            token.append(buf, start, pos - start);
+            int c = next();
+            if (c == '"') {
+                return token.toString();
+            }
+            if (c == '\\') {
+                token.append(escape());
+            } else if (c >= 0 && c < 0x20) {
+                throw error("Unescaped control character in a string");
+            } else if (c < 0) {
+                throw error("Unterminated string");
+            } else {
+                // the first character after the buffer was refilled
+                token.append((char) c);
+            }
+        }
+    }
+
+    private char escape() throws IOException {
+        int c = next();
+        switch (c) {
+            case '"':
+            case '\\':
+            case '/':
+                return (char) c;
+            case 'b':
+                return '\b';
+            case 'f':
+                return '\f';
+            case 'n':
+                return '\n';
+            case 'r':
+                return '\r';
+            case 't':
+                return '\t';
+            case 'u':
+                int code = 0;
+                for (int i = 0; i < 4; i++) {
+                    int digit = Character.digit(next(), 16);
+                    if (digit < 0) {
+                        throw error("Invalid unicode escape");
+                    }
+                    code = code * 16 + digit;
+                }
+                return (char) code;
+            default:
+                throw error("Invalid escape");
+        }
+    }
+
+    private void literal(String expected) throws IOException {
+        for (int i = 0; i < expected.length(); i++) {
+            if (next() != expected.charAt(i)) {
+                throw error("Expected " + expected);
+            }
+        }
+    }
+
+    private Object number() throws IOException {
+        token.setLength(0);
+        boolean decimal = false;
+        while (true) {
+            int c = peek();
+            if (c == '.' || c == 'e' || c == 'E') {
+                decimal = true;
+            } else if (c != '-' && c != '+' && (c < '0' || c > '9')) {
+                break;
+            }
+            token.append((char) c);
+            pos++;
+        }
+        String s = token.toString();
+        try {
+            if (decimal) {
+                double d = Double.parseDouble(s);
+                return Double.isInfinite(d) ? new BigDecimal(s) : (Object) d;
+            }
+            BigInteger i = new BigInteger(s);
+            if (i.bitLength() < Integer.SIZE) {
+                return i.intValue();
+            }
+            if (i.bitLength() < Long.SIZE) {
+                return i.longValue();
+            }
+            return i;
+        } catch (NumberFormatException e) {
+            throw error("Invalid number " + s);
+        }
+    }
+
+    private void checkDepth(int depth) throws IOException {
+        if (depth > MAX_DEPTH) {
+            throw error("Nested too deeply");
+        }
+    }
+
+    private IOException error(String message) {
+        return new IOException(message + " at character " + (offset + pos));
+    }
+
+    /**
+     * Builds the tree, attaching each object and array to its parent once complete.
+     */
+    private static final class TreeBuilder implements Handler {
+        private final List<Object> containers = new ArrayList<>();
+
+        /**
+         * Keys the open containers are to be attached with, {@code null} in arrays.
+         */
+        private final List<String> keys = new ArrayList<>();
+
+        private String key;
+
+        private JSONObject root;
+
+        @Override
+        public void startObject() {
+            open(new JSONObject());
+        }
+
+        @Override
+        public void key(@NonNull String key) {
+            this.key = JsonInterner.intern(key);
+        }
+
+        @Override
+        public void endObject() {
+            close();
+        }
+
+        @Override
+        public void startArray() {
+            open(new JSONArray());
+        }
+
+        @Override
+        public void endArray() {
+            close();
+        }
+
+        @Override
+        public void value(@NonNull Object value) {
+            add(value instanceof String ? JsonInterner.intern((String) value) : value);
+        }
+
+        private void open(Object container) {
+            containers.add(container);
+            keys.add(key);
+        }
+
+        private void close() {
+            Object container = containers.remove(containers.size() - 1);
+            key = keys.remove(keys.size() - 1);
+            if (containers.isEmpty()) {
+                root = (JSONObject) container;
+            } else {
+                add(container);
+            }
+        }
+
+        private void add(Object value) {
+            Object parent = containers.get(containers.size() - 1);
+            if (parent instanceof JSONObject) {
+                ((JSONObject) parent).element(key, value);
+            } else {
+                ((JSONArray) parent).add(value);
+            }
+        }
+    }
+}
@@ -0,0 +1,202 @@
+package jp.ikedam.jenkins.plugins.updatesitesmanager.internal;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.function.Supplier;
+
+/**
+ * Strips the JSONP wrapper from update-center.json while it is read.
+ * <p>
+ * Bytes before the first <code>'{'</code> are dropped as they arrive,
+ * and bytes after the last <code>'}'</code> are held back until the end of the stream is reached,
+ * so only the JSON object itself is passed to the reader.
+ * A document without a wrapper passes through unchanged.
+ * <p>
+ * The bytes read from the underlying stream, wrapper included, are limited,
+ * so a stream without any brace never makes the bytes held back grow without bound.
+ */
+public class JsonpUnwrappingInputStream extends FilterInputStream {
+    private static final int CHUNK_SIZE = 8192;
+
+    private final String source;
+
+    private final long maxSize;
+
+    private final Supplier<String> tooLarge;
+
+    /**
+     * Bytes read from the underlying stream so far.
+     */
+    private long consumed;
+
+    private final byte[] chunk = new byte[CHUNK_SIZE];
+
+    private boolean started;
+
+    private boolean foundEnd;
+
+    private boolean closed;
+
+    /**
+     * Bytes ready to be passed to the reader.
+     */
+    private byte[] ready = new byte[CHUNK_SIZE];
+
+    private int readyPos;
+
+    private int readyLen;
+
+    /**
+     * Bytes after the last <code>'}'</code> found so far.
+     */
+    private byte[] held = new byte[CHUNK_SIZE];
+
+    private int heldLen;
+
+    /**
+     * Reused by {@link #read()}.
+     */
+    private final byte[] single = new byte[1];
+
+    /**
+     * @param in     the stream to unwrap
+     * @param source where the stream comes from, used in error messages
+     */
+    public JsonpUnwrappingInputStream(InputStream in, String source) {
+        this(in, source, Long.MAX_VALUE, () -> source + " is too large");
+    }
+
+    /**
+     * @param in       the stream to unwrap
+     * @param source   where the stream comes from, used in error messages
+     * @param maxSize  the largest number of bytes to read from {@code in}
+     * @param tooLarge builds the message of the failure when {@code in} exceeds {@code maxSize}
+     */
+    public JsonpUnwrappingInputStream(InputStream in, String source, long maxSize, Supplier<String> tooLarge) {
+        super(in);
+        this.source = source;
+        this.maxSize = maxSize;
+        this.tooLarge = tooLarge;
+    }
+
+    @Override
+    public int read() throws IOException {
+        int len = read(single, 0, 1);
+        return len < 0 ? -1 : single[0] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        while (readyPos >= readyLen) {
+            if (!fill()) {
+                return -1;
+            }
+        }
+        int n = Math.min(len, readyLen - readyPos);
+        System.arraycopy(ready, readyPos, b, off, n);
+        readyPos += n;
+        return n;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        long skipped = 0;
+        byte[] buf = new byte[CHUNK_SIZE];
+        while (skipped < n) {
+            int len = read(buf, 0, (int) Math.min(buf.length, n - skipped));
+            if (len < 0) {
+                break;
+            }
+            skipped += len;
+        }
+        return skipped;
+    }
+
+    @Override
+    public int available() {
+        return readyLen - readyPos;
+    }
+
+    @Override
+    public boolean markSupported() {
+        return false;
+    }
+
+    /**
+     * Reads the next chunk from the underlying stream.
+     *
+     * @return {@code false} if reached the end of the JSON object
+     * @throws IOException when failed to read, or the stream exceeds the limit
+     */
+    private boolean fill() throws IOException {
+        if (closed) {
+            return false;
+        }
+        int len = in.read(chunk, 0, chunk.length);
+        if (len < 0) {
+            closed = true;
+            if (!foundEnd) {
+                throw new IOException("Could not find JSON in " + source);
+            }
+            // drops the trailing wrapper
+            heldLen = 0;
+            return false;
+        }
+        consumed += len;
+        if (consumed > maxSize) {
+            throw new IOException(tooLarge.get());
+        }
+        int from = 0;
+        if (!started) {
+            while (from < len && chunk[from] != '{') {
+                from++;
+            }
+            if (from == len) {
+                return true;
+            }
+            started = true;
+        }
+        int lastBrace = -1;
+        for (int i = len - 1; i >= from; i--) {
+            if (chunk[i] == '}') {
+                lastBrace = i;
+                break;
+            }
+        }
+        readyPos = 0;
+        readyLen = 0;
+        if (lastBrace < 0) {
+            append(from, len);
+            return true;
+        }
+        foundEnd = true;
+        // everything held so far turns out to be inside the object
+        ensureReady(heldLen + lastBrace + 1 - from);
+        System.arraycopy(held, 0, ready, 0, heldLen);
+        System.arraycopy(chunk, from, ready, heldLen, lastBrace + 1 - from);
+        readyLen = heldLen + lastBrace + 1 - from;
+        heldLen = 0;
+        append(lastBrace + 1, len);
+        return true;
+    }
+
+    private void append(int from, int to) {
+        int n = to - from;
+        if (heldLen + n > held.length) {
+            held = Arrays.copyOf(held, Math.max(held.length * 2, heldLen + n));
+        }
+        System.arraycopy(chunk, from, held, heldLen, n);
+        heldLen += n;
+    }
+
+    private void ensureReady(int size) {
+        if (ready.length < size) {
+            ready = new byte[Math.max(ready.length * 2, size)];
+        }
+    }
+}
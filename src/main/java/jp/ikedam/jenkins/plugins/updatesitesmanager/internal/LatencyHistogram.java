@@ -0,0 +1,92 @@
+package jp.ikedam.jenkins.plugins.updatesitesmanager.internal;
+
+import edu.umd.cs.findbugs.annotations.NonNull;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Distribution of the times taken, in fixed buckets.
+ * <p>
+ * Recording only increments counters, without locks or allocation,
+ * so it can be done for every request.
+ */
+public class LatencyHistogram {
+    /**
+     * Upper bounds of the buckets in milliseconds, the last bucket taking everything above.
+     */
+    private static final long[] BOUNDS = {5, 10, 25, 50, 100, 250, 500, 1000, 2500, 5000, 10000, 30000, 60000};
+
+    private final LongAdder[] buckets = new LongAdder[BOUNDS.length + 1];
+
+    private final LongAdder count = new LongAdder();
+
+    private final LongAdder sumNanos = new LongAdder();
+
+    public LatencyHistogram() {
+        for (int i = 0; i < buckets.length; i++) {
+            buckets[i] = new LongAdder();
+        }
+    }
+
+    /**
+     * Returns the upper bounds of the buckets.
+     *
+     * @return the upper bounds in milliseconds, not including the last bucket without bound
+     */
+    @NonNull
+    public static long[] getBounds() {
+        return BOUNDS.clone();
+    }
+
+    /**
+     * Records a time taken.
+     *
+     * @param nanos the time in nanoseconds
+     */
+    public void record(long nanos) {
+        long elapsed = Math.max(nanos, 0);
+        int i = 0;
+        while (i < BOUNDS.length && elapsed > TimeUnit.MILLISECONDS.toNanos(BOUNDS[i])) {
+            i++;
+        }
+        buckets[i].increment();
+        count.increment();
+        sumNanos.add(elapsed);
+    }
+
+    /**
+     * Returns the number of times recorded.
+     *
+     * @return the number of times recorded
+     */
+    public long getCount() {
+        return count.sum();
+    }
+
+    /**
+     * Returns the sum of the times recorded.
+     *
+     * @return the sum in milliseconds
+     */
+    public double getSumMillis() {
+        return sumNanos.sum() / 1_000_000.0;
+    }
+
+    /**
+     * Returns the number of times in each bucket and below.
+     * <p>
+     * Taken while others may be recording, so may be slightly inconsistent with {@link #getCount()}.
+     *
+     * @return the cumulative counts, the last one for all the times recorded
+     */
+    @NonNull
+    public long[] getCumulativeCounts() {
+        long[] counts = new long[buckets.length];
+        long total = 0;
+        for (int i = 0; i < buckets.length; i++) {
+            total += buckets[i].sum();
+            counts[i] = total;
+        }
+        return counts;
+    }
+}
@@ -0,0 +1,172 @@
+package jp.ikedam.jenkins.plugins.updatesitesmanager.internal;
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import edu.umd.cs.findbugs.annotations.NonNull;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+/**
+ * Orders the mirrors of an update site by how well they have been serving.
+ * <p>
+ * Keeps the latency and the success rate of each mirror as moving averages of the recent accesses,
+ * and prefers the mirror expected to serve the fastest,
+ * counting each likely failure as the time wasted before failing over to another mirror.
+ * Mirrors not accessed for a while are tried first, in the configured order,
+ * so they get measured again instead of being judged by old figures.
+ * <p>
+ * Kept by the id of the site so the figures survive the site being re-instantiated
+ * when the configuration is saved.
+ */
+public class MirrorSelector {
+    private static final Map<String, MirrorSelector> SELECTORS = new ConcurrentHashMap<>();
+
+    /**
+     * Weight of the latest access in the moving averages.
+     */
+    private static final double WEIGHT = 0.3;
+
+    private static final long STALE = TimeUnit.HOURS.toMillis(1);
+
+    /**
+     * Time in milliseconds a failed access is considered to waste.
+     */
+    private static final double FAILURE_COST = TimeUnit.SECONDS.toMillis(10);
+
+    private final Map<String, Figures> figures = new ConcurrentHashMap<>();
+
+    private final LongSupplier clock;
+
+    MirrorSelector(LongSupplier clock) {
+        this.clock = clock;
+    }
+
+    /**
+     * Returns the selector of the site.
+     *
+     * @param id id of the site
+     * @return the selector of the site
+     */
+    @NonNull
+    public static MirrorSelector of(@NonNull String id) {
+        return SELECTORS.computeIfAbsent(id, k -> new MirrorSelector(System::currentTimeMillis));
+    }
+
+    /**
+     * Forgets selectors of sites no longer registered.
+     *
+     * @param ids ids of sites still registered
+     */
+    public static void retain(@NonNull Collection<String> ids) {
+        SELECTORS.keySet().retainAll(ids);
+    }
+
+    /**
+     * Orders the mirrors to try.
+     *
+     * @param urls the mirrors in the configured order
+     * @return the mirrors, the best first
+     */
+    @NonNull
+    public List<String> rank(@NonNull List<String> urls) {
+        if (urls.size() <= 1) {
+            return urls;
+        }
+        long now = clock.getAsLong();
+        List<String> ranked = new ArrayList<>(urls);
+        // stable, so mirrors to measure again keep the configured order
+        ranked.sort(Comparator.comparingDouble(url -> {
+            Figures f = figures.get(url);
+            return f != null ? f.score(now) : -1;
+        }));
+        return ranked;
+    }
+
+    /**
+     * Records a successful access to the mirror.
+     *
+     * @param url     the mirror
+     * @param latency time in milliseconds until the response arrived
+     */
+    public void succeeded(@NonNull String url, long latency) {
+        figures.computeIfAbsent(url, k -> new Figures()).record(true, latency, clock.getAsLong());
+    }
+
+    /**
+     * Records a failed access to the mirror.
+     *
+     * @param url the mirror
+     */
+    public void failed(@NonNull String url) {
+        figures.computeIfAbsent(url, k -> new Figures()).record(false, 0, clock.getAsLong());
+    }
+
+    /**
+     * Returns the average latency of the mirror.
+     *
+     * @param url the mirror
+     * @return the latency in milliseconds, {@code null} if never succeeded
+     */
+    @CheckForNull
+    public Long getLatency(@NonNull String url) {
+        Figures f = figures.get(url);
+        return f != null ? f.getLatency() : null;
+    }
+
+    /**
+     * Returns the recent success rate of the mirror.
+     *
+     * @param url the mirror
+     * @return the rate between 0 and 1, {@code null} if never accessed
+     */
+    @CheckForNull
+    public Double getSuccessRate(@NonNull String url) {
+        Figures f = figures.get(url);
+        return f != null ? f.getSuccessRate() : null;
+    }
+
+    private static final class Figures {
+        private double latency;
+
+        private double successRate = 1;
+
+        private long successes;
+
+        private long lastAccess;
+
+        synchronized void record(boolean success, long elapsed, long now) {
+            if (success) {
+                latency = successes == 0 ? elapsed : latency + WEIGHT * (elapsed - latency);
+                successes++;
+            }
+            successRate += WEIGHT * ((success ? 1 : 0) - successRate);
+            lastAccess = now;
+        }
+
+        /**
+         * @return the lower the better, negative to measure again
+         */
+        synchronized double score(long now) {
+            if (now - lastAccess > STALE) {
+                return -1;
+            }
+            if (successes == 0) {
+                return Double.MAX_VALUE;
+            }
+            return latency + (1 - successRate) * FAILURE_COST;
+        }
+
+        synchronized Long getLatency() {
+            return successes > 0 ? Math.round(latency) : null;
+        }
+
+        synchronized double getSuccessRate() {
+            return successRate;
+        }
+    }
+}
@@ -0,0 +1,450 @@
+package jp.ikedam.jenkins.plugins.updatesitesmanager.internal;
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import edu.umd.cs.findbugs.annotations.NonNull;
+import hudson.init.Terminator;
+import hudson.util.DaemonThreadFactory;
+import hudson.util.NamingThreadFactory;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Downloads large files in several byte ranges at the same time, and joins them into one stream.
+ * <p>
+ * The first request asks for {@code bytes=0-}.
+ * A server supporting ranges answers {@code 206} with the total length in {@code Content-Range},
+ * which tells both the support and the size without an extra round trip.
+ * The rest of the file is then requested in ranges on separate connections,
+ * each written to a file in the given directory, while the first range is read from the first connection.
+ * Ranges are requested with {@code If-Range}, so a file changed in the middle of the download fails the download
+ * rather than producing a mix of two versions.
+ * <p>
+ * The caller sees a usual {@code 200} response with the whole content.
+ * Servers answering {@code 200} to the first request, and files smaller than the threshold,
+ * are read from the first connection as a single stream.
+ * Contents are requested uncompressed, as ranges of compressed contents cannot be joined.
+ */
+public class RangedURLConnection extends DelegatingHttpURLConnection {
+    private static final Logger LOGGER = Logger.getLogger(RangedURLConnection.class.getName());
+
+    private static final Pattern CONTENT_RANGE = Pattern.compile("bytes\\s+(\\d+)-(\\d+)/(\\d+)");
+
+    /**
+     * Number of ranges downloaded at the same time across all the downloads.
+     * Ranges beyond that wait for their turn.
+     */
+    private static final int THREADS = 8;
+
+    /**
+     * Created on the first download in ranges, see {@link #getExecutor()}.
+     */
+    private static ThreadPoolExecutor executor;
+
+    /**
+     * Opens connections to download ranges.
+     */
+    @FunctionalInterface
+    public interface Opener {
+        /**
+         * Opens a connection prepared like the first one, not connected yet.
+         *
+         * @param url the URL to download
+         * @return the connection
+         * @throws IOException when failed to open the connection
+         */
+        @NonNull
+        HttpURLConnection open(@NonNull URL url) throws IOException;
+    }
+
+    private final Opener opener;
+
+    private final int parts;
+
+    private final long minSize;
+
+    private final Path partDir;
+
+    private final SiteStatistics statistics;
+
+    private boolean started;
+
+    private boolean ranged;
+
+    private long total = -1;
+
+    private InputStream in;
+
+    /**
+     * @param delegate   the connection not connected yet
+     * @param opener     opens connections for the other ranges
+     * @param parts      the number of ranges to download at the same time
+     * @param minSize    the smallest length in bytes to download in ranges
+     * @param partDir    where to write the downloaded ranges until they are read
+     * @param statistics where to record the transferred bytes
+     */
+    public RangedURLConnection(
+            HttpURLConnection delegate,
+            Opener opener,
+            int parts,
+            long minSize,
+            Path partDir,
+            SiteStatistics statistics) {
+        super(delegate);
+        this.opener = opener;
+        this.parts = parts;
+        this.minSize = minSize;
+        this.partDir = partDir;
+        this.statistics = statistics;
+        delegate.setRequestProperty("Range", "bytes=0-");
+    }
+
+    private synchronized void start() throws IOException {
+        if (started) {
+            return;
+        }
+        started = true;
+        if (delegate.getResponseCode() != HTTP_PARTIAL) {
+            LOGGER.log(Level.FINE, "{0} does not support ranges, downloading in a single stream", getURL());
+            return;
+        }
+        long[] range = parseContentRange(delegate.getHeaderField("Content-Range"));
+        if (range == null || range[0] != 0) {
+            throw new IOException("Unexpected Content-Range from " + getURL() + ": "
+                    + delegate.getHeaderField("Content-Range"));
+        }
+        ranged = true;
+        total = range[2];
+        InputStream first = count(delegate.getInputStream());
+        if (total < minSize || parts <= 1) {
+            in = first;
+            return;
+        }
+
+        long partSize = (total + parts - 1) / parts;
+        String validator = getValidator();
+        ExecutorService executor = getExecutor();
+        Deque<Part> rest = new ArrayDeque<>();
+        for (long start = partSize; start < total; start += partSize) {
+            long end = Math.min(start + partSize, total) - 1;
+            long from = start;
+            rest.add(new Part(from, end, executor.submit(() -> fetch(from, end, validator))));
+        }
+        LOGGER.log(Level.FINE, "Downloading {0} ({1} bytes) in {2} ranges", new Object[] {
+            getURL(), total, rest.size() + 1
+        });
+        in = new JoinedInputStream(first, partSize, rest);
+    }
+
+    /**
+     * Returns the threads to download ranges, as many as {@link #THREADS}.
+     * Idle threads exit after a while.
+     */
+    private static synchronized ExecutorService getExecutor() {
+        if (executor == null) {
+            executor = new ThreadPoolExecutor(
+                    THREADS,
+                    THREADS,
+                    60L,
+                    TimeUnit.SECONDS,
+                    new LinkedBlockingQueue<>(),
+                    new NamingThreadFactory(new DaemonThreadFactory(), RangedURLConnection.class.getSimpleName()));
+            executor.allowCoreThreadTimeOut(true);
+        }
+        return executor;
+    }
+
+    /**
+     * Stops downloading ranges when Jenkins shuts down.
+     */
+    @Terminator
+    public static synchronized void shutdown() {
+        if (executor != null) {
+            for (Runnable pending : executor.shutdownNow()) {
+                // fails the downloads waiting for the ranges never started
+                if (pending instanceof Future<?> future) {
+                    future.cancel(false);
+                }
+            }
+            executor = null;
+        }
+    }
+
+    /**
+     * Returns the validator to make sure all the ranges come from the same version of the file.
+     *
+     * @return the strong ETag, or Last-Modified, {@code null} if none is available
+     */
+    @CheckForNull
+    private String getValidator() {
+        String etag = delegate.getHeaderField("ETag");
+        if (etag != null && !etag.startsWith("W/")) {
+            return etag;
+        }
+        return delegate.getHeaderField("Last-Modified");
+    }
+
+    /**
+     * Downloads the range to a file in {@link #partDir}.
+     */
+    private Path fetch(long start, long end, String validator) throws IOException {
+        HttpURLConnection connection = opener.open(getURL());
+        connection.setRequestProperty("Range", "bytes=" + start + "-" + end);
+        if (validator != null) {
+            connection.setRequestProperty("If-Range", validator);
+        }
+        try {
+            int status = connection.getResponseCode();
+            long[] range = parseContentRange(connection.getHeaderField("Content-Range"));
+            if (status != HTTP_PARTIAL || range == null || range[0] != start || range[2] != total) {
+                throw new IOException("The range " + start + "-" + end + " of " + getURL()
+                        + " is not available, the file may have changed");
+            }
+            Files.createDirectories(partDir);
+            Path file = Files.createTempFile(partDir, "range", ".part");
+            try (InputStream is = count(connection.getInputStream());
+                    OutputStream os = Files.newOutputStream(file)) {
+                long copied = is.transferTo(os);
+                if (copied != end - start + 1) {
+                    throw new EOFException("The range " + start + "-" + end + " of " + getURL() + " is truncated");
+                }
+            } catch (IOException e) {
+                Files.deleteIfExists(file);
+                throw e;
+            }
+            return file;
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    private InputStream count(InputStream is) {
+        return new CountingInputStream(
+                new CountingInputStream(is, statistics::addCompressedBytes), statistics::addUncompressedBytes);
+    }
+
+    /**
+     * @return start, end and total length, or {@code null} if not a valid header
+     */
+    @CheckForNull
+    static long[] parseContentRange(@CheckForNull String contentRange) {
+        if (contentRange == null) {
+            return null;
+        }
+        Matcher m = CONTENT_RANGE.matcher(contentRange.trim());
+        if (!m.matches()) {
+            return null;
+        }
+        try {
+            return new long[] {Long.parseLong(m.group(1)), Long.parseLong(m.group(2)), Long.parseLong(m.group(3))};
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    @Override
+    public int getResponseCode() throws IOException {
+        start();
+        return ranged ? HTTP_OK : delegate.getResponseCode();
+    }
+
+    @Override
+    public String getResponseMessage() throws IOException {
+        start();
+        return ranged ? "OK" : delegate.getResponseMessage();
+    }
+
+    @Override
+    public synchronized InputStream getInputStream() throws IOException {
+        start();
+        if (in == null) {
+            in = count(delegate.getInputStream());
+        }
+        return in;
+    }
+
+    @Override
+    public int getContentLength() {
+        long length = getContentLengthLong();
+        return length > Integer.MAX_VALUE ? -1 : (int) length;
+    }
+
+    @Override
+    public long getContentLengthLong() {
+        return startQuietly() ? total : delegate.getContentLengthLong();
+    }
+
+    @Override
+    public String getHeaderField(String name) {
+        if (startQuietly()) {
+            if ("Content-Length".equalsIgnoreCase(name)) {
+                return String.valueOf(total);
+            }
+            if ("Content-Range".equalsIgnoreCase(name)) {
+                return null;
+            }
+        }
+        return delegate.getHeaderField(name);
+    }
+
+    @Override
+    public long getHeaderFieldLong(String name, long defaultValue) {
+        if ("Content-Length".equalsIgnoreCase(name) && startQuietly()) {
+            return total;
+        }
+        return delegate.getHeaderFieldLong(name, defaultValue);
+    }
+
+    /**
+     * Starts the download for methods not allowed to throw, as {@link HttpURLConnection} does.
+     *
+     * @return whether the file is downloaded in ranges
+     */
+    private boolean startQuietly() {
+        try {
+            start();
+        } catch (IOException e) {
+            LOGGER.log(Level.FINE, "Failed to connect to " + getURL(), e);
+        }
+        return ranged;
+    }
+
+    @Override
+    public void disconnect() {
+        synchronized (this) {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException e) {
+                    LOGGER.log(Level.FINE, "Failed to close the download from " + getURL(), e);
+                }
+            }
+        }
+        super.disconnect();
+    }
+
+    /**
+     * A range downloaded in background.
+     */
+    private record Part(long start, long end, Future<Path> file) {}
+
+    /**
+     * Reads the first range from the first connection, then the other ranges from their files.
+     */
+    private static final class JoinedInputStream extends InputStream {
+        private final Deque<Part> rest;
+
+        private InputStream current;
+
+        /**
+         * Bytes left in the current range.
+         */
+        private long remaining;
+
+        private Path currentFile;
+
+        /**
+         * Reused by {@link #read()}.
+         */
+        private final byte[] single = new byte[1];
+
+        JoinedInputStream(InputStream first, long firstSize, Deque<Part> rest) {
+            this.current = first;
+            this.remaining = firstSize;
+            this.rest = rest;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int n = read(single, 0, 1);
+            return n < 0 ? -1 : single[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            while (remaining == 0) {
+                if (!next()) {
+                    return -1;
+                }
+            }
+            int n = current.read(b, off, (int) Math.min(len, remaining));
+            if (n < 0) {
+                throw new EOFException("A range ended " + remaining + " bytes early");
+            }
+            remaining -= n;
+            return n;
+        }
+
+        private boolean next() throws IOException {
+            closeCurrent();
+            Part part = rest.poll();
+            if (part == null) {
+                return false;
+            }
+            try {
+                currentFile = part.file().get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while downloading ranges");
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                throw cause instanceof IOException ? (IOException) cause : new IOException(cause);
+            } catch (CancellationException e) {
+                throw new IOException("The download of ranges was cancelled", e);
+            }
+            current = Files.newInputStream(currentFile);
+            remaining = part.end() - part.start() + 1;
+            return true;
+        }
+
+        private void closeCurrent() throws IOException {
+            if (current != null) {
+                current.close();
+                current = null;
+            }
+            if (currentFile != null) {
+                Files.deleteIfExists(currentFile);
+                currentFile = null;
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            closeCurrent();
+            for (Part part : rest) {
+                if (!part.file().cancel(true) && !part.file().isCancelled()) {
+                    try {
+                        Files.deleteIfExists(part.file().get());
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    } catch (ExecutionException e) {
+                        // nothing to clean up
+                    }
+                }
+            }
+            rest.clear();
+        }
+    }
+}
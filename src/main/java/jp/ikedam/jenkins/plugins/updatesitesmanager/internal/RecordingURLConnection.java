@@ -0,0 +1,125 @@
+package jp.ikedam.jenkins.plugins.updatesitesmanager.internal;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+
+/**
+ * Records the download as a {@link SiteEvents.Download} event.
+ * <p>
+ * The event starts when the connection is created and ends when the content is closed,
+ * or when the content cannot be opened.
+ */
+public class RecordingURLConnection extends DelegatingHttpURLConnection {
+    private final SiteEvents.Download event = new SiteEvents.Download();
+
+    private final String siteId;
+
+    private InputStream in;
+
+    /**
+     * @param delegate the connection not connected yet
+     * @param siteId   id of the site downloading the file
+     */
+    public RecordingURLConnection(HttpURLConnection delegate, String siteId) {
+        super(delegate);
+        this.siteId = siteId;
+        event.begin();
+    }
+
+    @Override
+    public synchronized InputStream getInputStream() throws IOException {
+        if (in == null) {
+            try {
+                in = new RecordingInputStream(delegate.getInputStream());
+            } catch (IOException | RuntimeException e) {
+                commit(0, SiteEvents.failed(e));
+                throw e;
+            }
+        }
+        return in;
+    }
+
+    private void commit(long bytes, String outcome) {
+        event.end();
+        if (event.shouldCommit()) {
+            event.siteId = siteId;
+            event.url = getURL().toExternalForm();
+            event.bytes = bytes;
+            event.outcome = outcome;
+            event.commit();
+        }
+    }
+
+    private final class RecordingInputStream extends FilterInputStream {
+        private long bytes;
+
+        private boolean eof;
+
+        private boolean closed;
+
+        private IOException failure;
+
+        /**
+         * Reused by {@link #read()}.
+         */
+        private final byte[] single = new byte[1];
+
+        RecordingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int n = read(single, 0, 1);
+            return n < 0 ? -1 : single[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            try {
+                int n = super.read(b, off, len);
+                if (n > 0) {
+                    bytes += n;
+                } else if (n < 0) {
+                    eof = true;
+                }
+                return n;
+            } catch (IOException e) {
+                failure = e;
+                throw e;
+            }
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            try {
+                long skipped = super.skip(n);
+                bytes += skipped;
+                return skipped;
+            } catch (IOException e) {
+                failure = e;
+                throw e;
+            }
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                super.close();
+            } finally {
+                if (!closed) {
+                    closed = true;
+                    String outcome = eof ? "completed" : "closed before the end";
+                    commit(bytes, failure != null ? SiteEvents.failed(failure) : outcome);
+                }
+            }
+        }
+    }
+}
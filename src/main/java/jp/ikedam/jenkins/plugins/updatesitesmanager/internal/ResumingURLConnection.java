@@ -0,0 +1,237 @@
+package jp.ikedam.jenkins.plugins.updatesitesmanager.internal;
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import hudson.Util;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Resumes the download from the bytes already received when the connection breaks.
+ * <p>
+ * When reading the content fails, or it ends before {@code Content-Length},
+ * the rest is requested with {@code Range} on a new connection.
+ * The request carries {@code If-Range}, so a file changed in the meantime is not joined to what was received.
+ * Only uncompressed contents of known length with a validator are resumed,
+ * as the other ones cannot be joined reliably.
+ * <p>
+ * When the checksum of the file is known and the content is received uncompressed,
+ * the content is verified against it at the end,
+ * and a mismatch fails the download instead of passing a broken file to the caller.
+ * Compressed contents are decompressed outside of this connection, so they are left to the caller to verify.
+ */
+public class ResumingURLConnection extends DelegatingHttpURLConnection {
+    private static final Logger LOGGER = Logger.getLogger(ResumingURLConnection.class.getName());
+
+    private final RangedURLConnection.Opener opener;
+
+    private final int attempts;
+
+    private final String key;
+
+    private final SiteStatistics statistics;
+
+    private InputStream in;
+
+    /**
+     * @param delegate   the connection not connected yet
+     * @param opener     opens connections to resume the download
+     * @param attempts   the number of times to resume the download
+     * @param key        the expected SHA-256 checksum in hex, {@code null} if not known
+     * @param statistics where to record the resumed downloads
+     */
+    public ResumingURLConnection(
+            HttpURLConnection delegate,
+            RangedURLConnection.Opener opener,
+            int attempts,
+            @CheckForNull String key,
+            SiteStatistics statistics) {
+        super(delegate);
+        this.opener = opener;
+        this.attempts = attempts;
+        this.key = key;
+        this.statistics = statistics;
+    }
+
+    @Override
+    public synchronized InputStream getInputStream() throws IOException {
+        if (in == null) {
+            InputStream first = delegate.getInputStream();
+            String validator = getValidator();
+            long length = delegate.getContentLengthLong();
+            boolean compressed = ContentEncodings.isCompressed(delegate.getContentEncoding());
+            MessageDigest digest = null;
+            // the checksum is of the file, not of the bytes compressed for the transfer
+            if (key != null && !compressed) {
+                try {
+                    digest = MessageDigest.getInstance("SHA-256");
+                } catch (NoSuchAlgorithmException e) {
+                    LOGGER.log(Level.WARNING, "SHA-256 is not available", e);
+                }
+            }
+            boolean resumable = delegate.getResponseCode() == HTTP_OK
+                    && length > 0
+                    && validator != null
+                    && !compressed;
+            in = new ResumingInputStream(first, resumable ? attempts : 0, length, validator, digest);
+        }
+        return in;
+    }
+
+    /**
+     * @return the strong ETag, or Last-Modified, {@code null} if none is available
+     */
+    @CheckForNull
+    private String getValidator() {
+        String etag = delegate.getHeaderField("ETag");
+        if (etag != null && !etag.startsWith("W/")) {
+            return etag;
+        }
+        return delegate.getHeaderField("Last-Modified");
+    }
+
+    /**
+     * Opens the rest of the content.
+     */
+    private InputStream resume(long offset, long length, String validator) throws IOException {
+        HttpURLConnection connection = opener.open(getURL());
+        connection.setRequestProperty("Range", "bytes=" + offset + "-");
+        connection.setRequestProperty("If-Range", validator);
+        boolean ok = false;
+        try {
+            long[] range = RangedURLConnection.parseContentRange(connection.getHeaderField("Content-Range"));
+            if (connection.getResponseCode() != HTTP_PARTIAL
+                    || range == null
+                    || range[0] != offset
+                    || range[2] != length) {
+                throw new IOException("Cannot resume " + getURL() + " from " + offset + ", the file may have changed");
+            }
+            InputStream is = connection.getInputStream();
+            ok = true;
+            return is;
+        } finally {
+            if (!ok) {
+                connection.disconnect();
+            }
+        }
+    }
+
+    private final class ResumingInputStream extends InputStream {
+        private InputStream current;
+
+        private int attemptsLeft;
+
+        private final long length;
+
+        private final String validator;
+
+        @CheckForNull
+        private final MessageDigest digest;
+
+        private long received;
+
+        private boolean verified;
+
+        /**
+         * Reused by {@link #read()}.
+         */
+        private final byte[] single = new byte[1];
+
+        ResumingInputStream(
+                InputStream current, int attempts, long length, String validator, @CheckForNull MessageDigest digest) {
+            this.current = current;
+            this.attemptsLeft = attempts;
+            this.length = length;
+            this.validator = validator;
+            this.digest = digest;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int n = read(single, 0, 1);
+            return n < 0 ? -1 : single[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            while (true) {
+                int n;
+                try {
+                    n = current.read(b, off, len);
+                    if (n < 0 && length > 0 && received < length) {
+                        throw new EOFException("Received " + received + " of " + length + " bytes");
+                    }
+                } catch (IOException e) {
+                    if (attemptsLeft <= 0) {
+                        throw e;
+                    }
+                    LOGGER.log(Level.INFO, "Download of {0} broke after {1} bytes, resuming: {2}", new Object[] {
+                        getURL(), received, e.toString()
+                    });
+                    closeQuietly(current);
+                    current = resume();
+                    statistics.addResumedDownload();
+                    continue;
+                }
+                if (n < 0) {
+                    verify();
+                    return n;
+                }
+                if (digest != null) {
+                    digest.update(b, off, n);
+                }
+                received += n;
+                return n;
+            }
+        }
+
+        /**
+         * Opens the rest of the content, trying again while attempts are left.
+         */
+        private InputStream resume() throws IOException {
+            while (true) {
+                attemptsLeft--;
+                try {
+                    return ResumingURLConnection.this.resume(received, length, validator);
+                } catch (IOException e) {
+                    if (attemptsLeft <= 0) {
+                        throw e;
+                    }
+                    LOGGER.log(Level.FINE, "Failed to resume " + getURL() + ", trying again", e);
+                }
+            }
+        }
+
+        private void verify() throws IOException {
+            if (digest == null || verified) {
+                return;
+            }
+            verified = true;
+            String actual = Util.toHexString(digest.digest());
+            if (!actual.equals(key)) {
+                throw new IOException("Checksum of " + getURL() + " was " + actual + " while expected " + key);
+            }
+        }
+
+        private void closeQuietly(InputStream is) {
+            try {
+                is.close();
+            } catch (IOException e) {
+                LOGGER.log(Level.FINE, "Failed to close the broken download of " + getURL(), e);
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            current.close();
+        }
+    }
+}
@@ -0,0 +1,143 @@
+package jp.ikedam.jenkins.plugins.updatesitesmanager.internal;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * JDK Flight Recorder events for the work done for update sites.
+ * <p>
+ * Events are enabled by default, so a usual recording shows where the time of a refresh goes.
+ * Creating an event costs little while not recording,
+ * fields are filled only when {@link Event#shouldCommit()}.
+ */
+public final class SiteEvents {
+    private static final String PREFIX = "jp.ikedam.jenkins.plugins.updatesitesmanager.";
+
+    private SiteEvents() {}
+
+    /**
+     * Downloading and storing the data of a site.
+     */
+    @Name(PREFIX + "Refresh")
+    @Label("Update Site Refresh")
+    @Category({"Jenkins", "Update Sites Manager"})
+    @StackTrace(false)
+    public static class Refresh extends Event {
+        @Label("Site")
+        public String siteId;
+
+        @Label("URL")
+        public String url;
+
+        @Label("Bytes Received")
+        @DataAmount
+        public long bytes;
+
+        @Label("Outcome")
+        public String outcome;
+    }
+
+    /**
+     * Looking up the credentials to access a site.
+     */
+    @Name(PREFIX + "CredentialLookup")
+    @Label("Update Site Credential Lookup")
+    @Category({"Jenkins", "Update Sites Manager"})
+    @StackTrace(false)
+    public static class CredentialLookup extends Event {
+        @Label("Site")
+        public String siteId;
+
+        @Label("URL")
+        public String url;
+
+        @Label("Credentials")
+        public String credentialsId;
+
+        @Label("Outcome")
+        public String outcome;
+    }
+
+    /**
+     * Loading the trust anchors to verify the signature of the data.
+     */
+    @Name(PREFIX + "TrustAnchorsLoad")
+    @Label("Update Site Trust Anchors Load")
+    @Category({"Jenkins", "Update Sites Manager"})
+    @StackTrace(false)
+    public static class TrustAnchorsLoad extends Event {
+        @Label("Site")
+        public String siteId;
+
+        @Label("Trust Anchors")
+        public int trustAnchors;
+
+        @Label("Cached")
+        @Description("Whether the trust anchors loaded before were reused")
+        public boolean cached;
+
+        @Label("Outcome")
+        public String outcome;
+    }
+
+    /**
+     * Verifying the signature of the data.
+     */
+    @Name(PREFIX + "SignatureVerification")
+    @Label("Update Site Signature Verification")
+    @Category({"Jenkins", "Update Sites Manager"})
+    @StackTrace(false)
+    public static class SignatureVerification extends Event {
+        @Label("Site")
+        public String siteId;
+
+        @Label("URL")
+        public String url;
+
+        @Label("Outcome")
+        public String outcome;
+    }
+
+    /**
+     * Downloading a file, usually a plugin, from a site.
+     * <p>
+     * Lasts from opening the connection until the content is closed.
+     */
+    @Name(PREFIX + "Download")
+    @Label("Update Site Download")
+    @Category({"Jenkins", "Update Sites Manager"})
+    @StackTrace(false)
+    public static class Download extends Event {
+        @Label("Site")
+        public String siteId;
+
+        @Label("URL")
+        public String url;
+
+        @Label("Bytes Received")
+        @DataAmount
+        public long bytes;
+
+        @Label("Cached")
+        @Description("Whether served from the artifact cache")
+        public boolean cached;
+
+        @Label("Outcome")
+        public String outcome;
+    }
+
+    /**
+     * Describes a failure for the outcome of an event.
+     *
+     * @param e the failure
+     * @return the outcome
+     */
+    public static String failed(Throwable e) {
+        return "failed: " + e;
+    }
+}
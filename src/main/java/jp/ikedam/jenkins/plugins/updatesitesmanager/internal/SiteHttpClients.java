@@ -0,0 +1,122 @@
+package jp.ikedam.jenkins.plugins.updatesitesmanager.internal;
+
+import edu.umd.cs.findbugs.annotations.NonNull;
+import hudson.ProxyConfiguration;
+import hudson.init.Terminator;
+import java.net.http.HttpClient;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import jenkins.model.Jenkins;
+
+/**
+ * Holds a long-lived {@link HttpClient} for each update site.
+ * <p>
+ * {@link HttpClient} pools its connections and keeps them alive,
+ * so sharing one instance between refreshes saves a TCP connection,
+ * a TLS handshake and a selector thread for each check.
+ * A client is rebuilt only when the proxy configuration or the URL of the site changes.
+ */
+public final class SiteHttpClients {
+    private static final Logger LOGGER = Logger.getLogger(SiteHttpClients.class.getName());
+
+    /**
+     * Keyed by the id of the site, as sites are re-instantiated each time the configuration is saved.
+     */
+    private static final Map<String, Entry> CLIENTS = new ConcurrentHashMap<>();
+
+    private SiteHttpClients() {}
+
+    /**
+     * Returns the client for the site, building a new one if the site is new or its connection settings changed.
+     *
+     * @param id  id of the site
+     * @param url URL of the site
+     * @return the client to use for the site
+     */
+    @NonNull
+    public static HttpClient get(@NonNull String id, @NonNull String url) {
+        Jenkins jenkins = Jenkins.getInstanceOrNull();
+        ProxyConfiguration proxy = jenkins != null ? jenkins.proxy : null;
+        Entry[] replaced = new Entry[1];
+        Entry entry = CLIENTS.compute(id, (k, old) -> {
+            if (old != null && old.matches(url, proxy)) {
+                return old;
+            }
+            replaced[0] = old;
+            return new Entry(url, proxy, newHttpClient());
+        });
+        if (replaced[0] != null) {
+            LOGGER.log(Level.FINE, "Connection settings for {0} changed, rebuilt its HTTP client", id);
+            close(replaced[0].client);
+        }
+        return entry.client;
+    }
+
+    /**
+     * Releases clients of sites no longer registered.
+     *
+     * @param ids ids of sites still registered
+     */
+    public static void retain(@NonNull Collection<String> ids) {
+        CLIENTS.entrySet().removeIf(e -> {
+            if (ids.contains(e.getKey())) {
+                return false;
+            }
+            close(e.getValue().client);
+            return true;
+        });
+    }
+
+    /**
+     * Releases all the clients when Jenkins shuts down.
+     */
+    @Terminator
+    public static void shutdown() {
+        retain(Collections.emptySet());
+    }
+
+    private static HttpClient newHttpClient() {
+        return ProxyConfiguration.newHttpClientBuilder()
+                .version(HttpClient.Version.HTTP_2)
+                .followRedirects(HttpClient.Redirect.NORMAL)
+                .build();
+    }
+
+    /**
+     * {@link HttpClient} can be closed only since Java 21.
+     * On older runtimes its selector thread exits once the client is no longer referenced.
+     */
+    private static void close(HttpClient client) {
+        if (client instanceof AutoCloseable) {
+            try {
+                ((AutoCloseable) client).close();
+            } catch (Exception e) {
+                LOGGER.log(Level.FINE, "Failed to close HTTP client", e);
+            }
+        }
+    }
+
+    private static final class Entry {
+        private final String url;
+        private final ProxyConfiguration proxy;
+        private final HttpClient client;
+
+        Entry(String url, ProxyConfiguration proxy, HttpClient client) {
+            this.url = url;
+            this.proxy = proxy;
+            this.client = client;
+        }
+
+        /**
+         * Jenkins replaces the {@link ProxyConfiguration} instance when it is reconfigured,
+         * so comparing the identity is enough to detect changes.
+         */
+        boolean matches(String url, ProxyConfiguration proxy) {
+            return this.url.equals(url) && this.proxy == proxy;
+        }
+    }
+}
@@ -0,0 +1,183 @@
+package jp.ikedam.jenkins.plugins.updatesitesmanager.internal;
+
+import edu.umd.cs.findbugs.annotations.NonNull;
+import java.util.List;
+import java.util.Locale;
+import java.util.function.ToLongFunction;
+import net.sf.json.JSONArray;
+import net.sf.json.JSONObject;
+
+/**
+ * Metrics of an update site, as served by {@code /updatesites/metrics}.
+ *
+ * @param id            id of the site
+ * @param statistics    statistics of the site
+ * @param dataTimestamp when the data was last downloaded, {@code 0} or less if never
+ */
+public record SiteMetrics(String id, SiteStatistics statistics, long dataTimestamp) {
+    private static final String PREFIX = "update_sites_manager_";
+
+    /**
+     * Returns the age of the data.
+     *
+     * @param now the current time in milliseconds
+     * @return the age in seconds, {@code -1} if never downloaded
+     */
+    public double getDataAgeSeconds(long now) {
+        return dataTimestamp > 0 ? Math.max(0, now - dataTimestamp) / 1000.0 : -1;
+    }
+
+    /**
+     * Formats the metrics of sites in JSON.
+     *
+     * @param sites the metrics of sites
+     * @param now   the current time in milliseconds
+     * @return the metrics, one object for each site
+     */
+    @NonNull
+    public static JSONArray toJSON(@NonNull List<SiteMetrics> sites, long now) {
+        JSONArray array = new JSONArray();
+        for (SiteMetrics site : sites) {
+            SiteStatistics s = site.statistics();
+            JSONObject o = new JSONObject();
+            o.put("id", site.id());
+            o.put("refreshes", s.getRefreshes());
+            o.put("refreshFailures", s.getRefreshFailures());
+            o.put("compressedBytes", s.getCompressedBytes());
+            o.put("uncompressedBytes", s.getUncompressedBytes());
+            o.put("hedgedRequests", s.getHedgedRequests());
+            o.put("hedgeWins", s.getHedgeWins());
+            o.put("signatureCacheHits", s.getSignatureCacheHits());
+            o.put("deltaUpdates", s.getDeltaUpdates());
+            o.put("deltaFallbacks", s.getDeltaFallbacks());
+            o.put("artifactCacheHits", s.getArtifactCacheHits());
+            o.put("resumedDownloads", s.getResumedDownloads());
+            o.put("dataAgeSeconds", site.getDataAgeSeconds(now));
+            JSONObject phases = new JSONObject();
+            for (SiteStatistics.Phase phase : SiteStatistics.Phase.values()) {
+                phases.put(phase.name().toLowerCase(Locale.ENGLISH), toJSON(s.getPhaseTimes(phase)));
+            }
+            o.put("phases", phases);
+            array.add(o);
+        }
+        return array;
+    }
+
+    private static JSONObject toJSON(LatencyHistogram histogram) {
+        JSONObject o = new JSONObject();
+        o.put("count", histogram.getCount());
+        o.put("sumMillis", histogram.getSumMillis());
+        long[] bounds = LatencyHistogram.getBounds();
+        long[] counts = histogram.getCumulativeCounts();
+        JSONObject buckets = new JSONObject();
+        for (int i = 0; i < bounds.length; i++) {
+            buckets.put(String.valueOf(bounds[i]), counts[i]);
+        }
+        buckets.put("+Inf", counts[bounds.length]);
+        o.put("buckets", buckets);
+        return o;
+    }
+
+    /**
+     * Formats the metrics of sites in the Prometheus text exposition format.
+     *
+     * @param sites the metrics of sites
+     * @param now   the current time in milliseconds
+     * @return the metrics
+     */
+    @NonNull
+    public static String toPrometheus(@NonNull List<SiteMetrics> sites, long now) {
+        StringBuilder out = new StringBuilder();
+        counter(out, sites, "refreshes_total", "Refreshes, including failed ones.", SiteStatistics::getRefreshes);
+        counter(out, sites, "refresh_failures_total", "Failed refreshes.", SiteStatistics::getRefreshFailures);
+        counter(out, sites, "received_bytes_total", "Bytes received.", SiteStatistics::getCompressedBytes);
+        counter(out, sites, "decompressed_bytes_total", "Bytes decompressed.", SiteStatistics::getUncompressedBytes);
+        counter(out, sites, "hedged_requests_total", "Requests sent again as late.", SiteStatistics::getHedgedRequests);
+        counter(out, sites, "hedge_wins_total", "Hedged requests answered first.", SiteStatistics::getHedgeWins);
+        counter(
+                out,
+                sites,
+                "signature_cache_hits_total",
+                "Signature checks skipped as already verified.",
+                SiteStatistics::getSignatureCacheHits);
+        counter(out, sites, "delta_updates_total", "Updates by applying patches.", SiteStatistics::getDeltaUpdates);
+        counter(
+                out,
+                sites,
+                "delta_fallbacks_total",
+                "Full downloads as patches could not be applied.",
+                SiteStatistics::getDeltaFallbacks);
+        counter(
+                out,
+                sites,
+                "artifact_cache_hits_total",
+                "Plugins served from the artifact cache.",
+                SiteStatistics::getArtifactCacheHits);
+        counter(
+                out,
+                sites,
+                "resumed_downloads_total",
+                "Broken downloads resumed.",
+                SiteStatistics::getResumedDownloads);
+
+        header(out, "data_age_seconds", "gauge", "Time since the data was downloaded, -1 if never.");
+        for (SiteMetrics site : sites) {
+            sample(out, "data_age_seconds", site.id(), null, format(site.getDataAgeSeconds(now)));
+        }
+
+        String name = "refresh_phase_seconds";
+        header(out, name, "histogram", "Time taken by each phase of refreshes.");
+        long[] bounds = LatencyHistogram.getBounds();
+        for (SiteMetrics site : sites) {
+            for (SiteStatistics.Phase phase : SiteStatistics.Phase.values()) {
+                String labels = "phase=\"" + phase.name().toLowerCase(Locale.ENGLISH) + "\"";
+                LatencyHistogram histogram = site.statistics().getPhaseTimes(phase);
+                long[] counts = histogram.getCumulativeCounts();
+                for (int i = 0; i <= bounds.length; i++) {
+                    String le = i < bounds.length ? format(bounds[i] / 1000.0) : "+Inf";
+                    sample(out, name + "_bucket", site.id(), labels + ",le=\"" + le + "\"", String.valueOf(counts[i]));
+                }
+                sample(out, name + "_sum", site.id(), labels, format(histogram.getSumMillis() / 1000.0));
+                sample(out, name + "_count", site.id(), labels, String.valueOf(histogram.getCount()));
+            }
+        }
+        return out.toString();
+    }
+
+    private static void counter(
+            StringBuilder out,
+            List<SiteMetrics> sites,
+            String name,
+            String help,
+            ToLongFunction<SiteStatistics> value) {
+        header(out, name, "counter", help);
+        for (SiteMetrics site : sites) {
+            sample(out, name, site.id(), null, String.valueOf(value.applyAsLong(site.statistics())));
+        }
+    }
+
+    private static void header(StringBuilder out, String name, String type, String help) {
+        out.append("# HELP ").append(PREFIX).append(name).append(' ').append(help).append('\n');
+        out.append("# TYPE ").append(PREFIX).append(name).append(' ').append(type).append('\n');
+    }
+
+    private static void sample(StringBuilder out, String name, String id, String labels, String value) {
+        out.append(PREFIX).append(name).append("{site=\"").append(escape(id)).append('"');
+        if (labels != null) {
+            out.append(',').append(labels);
+        }
+        out.append("} ").append(value).append('\n');
+    }
+
+    private static String escape(String value) {
+        return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+
+    private static String format(double value) {
+        // integral values without the trailing ".0"
+        if (value == Math.rint(value) && Math.abs(value) < 1e15) {
+            return String.valueOf((long) value);
+        }
+        return String.valueOf(value);
+    }
+}
@@ -0,0 +1,196 @@
+package jp.ikedam.jenkins.plugins.updatesitesmanager.internal;
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import edu.umd.cs.findbugs.annotations.NonNull;
+import hudson.XmlFile;
+import java.io.IOException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * State of a managed update site kept between refreshes and restarts.
+ * <p>
+ * Stored next to the downloaded data of the site rather than in the site configuration,
+ * as it changes on every refresh.
+ */
+public class SiteState {
+    private static final Logger LOGGER = Logger.getLogger(SiteState.class.getName());
+
+    /**
+     * URL the validators were issued for.
+     */
+    private String url;
+
+    private String etag;
+
+    private String lastModified;
+
+    /**
+     * Version of the downloaded data in terms of {@link DeltaPatches}.
+     */
+    private String version;
+
+    /**
+     * When the downloaded data was last confirmed to be up to date.
+     */
+    private long validatedTimestamp;
+
+    /**
+     * When to refresh the site next.
+     */
+    private long nextRefresh;
+
+    /**
+     * Number of refreshes failed in a row.
+     */
+    private int consecutiveFailures;
+
+    /**
+     * Returns the URL the validators were issued for.
+     *
+     * @return the URL
+     */
+    @CheckForNull
+    public synchronized String getUrl() {
+        return url;
+    }
+
+    /**
+     * Returns the {@code ETag} of the last downloaded data.
+     *
+     * @return the {@code ETag}, or {@code null} if the server sent none
+     */
+    @CheckForNull
+    public synchronized String getEtag() {
+        return etag;
+    }
+
+    /**
+     * Returns the {@code Last-Modified} of the last downloaded data.
+     *
+     * @return the {@code Last-Modified}, or {@code null} if the server sent none
+     */
+    @CheckForNull
+    public synchronized String getLastModified() {
+        return lastModified;
+    }
+
+    /**
+     * Returns the version of the downloaded data.
+     *
+     * @return the version, or {@code null} if unknown
+     * @see DeltaPatches#versionOf(byte[])
+     */
+    @CheckForNull
+    public synchronized String getVersion() {
+        return version;
+    }
+
+    /**
+     * Returns when the downloaded data was last confirmed to be up to date.
+     *
+     * @return the timestamp in milliseconds, {@code 0} if never
+     */
+    public synchronized long getValidatedTimestamp() {
+        return validatedTimestamp;
+    }
+
+    /**
+     * Returns when to refresh the site next.
+     *
+     * @return the timestamp in milliseconds, {@code 0} if not scheduled yet
+     */
+    public synchronized long getNextRefresh() {
+        return nextRefresh;
+    }
+
+    /**
+     * Returns the number of refreshes failed in a row.
+     *
+     * @return the number of failures since the last successful refresh
+     */
+    public synchronized int getConsecutiveFailures() {
+        return consecutiveFailures;
+    }
+
+    /**
+     * Records when to refresh the site next.
+     *
+     * @param nextRefresh         when to refresh the site next
+     * @param consecutiveFailures number of refreshes failed in a row
+     */
+    public synchronized void scheduled(long nextRefresh, int consecutiveFailures) {
+        this.nextRefresh = nextRefresh;
+        this.consecutiveFailures = consecutiveFailures;
+    }
+
+    /**
+     * Records the validators sent with newly downloaded data.
+     *
+     * @param url          URL the data was downloaded from
+     * @param etag         {@code ETag} of the data
+     * @param lastModified {@code Last-Modified} of the data
+     * @param version      version of the data
+     * @param timestamp    when the data was downloaded
+     */
+    public synchronized void updated(String url, String etag, String lastModified, String version, long timestamp) {
+        this.url = url;
+        this.etag = etag;
+        this.lastModified = lastModified;
+        this.version = version;
+        this.validatedTimestamp = timestamp;
+    }
+
+    /**
+     * Records that the server confirmed the downloaded data is still up to date.
+     *
+     * @param timestamp when the server confirmed that
+     */
+    public synchronized void validated(long timestamp) {
+        this.validatedTimestamp = timestamp;
+    }
+
+    /**
+     * Returns whether the validators can be sent for a request to the URL.
+     *
+     * @param url URL to request
+     * @return {@code true} if validators were issued for the URL
+     */
+    public synchronized boolean hasValidatorsFor(String url) {
+        return url != null && url.equals(this.url) && (etag != null || lastModified != null);
+    }
+
+    /**
+     * Reads the state from the file.
+     *
+     * @param file the file the state is stored in
+     * @return the state read, or an empty state if the file is missing or broken
+     */
+    @NonNull
+    public static SiteState load(@NonNull XmlFile file) {
+        if (file.exists()) {
+            try {
+                Object o = file.read();
+                if (o instanceof SiteState) {
+                    return (SiteState) o;
+                }
+            } catch (IOException e) {
+                LOGGER.log(Level.WARNING, "Failed to read " + file, e);
+            }
+        }
+        return new SiteState();
+    }
+
+    /**
+     * Writes the state to the file.
+     *
+     * @param file the file to store the state
+     */
+    public synchronized void save(@NonNull XmlFile file) {
+        try {
+            file.write(this);
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Failed to write " + file, e);
+        }
+    }
+}
@@ -0,0 +1,341 @@
+package jp.ikedam.jenkins.plugins.updatesitesmanager.internal;
+
+import edu.umd.cs.findbugs.annotations.NonNull;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Statistics of the transfers of an update site.
+ * <p>
+ * Kept by the id of the site so they survive the site being re-instantiated
+ * when the configuration is saved.
+ */
+public class SiteStatistics {
+    private static final Map<String, SiteStatistics> STATISTICS = new ConcurrentHashMap<>();
+
+    private static final int LATENCY_SAMPLES = 128;
+
+    /**
+     * Fewer samples than this tell nothing about the tail.
+     */
+    private static final int MIN_LATENCY_SAMPLES = 16;
+
+    /**
+     * Phases of refreshing the data of a site.
+     */
+    public enum Phase {
+        /**
+         * Sending the request until the response headers arrive.
+         */
+        CONNECT,
+        /**
+         * Receiving and decompressing the response body.
+         */
+        DOWNLOAD,
+        /**
+         * Stripping the JSONP wrapper and decoding the JSON text.
+         */
+        UNWRAP,
+        /**
+         * Parsing and storing the data, excluding {@link #VERIFY}.
+         */
+        PARSE,
+        /**
+         * Verifying the signature.
+         */
+        VERIFY,
+    }
+
+    private final LongAdder compressedBytes = new LongAdder();
+
+    private final LongAdder uncompressedBytes = new LongAdder();
+
+    private final LongAdder signatureCacheHits = new LongAdder();
+
+    private final LongAdder deltaUpdates = new LongAdder();
+
+    private final LongAdder deltaFallbacks = new LongAdder();
+
+    private final LongAdder hedgedRequests = new LongAdder();
+
+    private final LongAdder hedgeWins = new LongAdder();
+
+    private final LongAdder artifactCacheHits = new LongAdder();
+
+    private final LongAdder resumedDownloads = new LongAdder();
+
+    private final LongAdder refreshes = new LongAdder();
+
+    private final LongAdder refreshFailures = new LongAdder();
+
+    private final Map<Phase, LatencyHistogram> histograms = newHistograms();
+
+    /**
+     * Recent response times in milliseconds, as a ring buffer.
+     */
+    private final long[] latencies = new long[LATENCY_SAMPLES];
+
+    private int nextLatency;
+
+    private int latencyCount;
+
+    private static Map<Phase, LatencyHistogram> newHistograms() {
+        Map<Phase, LatencyHistogram> histograms = new EnumMap<>(Phase.class);
+        for (Phase phase : Phase.values()) {
+            histograms.put(phase, new LatencyHistogram());
+        }
+        return histograms;
+    }
+
+    /**
+     * Returns the statistics of the site.
+     *
+     * @param id id of the site
+     * @return the statistics of the site
+     */
+    @NonNull
+    public static SiteStatistics of(@NonNull String id) {
+        return STATISTICS.computeIfAbsent(id, k -> new SiteStatistics());
+    }
+
+    /**
+     * Forgets statistics of sites no longer registered.
+     *
+     * @param ids ids of sites still registered
+     */
+    public static void retain(@NonNull Collection<String> ids) {
+        STATISTICS.keySet().retainAll(ids);
+    }
+
+    /**
+     * Returns the number of bytes received from the network.
+     *
+     * @return the number of bytes received from the network
+     */
+    public long getCompressedBytes() {
+        return compressedBytes.sum();
+    }
+
+    /**
+     * Returns the number of bytes after decompressing the received content.
+     * <p>
+     * Same as {@link #getCompressedBytes()} when the site sends uncompressed content.
+     *
+     * @return the number of bytes after decompression
+     */
+    public long getUncompressedBytes() {
+        return uncompressedBytes.sum();
+    }
+
+    /**
+     * Records bytes received from the network.
+     *
+     * @param bytes the number of bytes
+     */
+    public void addCompressedBytes(long bytes) {
+        compressedBytes.add(bytes);
+    }
+
+    /**
+     * Records bytes after decompression.
+     *
+     * @param bytes the number of bytes
+     */
+    public void addUncompressedBytes(long bytes) {
+        uncompressedBytes.add(bytes);
+    }
+
+    /**
+     * Returns the number of times verifying the signature was skipped as the same data was already verified.
+     *
+     * @return the number of cache hits
+     */
+    public long getSignatureCacheHits() {
+        return signatureCacheHits.sum();
+    }
+
+    /**
+     * Records that verifying the signature was skipped.
+     */
+    public void addSignatureCacheHit() {
+        signatureCacheHits.increment();
+    }
+
+    /**
+     * Returns the number of times the data was updated by applying a patch.
+     *
+     * @return the number of updates with patches
+     */
+    public long getDeltaUpdates() {
+        return deltaUpdates.sum();
+    }
+
+    /**
+     * Records that the data was updated by applying a patch.
+     */
+    public void addDeltaUpdate() {
+        deltaUpdates.increment();
+    }
+
+    /**
+     * Returns the number of times the whole data was downloaded again as a patch could not be applied.
+     *
+     * @return the number of fallbacks
+     */
+    public long getDeltaFallbacks() {
+        return deltaFallbacks.sum();
+    }
+
+    /**
+     * Records that the whole data was downloaded again as a patch could not be applied.
+     */
+    public void addDeltaFallback() {
+        deltaFallbacks.increment();
+    }
+
+    /**
+     * Returns the number of requests sent again as the response was late.
+     *
+     * @return the number of hedged requests
+     */
+    public long getHedgedRequests() {
+        return hedgedRequests.sum();
+    }
+
+    /**
+     * Records that a request was sent again as the response was late.
+     */
+    public void addHedgedRequest() {
+        hedgedRequests.increment();
+    }
+
+    /**
+     * Returns the number of hedged requests answered before the original ones.
+     *
+     * @return the number of hedged requests won
+     */
+    public long getHedgeWins() {
+        return hedgeWins.sum();
+    }
+
+    /**
+     * Records that a hedged request was answered before the original one.
+     */
+    public void addHedgeWin() {
+        hedgeWins.increment();
+    }
+
+    /**
+     * Returns the number of plugins served from the artifact cache instead of being downloaded.
+     *
+     * @return the number of cache hits
+     */
+    public long getArtifactCacheHits() {
+        return artifactCacheHits.sum();
+    }
+
+    /**
+     * Records that a plugin was served from the artifact cache.
+     */
+    public void addArtifactCacheHit() {
+        artifactCacheHits.increment();
+    }
+
+    /**
+     * Returns the number of times a broken download was resumed from the bytes already received.
+     *
+     * @return the number of resumed downloads
+     */
+    public long getResumedDownloads() {
+        return resumedDownloads.sum();
+    }
+
+    /**
+     * Records that a broken download was resumed.
+     */
+    public void addResumedDownload() {
+        resumedDownloads.increment();
+    }
+
+    /**
+     * Returns the number of refreshes of the data, including failed ones.
+     *
+     * @return the number of refreshes
+     */
+    public long getRefreshes() {
+        return refreshes.sum();
+    }
+
+    /**
+     * Returns the number of failed refreshes of the data.
+     *
+     * @return the number of failed refreshes
+     */
+    public long getRefreshFailures() {
+        return refreshFailures.sum();
+    }
+
+    /**
+     * Records a refresh of the data.
+     *
+     * @param succeeded whether the refresh succeeded
+     */
+    public void addRefresh(boolean succeeded) {
+        refreshes.increment();
+        if (!succeeded) {
+            refreshFailures.increment();
+        }
+    }
+
+    /**
+     * Records the time a phase of a refresh took.
+     *
+     * @param phase the phase
+     * @param nanos the time in nanoseconds
+     */
+    public void addPhaseTime(@NonNull Phase phase, long nanos) {
+        histograms.get(phase).record(nanos);
+    }
+
+    /**
+     * Returns the distribution of the times a phase of refreshes took.
+     *
+     * @param phase the phase
+     * @return the distribution
+     */
+    @NonNull
+    public LatencyHistogram getPhaseTimes(@NonNull Phase phase) {
+        return histograms.get(phase);
+    }
+
+    /**
+     * Records the time a request took until the response arrived.
+     *
+     * @param millis the time in milliseconds
+     */
+    public synchronized void addLatency(long millis) {
+        latencies[nextLatency] = millis;
+        nextLatency = (nextLatency + 1) % LATENCY_SAMPLES;
+        latencyCount = Math.min(latencyCount + 1, LATENCY_SAMPLES);
+    }
+
+    /**
+     * Returns the percentile of the recent response times.
+     *
+     * @param percentile the percentile, from 0 to 100
+     * @return the time in milliseconds, {@code -1} if there are too few samples yet
+     */
+    public synchronized long getLatencyPercentile(int percentile) {
+        if (latencyCount < MIN_LATENCY_SAMPLES) {
+            return -1;
+        }
+        long[] sorted = Arrays.copyOf(latencies, latencyCount);
+        Arrays.sort(sorted);
+        int rank = (int) Math.ceil(Math.max(0, Math.min(percentile, 100)) / 100.0 * latencyCount);
+        return sorted[Math.max(rank, 1) - 1];
+    }
+}
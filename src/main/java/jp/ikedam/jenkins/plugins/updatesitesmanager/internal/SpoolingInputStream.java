@@ -0,0 +1,62 @@
+package jp.ikedam.jenkins.plugins.updatesitesmanager.internal;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+
+/**
+ * Writes the bytes read from the stream to another stream and to a digest as they pass,
+ * so the content is stored and hashed while it is parsed.
+ */
+public class SpoolingInputStream extends FilterInputStream {
+    private final OutputStream out;
+
+    private final MessageDigest digest;
+
+    /**
+     * Reused by {@link #read()}.
+     */
+    private final byte[] single = new byte[1];
+
+    /**
+     * @param in     the stream to read
+     * @param out    receives the bytes read
+     * @param digest updated with the bytes read
+     */
+    public SpoolingInputStream(InputStream in, OutputStream out, MessageDigest digest) {
+        super(in);
+        this.out = out;
+        this.digest = digest;
+    }
+
+    @Override
+    public int read() throws IOException {
+        int n = read(single, 0, 1);
+        return n < 0 ? -1 : single[0] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        int n = super.read(b, off, len);
+        if (n > 0) {
+            out.write(b, off, n);
+            digest.update(b, off, n);
+        }
+        return n;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        // pass through read, so skipped bytes are stored as well
+        byte[] b = new byte[(int) Math.min(Math.max(n, 0), 8192)];
+        int read = b.length > 0 ? read(b, 0, b.length) : 0;
+        return Math.max(read, 0);
+    }
+
+    @Override
+    public boolean markSupported() {
+        return false;
+    }
+}
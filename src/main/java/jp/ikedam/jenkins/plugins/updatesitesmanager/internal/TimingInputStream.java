@@ -0,0 +1,52 @@
+package jp.ikedam.jenkins.plugins.updatesitesmanager.internal;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.function.LongConsumer;
+
+/**
+ * Reports the time spent reading the stream.
+ */
+public class TimingInputStream extends FilterInputStream {
+    private final LongConsumer timer;
+
+    /**
+     * @param in    the stream to read
+     * @param timer receives the time in nanoseconds each read took
+     */
+    public TimingInputStream(InputStream in, LongConsumer timer) {
+        super(in);
+        this.timer = timer;
+    }
+
+    @Override
+    public int read() throws IOException {
+        long start = System.nanoTime();
+        try {
+            return super.read();
+        } finally {
+            timer.accept(System.nanoTime() - start);
+        }
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        long start = System.nanoTime();
+        try {
+            return super.read(b, off, len);
+        } finally {
+            timer.accept(System.nanoTime() - start);
+        }
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        long start = System.nanoTime();
+        try {
+            return super.skip(n);
+        } finally {
+            timer.accept(System.nanoTime() - start);
+        }
+    }
+}
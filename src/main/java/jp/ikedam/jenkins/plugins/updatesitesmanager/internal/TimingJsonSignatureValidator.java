@@ -0,0 +1,68 @@
+package jp.ikedam.jenkins.plugins.updatesitesmanager.internal;
+
+import edu.umd.cs.findbugs.annotations.NonNull;
+import hudson.util.FormValidation;
+import java.io.IOException;
+import java.util.function.LongConsumer;
+import jenkins.util.JSONSignatureValidator;
+import net.sf.json.JSONObject;
+
+/**
+ * Reports the time spent verifying the signature.
+ * <p>
+ * Each verification is also recorded as a {@link SiteEvents.SignatureVerification} event.
+ */
+public class TimingJsonSignatureValidator extends JSONSignatureValidator {
+    private final String siteId;
+
+    private final String url;
+
+    private final JSONSignatureValidator delegate;
+
+    private final LongConsumer timer;
+
+    /**
+     * @param name     name of the validator
+     * @param siteId   id of the site the data comes from
+     * @param url      URL of the site
+     * @param delegate the validator actually verifying the signature
+     * @param timer    receives the time in nanoseconds the verification took
+     */
+    public TimingJsonSignatureValidator(
+            String name,
+            String siteId,
+            String url,
+            @NonNull JSONSignatureValidator delegate,
+            @NonNull LongConsumer timer) {
+        super(name);
+        this.siteId = siteId;
+        this.url = url;
+        this.delegate = delegate;
+        this.timer = timer;
+    }
+
+    @Override
+    public FormValidation verifySignature(JSONObject o) throws IOException {
+        SiteEvents.SignatureVerification event = new SiteEvents.SignatureVerification();
+        event.begin();
+        long start = System.nanoTime();
+        String outcome = "failed";
+        try {
+            FormValidation result = delegate.verifySignature(o);
+            outcome = result.kind.name();
+            return result;
+        } catch (IOException | RuntimeException e) {
+            outcome = SiteEvents.failed(e);
+            throw e;
+        } finally {
+            timer.accept(System.nanoTime() - start);
+            event.end();
+            if (event.shouldCommit()) {
+                event.siteId = siteId;
+                event.url = url;
+                event.outcome = outcome;
+                event.commit();
+            }
+        }
+    }
+}
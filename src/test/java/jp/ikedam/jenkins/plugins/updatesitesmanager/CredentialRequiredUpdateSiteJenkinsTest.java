@@ -0,0 +1,95 @@
+package jp.ikedam.jenkins.plugins.updatesitesmanager;
+
+import static hudson.util.FormValidation.Kind.ERROR;
+import static hudson.util.FormValidation.Kind.OK;
+import static jp.ikedam.jenkins.plugins.updatesitesmanager.testext.UpdateCenterWebServerExtension.getResource;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.core.Is.is;
+
+import com.cloudbees.plugins.credentials.CredentialsScope;
+import com.cloudbees.plugins.credentials.SystemCredentialsProvider;
+import com.cloudbees.plugins.credentials.impl.UsernamePasswordCredentialsImpl;
+import com.sun.net.httpserver.HttpServer;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import org.apache.commons.io.FileUtils;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.jvnet.hudson.test.JenkinsRule;
+import org.jvnet.hudson.test.junit.jupiter.WithJenkins;
+
+/**
+ * Tests for CredentialRequiredUpdateSite, concerned with Jenkins.
+ */
+@WithJenkins
+class CredentialRequiredUpdateSiteJenkinsTest {
+    private HttpServer server;
+
+    @BeforeEach
+    void startServer() throws Exception {
+        byte[] body =
+                FileUtils.readFileToByteArray(getResource("update-center.json", ManagedUpdateSiteJenkinsTest.class));
+        String expected =
+                "Basic " + Base64.getEncoder().encodeToString("user:password".getBytes(StandardCharsets.UTF_8));
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/", exchange -> {
+            if (expected.equals(exchange.getRequestHeaders().getFirst("Authorization"))) {
+                exchange.sendResponseHeaders(200, body.length);
+                exchange.getResponseBody().write(body);
+            } else {
+                exchange.sendResponseHeaders(401, -1);
+            }
+            exchange.close();
+        });
+        server.start();
+    }
+
+    @AfterEach
+    void stopServer() {
+        server.stop(0);
+    }
+
+    @Test
+    void shouldPickUpChangedCredentials(JenkinsRule j) throws Exception {
+        SystemCredentialsProvider provider = SystemCredentialsProvider.getInstance();
+        provider.getCredentials().add(credentials("wrong"));
+        provider.save();
+
+        CredentialRequiredUpdateSite site = new CredentialRequiredUpdateSite(
+                "test",
+                "http://localhost:%d/update-center.json".formatted(server.getAddress().getPort()),
+                false,
+                null,
+                "test",
+                false);
+        site.setCredentialsId("test-credentials");
+
+        assertThat("Wrong password", site.updateDirectlyNow(false).kind, is(ERROR));
+
+        provider.getCredentials().clear();
+        provider.getCredentials().add(credentials("password"));
+        provider.save();
+
+        assertThat("Changed password", site.updateDirectlyNow(false).kind, is(OK));
+    }
+
+    @Test
+    void shouldFailWithoutCredentials(JenkinsRule j) throws Exception {
+        CredentialRequiredUpdateSite site = new CredentialRequiredUpdateSite(
+                "test",
+                "http://localhost:%d/update-center.json".formatted(server.getAddress().getPort()),
+                false,
+                null,
+                "test",
+                false);
+        site.setCredentialsId("missing");
+
+        assertThat("Missing credentials", site.updateDirectlyNow(false).kind, is(ERROR));
+    }
+
+    private static UsernamePasswordCredentialsImpl credentials(String password) throws Exception {
+        return new UsernamePasswordCredentialsImpl(CredentialsScope.GLOBAL, "test-credentials", null, "user", password);
+    }
+}
@@ -26,9 +26,18 @@ package jp.ikedam.jenkins.plugins.updatesitesmanager;
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.containsString;
 import static org.hamcrest.Matchers.hasSize;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.sameInstance;
 
 import hudson.model.UpdateSite;
+import hudson.util.FormValidation;
 import jakarta.annotation.Nonnull;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import net.sf.json.JSONArray;
+import net.sf.json.JSONObject;
 import org.htmlunit.FailingHttpStatusCodeException;
 import org.htmlunit.html.HtmlForm;
 import org.junit.jupiter.api.Assertions;
@@ -57,6 +66,23 @@ class DescribedUpdateSiteJenkinsTest {
             this.testValue = testValue;
         }
 
+        private final AtomicInteger dataReads = new AtomicInteger();
+
+        @Override
+        public Data getData() {
+            dataReads.incrementAndGet();
+            return super.getData();
+        }
+
+        void update(String json) throws IOException {
+            // memoized lists follow the time the data was updated
+            long previous = getDataTimestamp();
+            while (System.currentTimeMillis() == previous) {
+                Thread.onSpinWait();
+            }
+            assertThat("Should update", updateData(json, false).kind, is(FormValidation.Kind.OK));
+        }
+
         @TestExtension("shouldShowAllDescribedSitesAsManaged")
         public static class DescriptorImpl extends DescribedUpdateSiteDescriptor {
             @Nonnull
@@ -122,4 +148,53 @@ class DescribedUpdateSiteJenkinsTest {
         Assertions.assertNotNull(ex);
         assertThat(ex.getMessage(), containsString("405"));
     }
+
+    @Test
+    void shouldMemoizeAvailablesUntilDataChanges(JenkinsRule j) throws Exception {
+        DescribedUpdateSiteForConfigureTest site =
+                new DescribedUpdateSiteForConfigureTest("memo", "http://localhost/update-center.json", "");
+        j.getInstance().getUpdateCenter().getSites().clear();
+        j.getInstance().getUpdateCenter().getSites().add(site);
+        site.update(catalog("plugin-a"));
+
+        List<UpdateSite.Plugin> availables = site.getAvailables();
+        assertThat(availables, hasSize(1));
+        site.getUpdates();
+        int reads = site.dataReads.get();
+        assertThat("Should be memoized", site.getAvailables(), sameInstance(availables));
+        site.getUpdates();
+        assertThat("Should be memoized", site.dataReads.get(), is(reads));
+        Assertions.assertThrows(
+                UnsupportedOperationException.class, availables::clear, "Should not allow to modify the shared list");
+
+        site.update(catalog("plugin-a", "plugin-b"));
+        assertThat("Should follow the new data", site.getAvailables(), hasSize(2));
+    }
+
+    @Test
+    void shouldNotAllocateForDisabledSite(JenkinsRule j) {
+        ManagedUpdateSite site =
+                new ManagedUpdateSite("disabled", "http://localhost/update-center.json", false, null, "", true);
+        assertThat(site.getAvailables(), sameInstance(Collections.emptyList()));
+        assertThat(site.getUpdates(), sameInstance(Collections.emptyList()));
+    }
+
+    private static String catalog(String... names) {
+        JSONObject plugins = new JSONObject();
+        for (String name : names) {
+            plugins.element(
+                    name,
+                    new JSONObject()
+                            .element("name", name)
+                            .element("version", "1.0")
+                            .element("title", name)
+                            .element("url", "http://localhost/%s.hpi".formatted(name))
+                            .element("dependencies", new JSONArray()));
+        }
+        return new JSONObject()
+                .element("id", "memo")
+                .element("updateCenterVersion", 1)
+                .element("plugins", plugins)
+                .toString();
+    }
 }
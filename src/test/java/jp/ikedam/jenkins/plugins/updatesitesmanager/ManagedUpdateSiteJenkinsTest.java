@@ -26,18 +26,42 @@ package jp.ikedam.jenkins.plugins.updatesitesmanager;
 import static hudson.util.FormValidation.Kind.ERROR;
 import static hudson.util.FormValidation.Kind.OK;
 import static jp.ikedam.jenkins.plugins.updatesitesmanager.testext.UpdateCenterWebServerExtension.getResource;
+import static jp.ikedam.jenkins.plugins.updatesitesmanager.testext.UpdateCenterWebServerExtension.stubFor;
 import static jp.ikedam.jenkins.plugins.updatesitesmanager.testext.UpdateCenterWebServerExtension.urlFor;
 import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.greaterThanOrEqualTo;
 import static org.hamcrest.Matchers.instanceOf;
+import static org.hamcrest.Matchers.lessThan;
+import static org.hamcrest.Matchers.notNullValue;
+import static org.hamcrest.Matchers.nullValue;
 import static org.hamcrest.core.Is.is;
 
+import hudson.model.UpdateCenter;
+import hudson.model.UpdateSite;
 import java.io.IOException;
 import java.net.MalformedURLException;
 import java.net.URISyntaxException;
 import java.net.URL;
+import java.net.URLConnection;
 import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import jp.ikedam.jenkins.plugins.updatesitesmanager.internal.CachingJsonSignatureValidator;
+import jp.ikedam.jenkins.plugins.updatesitesmanager.internal.CircuitBreaker;
+import jp.ikedam.jenkins.plugins.updatesitesmanager.testext.DeltaUpdateCenterServer;
+import jp.ikedam.jenkins.plugins.updatesitesmanager.testext.StubUpdateCenter;
 import jp.ikedam.jenkins.plugins.updatesitesmanager.testext.WithUpdateCenterWebServer;
+import net.sf.json.JSONArray;
+import net.sf.json.JSONObject;
 import org.apache.commons.io.FileUtils;
+import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.params.ParameterizedTest;
 import org.junit.jupiter.params.provider.ValueSource;
@@ -51,6 +75,15 @@ import org.kohsuke.stapler.HttpResponses;
  */
 @WithJenkins
 class ManagedUpdateSiteJenkinsTest {
+    private final boolean archiveDisabledData = ManagedUpdateSite.ARCHIVE_DISABLED_DATA;
+
+    /**
+     * Restores the settings tests change.
+     */
+    @AfterEach
+    void restoreSettings() {
+        ManagedUpdateSite.ARCHIVE_DISABLED_DATA = archiveDisabledData;
+    }
 
     @Test
     void testDescriptorDoCheckCaCertificate(JenkinsRule j) throws IOException, URISyntaxException {
@@ -118,11 +151,366 @@ class ManagedUpdateSiteJenkinsTest {
                 instanceOf(HttpResponses.forwardToPreviousPage().getClass()));
     }
 
+    @Test
+    @WithUpdateCenterWebServer
+    void shouldNotDownloadAgainWhenNotModified(JenkinsRule j) throws Exception {
+        StubUpdateCenter server = stubFor(j.getTestDescription().getMethodName());
+        TestManagedUpdateSite site = siteFor(j, "not-modified");
+
+        assertThat("First download", site.updateDirectlyNow(false).kind, is(OK));
+        long downloaded = site.getDataTimestamp();
+        Thread.sleep(10);
+        assertThat("Second download", site.updateDirectlyNow(false).kind, is(OK));
+        assertThat("Should download only once", server.getRequests() - server.getNotModified(), is(1));
+        assertThat("Data should be kept", site.getData().plugins.containsKey("disable-popup"), is(true));
+        assertThat("Data should count as fresh", site.getDataTimestamp(), greaterThan(downloaded));
+        assertThat("Should not be due", site.isDue(), is(false));
+    }
+
+    @Test
+    @WithUpdateCenterWebServer
+    void shouldReceiveCompressedData(JenkinsRule j) throws Exception {
+        byte[] body = FileUtils.readFileToByteArray(getResource("update-center.json", getClass()));
+        stubFor(j.getTestDescription().getMethodName()).setCompression(true);
+        TestManagedUpdateSite site = siteFor(j, "compressed");
+
+        assertThat("Download", site.updateDirectlyNow(false).kind, is(OK));
+        assertThat("Data should be loaded", site.getData().plugins.containsKey("disable-popup"), is(true));
+        assertThat("Compressed bytes", site.getStatistics().getCompressedBytes(), lessThan((long) body.length));
+        assertThat("Uncompressed bytes", site.getStatistics().getUncompressedBytes(), is((long) body.length));
+    }
+
+    @Test
+    @WithUpdateCenterWebServer
+    void shouldReuseVerifiedSignatureOfSameData(JenkinsRule j) throws Exception {
+        CachingJsonSignatureValidator.clearCache();
+        String caCertificate =
+                FileUtils.readFileToString(getResource("caCertificate.crt", getClass()), Charset.defaultCharset());
+        String caCertificateBundle = FileUtils.readFileToString(
+                getResource("caCertificateBundle.crt", getClass()), Charset.defaultCharset());
+        // download the whole data every time
+        stubFor(j.getTestDescription().getMethodName()).setValidators(false);
+        TestManagedUpdateSite site = siteFor(j, "signature");
+        site.setCaCertificate(caCertificate);
+
+        assertThat("First download", site.updateDirectlyNow(true).kind, is(OK));
+        assertThat("Not cached yet", site.getStatistics().getSignatureCacheHits(), is(0L));
+        assertThat("Second download", site.updateDirectlyNow(true).kind, is(OK));
+        assertThat("Should reuse the result", site.getStatistics().getSignatureCacheHits(), is(1L));
+
+        site.setCaCertificate(caCertificateBundle);
+        assertThat("Download with new certificate", site.updateDirectlyNow(true).kind, is(OK));
+        assertThat("Should verify again with new certificate", site.getStatistics().getSignatureCacheHits(), is(1L));
+    }
+
+    @Test
+    void shouldApplyChangesSinceLastDownload(JenkinsRule j) throws Exception {
+        try (DeltaUpdateCenterServer server = new DeltaUpdateCenterServer()) {
+            server.publish(catalog("plugin-a", "1.0", "plugin-b", "1.0"));
+            TestManagedUpdateSite site =
+                    new TestManagedUpdateSite("delta", server.getUrl(), false, null, "test", false);
+            site.setDeltaUpdates(true);
+
+            assertThat("First download", site.updateDirectlyNow(false).kind, is(OK));
+            assertThat("Should download all first", server.getFullResponses(), is(1));
+
+            server.publish(catalog("plugin-a", "2.0", "plugin-c", "1.0"));
+            assertThat("Second download", site.updateDirectlyNow(false).kind, is(OK));
+            assertThat("Should download only changes", server.getDeltaResponses(), is(1));
+            assertThat("Changes should be applied", site.getStatistics().getDeltaUpdates(), is(1L));
+            assertThat("Updated", site.getData().plugins.get("plugin-a").version, is("2.0"));
+            assertThat("Added", site.getData().plugins.containsKey("plugin-c"), is(true));
+            assertThat("Removed", site.getData().plugins.containsKey("plugin-b"), is(false));
+
+            server.publish(catalog("plugin-a", "3.0"));
+            assertThat("Third download", site.updateDirectlyNow(false).kind, is(OK));
+            assertThat("Should continue from patched data", server.getDeltaResponses(), is(2));
+            assertThat("Updated again", site.getData().plugins.keySet(), is(Set.of("plugin-a")));
+        }
+    }
+
+    @Test
+    void shouldDownloadAllWhenChangesDoNotApply(JenkinsRule j) throws Exception {
+        try (DeltaUpdateCenterServer server = new DeltaUpdateCenterServer()) {
+            server.publish(catalog("plugin-a", "1.0"));
+            TestManagedUpdateSite site =
+                    new TestManagedUpdateSite("broken-delta", server.getUrl(), false, null, "test", false);
+            site.setDeltaUpdates(true);
+            assertThat("First download", site.updateDirectlyNow(false).kind, is(OK));
+
+            server.setBrokenPatches(true);
+            server.publish(catalog("plugin-a", "2.0"));
+            assertThat("Second download", site.updateDirectlyNow(false).kind, is(OK));
+            assertThat("Should fall back", site.getStatistics().getDeltaFallbacks(), is(1L));
+            assertThat("Should download all again", server.getFullResponses(), is(2));
+            assertThat("Updated", site.getData().plugins.get("plugin-a").version, is("2.0"));
+        }
+    }
+
+    @Test
+    void shouldReplaceDataHeldByCoreWithDownloadedData(JenkinsRule j) throws Exception {
+        try (DeltaUpdateCenterServer server = new DeltaUpdateCenterServer()) {
+            server.publish(catalog("plugin-a", "1.0"));
+            TestManagedUpdateSite site =
+                    new TestManagedUpdateSite("streamed", server.getUrl(), false, null, "test", false);
+            assertThat("First download", site.updateDirectlyNow(false).kind, is(OK));
+            assertThat("Loaded", site.getData().plugins.get("plugin-a").version, is("1.0"));
+
+            server.publish(catalog("plugin-a", "2.0"));
+            assertThat("Second download", site.updateDirectlyNow(false).kind, is(OK));
+            assertThat("Replaced", site.getData().plugins.get("plugin-a").version, is("2.0"));
+            assertThat("Data file should be written", site.getDataFile().read(), containsString("2.0"));
+            assertThat("Should count as downloaded", site.getDataTimestamp(), greaterThan(0L));
+        }
+    }
+
+    @Test
+    void shouldShareStringsBetweenSitesWithSameCatalog(JenkinsRule j) throws Exception {
+        TestManagedUpdateSite site1 =
+                new TestManagedUpdateSite("mirror1", "http://localhost/1/", false, null, "", false);
+        TestManagedUpdateSite site2 =
+                new TestManagedUpdateSite("mirror2", "http://localhost/2/", false, null, "", false);
+        // written separately, so that parsing them creates distinct strings
+        site1.getDataFile().write(syntheticCatalog(500).toString());
+        site2.getDataFile().write(syntheticCatalog(500).toString());
+
+        Set<String> strings1 = stringsOf(site1.getData());
+        Set<String> strings2 = stringsOf(site2.getData());
+        assertThat("Should hold plugin metadata", strings1.size(), greaterThan(500));
+        Set<String> all = Collections.newSetFromMap(new IdentityHashMap<>());
+        all.addAll(strings1);
+        all.addAll(strings2);
+        assertThat("Second site should hold no strings of its own", all.size(), is(strings1.size()));
+    }
+
+    @Test
+    void shouldHoldNoDataWhileDisabled(JenkinsRule j) throws Exception {
+        String url = "http://localhost/update-center.json";
+        TestManagedUpdateSite enabled = new TestManagedUpdateSite("standby", url, false, null, "", false);
+        enabled.getDataFile().write(catalog("plugin-a", "1.0").toString());
+        assertThat("Enabled site should load data", enabled.getData(), notNullValue());
+
+        ManagedUpdateSite.ARCHIVE_DISABLED_DATA = true;
+        TestManagedUpdateSite disabled = new TestManagedUpdateSite("standby", url, false, null, "", true);
+        assertThat("Disabled site should not load data", disabled.getData(), nullValue());
+        assertThat("Looking up data should not archive it", disabled.getDataFile().exists(), is(true));
+        disabled.archiveData();
+        assertThat("Data should be archived", disabled.getDataFile().exists(), is(false));
+        assertThat("Data should be archived", disabled.getArchiveFile().exists(), is(true));
+        ManagedUpdateSite.ARCHIVE_DISABLED_DATA = false;
+
+        TestManagedUpdateSite reenabled = new TestManagedUpdateSite("standby", url, false, null, "", false);
+        assertThat("Data should be restored", reenabled.getData().plugins.containsKey("plugin-a"), is(true));
+        assertThat("Archive should be removed", reenabled.getArchiveFile().exists(), is(false));
+    }
+
+    @Test
+    void shouldDeleteFilesOfRemovedSite(JenkinsRule j) throws Exception {
+        TestManagedUpdateSite site =
+                new TestManagedUpdateSite("removed", "http://localhost/update-center.json", false, null, "", false);
+        site.getState().save(site.getStateFile());
+        Files.writeString(site.getSnapshotFile().toPath(), "snapshot");
+        assertThat(site.getStateFile().exists(), is(true));
+
+        site.deleteFiles();
+        assertThat("State should be deleted", site.getStateFile().exists(), is(false));
+        assertThat("Snapshot should be deleted", site.getSnapshotFile().exists(), is(false));
+    }
+
+    @Test
+    @WithUpdateCenterWebServer
+    void shouldBackOffWhileRefreshFails(JenkinsRule j) throws Exception {
+        TestManagedUpdateSite site =
+                new TestManagedUpdateSite("failing", "http://localhost:1/update-center.json", false, null, "", false);
+        site.setRefreshInterval(60);
+        assertThat("Never downloaded site should be due", site.isDue(), is(true));
+        assertThat("Checking should not change the schedule", site.isDue(), is(true));
+        UpdateCenter.neverUpdate = true;
+        try {
+            assertThat("Should not be due while updates are turned off", site.isDue(), is(false));
+        } finally {
+            UpdateCenter.neverUpdate = false;
+        }
+
+        long start = System.currentTimeMillis();
+        assertThat(site.updateDirectlyNow(false).kind, is(ERROR));
+        assertThat(site.getState().getConsecutiveFailures(), is(1));
+        long firstDelay = site.getState().getNextRefresh() - start;
+
+        assertThat(site.updateDirectlyNow(false).kind, is(ERROR));
+        assertThat(site.getState().getConsecutiveFailures(), is(2));
+        assertThat("Should wait longer", site.getState().getNextRefresh() - start, greaterThan(firstDelay));
+        assertThat(site.isDue(), is(false));
+
+        TestManagedUpdateSite recovered = siteFor(j, "failing");
+        recovered.setRefreshInterval(60);
+        assertThat("Failures should persist", recovered.getState().getConsecutiveFailures(), is(2));
+        assertThat(recovered.updateDirectlyNow(false).kind, is(OK));
+        assertThat("Success should reset failures", recovered.getState().getConsecutiveFailures(), is(0));
+        assertThat(
+                "Should refresh after about an hour",
+                recovered.getState().getNextRefresh() - start,
+                greaterThan(TimeUnit.MINUTES.toMillis(50)));
+    }
+
+    @Test
+    @WithUpdateCenterWebServer
+    void shouldStopAccessingSiteAskingToRetryLater(JenkinsRule j) throws Exception {
+        StubUpdateCenter server =
+                stubFor(j.getTestDescription().getMethodName()).setThrottleRate(1).setRetryAfter(600);
+        TestManagedUpdateSite site = siteFor(j, "unavailable");
+
+        long start = System.currentTimeMillis();
+        assertThat(site.updateDirectlyNow(false).kind, is(ERROR));
+        assertThat(site.getCircuitBreaker().getState(), is(CircuitBreaker.State.OPEN));
+        assertThat(
+                "Should honor Retry-After",
+                site.getCircuitBreaker().getOpenUntil() - start,
+                greaterThan(TimeUnit.MINUTES.toMillis(9)));
+        assertThat(
+                "Schedule should wait for the circuit",
+                site.getState().getNextRefresh(),
+                greaterThanOrEqualTo(site.getCircuitBreaker().getOpenUntil()));
+
+        assertThat(site.updateDirectlyNow(false).kind, is(ERROR));
+        assertThat("Should not access the site while open", server.getRequests(), is(1));
+        assertThat(site.isDue(), is(false));
+    }
+
+    @Test
+    @WithUpdateCenterWebServer
+    void shouldFailOverToMirror(JenkinsRule j) throws Exception {
+        String mirror = dataUrlFor(j);
+        TestManagedUpdateSite site =
+                new TestManagedUpdateSite("mirrored", "http://localhost:1/update-center.json", false, null, "", false);
+        site.setMirrorUrls(mirror);
+        assertThat(site.getMirrorUrlList().size(), is(2));
+
+        assertThat(site.updateDirectlyNow(false).kind, is(OK));
+        assertThat(site.getData().plugins.containsKey("disable-popup"), is(true));
+        assertThat(site.getMirrorSelector().rank(site.getMirrorUrlList()).get(0), is(mirror));
+
+        URLConnection connection = site.connect(new URL("http://localhost:1/download/plugins/test.hpi"));
+        assertThat("Should download from the mirror", connection.getURL().getPort(), is(new URL(mirror).getPort()));
+        assertThat(connection.getURL().getPath(), is("/download/plugins/test.hpi"));
+    }
+
+    @Test
+    @WithUpdateCenterWebServer
+    void shouldHedgeLateRequest(JenkinsRule j) throws Exception {
+        CountDownLatch released = new CountDownLatch(1);
+        StubUpdateCenter server = stubFor(j.getTestDescription().getMethodName()).stallNextRequest(released);
+        TestManagedUpdateSite site = siteFor(j, "hedged");
+        site.setHedgedRequests(true);
+        for (int i = 0; i < 20; i++) {
+            site.getStatistics().addLatency(100);
+        }
+
+        try {
+            long start = System.nanoTime();
+            assertThat(site.updateDirectlyNow(false).kind, is(OK));
+            assertThat(
+                    "Should not wait for the stalled request",
+                    TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - start),
+                    lessThan(10L));
+            assertThat(server.getRequests(), is(2));
+            assertThat(site.getStatistics().getHedgedRequests(), is(1L));
+            assertThat(site.getStatistics().getHedgeWins(), is(1L));
+        } finally {
+            released.countDown();
+        }
+    }
+
+    /**
+     * Collects instances of strings held by the data.
+     */
+    private static Set<String> stringsOf(UpdateSite.Data data) {
+        Set<String> strings = Collections.newSetFromMap(new IdentityHashMap<>());
+        for (UpdateSite.Plugin plugin : data.plugins.values()) {
+            strings.add(plugin.version);
+            strings.add(plugin.url);
+            strings.addAll(Arrays.asList(plugin.categories));
+            strings.addAll(plugin.dependencies.keySet());
+            strings.addAll(plugin.dependencies.values());
+        }
+        return strings;
+    }
+
+    /**
+     * Generates unsigned update center data with many plugins depending on each other.
+     */
+    private static JSONObject syntheticCatalog(int size) {
+        JSONObject plugins = new JSONObject();
+        for (int i = 0; i < size; i++) {
+            String name = "plugin-" + i;
+            JSONArray dependencies = new JSONArray();
+            for (int d = 1; d <= 3 && i - d >= 0; d++) {
+                dependencies.add(new JSONObject()
+                        .element("name", "plugin-" + (i - d))
+                        .element("version", "1." + (i - d))
+                        .element("optional", false));
+            }
+            plugins.element(
+                    name,
+                    new JSONObject()
+                            .element("name", name)
+                            .element("version", "1." + i)
+                            .element("title", name)
+                            .element("url", "http://localhost/download/%s/1.%d/%s.hpi".formatted(name, i, name))
+                            .element("labels", JSONArray.fromObject(new String[] {"misc", "label-" + i % 10}))
+                            .element("dependencies", dependencies));
+        }
+        return new JSONObject()
+                .element("id", "test")
+                .element("updateCenterVersion", "1")
+                .element("plugins", plugins);
+    }
+
+    /**
+     * Generates unsigned update center data.
+     *
+     * @param namesAndVersions names and versions of plugins alternately
+     */
+    private static JSONObject catalog(String... namesAndVersions) {
+        JSONObject plugins = new JSONObject();
+        for (int i = 0; i < namesAndVersions.length; i += 2) {
+            String name = namesAndVersions[i];
+            String version = namesAndVersions[i + 1];
+            plugins.element(
+                    name,
+                    new JSONObject()
+                            .element("name", name)
+                            .element("version", version)
+                            .element("title", name)
+                            .element("url", "http://localhost/%s/%s.hpi".formatted(version, name))
+                            .element("dependencies", new JSONArray()));
+        }
+        return new JSONObject()
+                .element("id", "test")
+                .element("updateCenterVersion", "1")
+                .element("plugins", plugins);
+    }
+
     private ManagedUpdateSite.DescriptorImpl getDescriptor() {
         return (ManagedUpdateSite.DescriptorImpl)
                 new ManagedUpdateSite(null, null, false, null, null, false).getDescriptor();
     }
 
+    /**
+     * @return URL of update-center.json served for the test
+     */
+    private static String dataUrlFor(JenkinsRule j) throws MalformedURLException {
+        return new URL(new URL(urlFor(j.getTestDescription().getMethodName())), "update-center.json").toExternalForm();
+    }
+
+    /**
+     * @param id distinct for each test, as statistics and circuit breakers are kept by ids
+     * @return a site downloading from the server for the test
+     */
+    private static TestManagedUpdateSite siteFor(JenkinsRule j, String id) throws MalformedURLException {
+        return new TestManagedUpdateSite(id, dataUrlFor(j), false, null, "", false);
+    }
+
     public static TestManagedUpdateSite forMethod(String method) throws MalformedURLException {
         return new TestManagedUpdateSite(
                 "test",
@@ -0,0 +1,143 @@
+package jp.ikedam.jenkins.plugins.updatesitesmanager;
+
+import static hudson.util.FormValidation.Kind.OK;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.lessThan;
+import static org.hamcrest.core.Is.is;
+
+import hudson.util.FormValidation;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import jp.ikedam.jenkins.plugins.updatesitesmanager.ManagedUpdateSiteJenkinsTest.TestManagedUpdateSite;
+import jp.ikedam.jenkins.plugins.updatesitesmanager.testext.StubUpdateCenter;
+import org.junit.jupiter.api.Test;
+import org.jvnet.hudson.test.JenkinsRule;
+import org.jvnet.hudson.test.junit.jupiter.WithJenkins;
+
+/**
+ * Refreshes many managed sites at the same time against a slow and unreliable update center.
+ */
+@WithJenkins
+class UpdateSitesLoadJenkinsTest {
+    private static final int SITES = 20;
+
+    private static final int PLUGINS = 2000;
+
+    private static List<TestManagedUpdateSite> sites(String prefix, String url) {
+        List<TestManagedUpdateSite> sites = new ArrayList<>();
+        for (int i = 0; i < SITES; i++) {
+            sites.add(new TestManagedUpdateSite(prefix + i, url, false, null, "", false));
+        }
+        return sites;
+    }
+
+    /**
+     * Refreshes all the sites in parallel.
+     *
+     * @return the result and the time taken in milliseconds of each refresh, in the order of sites
+     */
+    private static List<Refresh> refreshAll(List<TestManagedUpdateSite> sites) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(sites.size());
+        try {
+            List<Future<Refresh>> futures = new ArrayList<>();
+            for (TestManagedUpdateSite site : sites) {
+                futures.add(executor.submit(() -> {
+                    long start = System.nanoTime();
+                    FormValidation result = site.updateDirectlyNow(false);
+                    return new Refresh(result, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+                }));
+            }
+            List<Refresh> refreshes = new ArrayList<>();
+            for (Future<Refresh> future : futures) {
+                refreshes.add(future.get(2, TimeUnit.MINUTES));
+            }
+            return refreshes;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static long percentile(List<Refresh> refreshes, int percentile) {
+        List<Long> millis = new ArrayList<>();
+        for (Refresh refresh : refreshes) {
+            millis.add(refresh.millis());
+        }
+        Collections.sort(millis);
+        return millis.get(Math.min(millis.size() - 1, millis.size() * percentile / 100));
+    }
+
+    @Test
+    void shouldRefreshManySitesInParallel(JenkinsRule j) throws Exception {
+        try (StubUpdateCenter server = new StubUpdateCenter()
+                .serveCatalog("load", PLUGINS)
+                .setLatency(200)
+                .setBandwidth(4 * 1024 * 1024)) {
+            List<TestManagedUpdateSite> sites = sites("load-", server.getUrl("update-center.json"));
+
+            long start = System.nanoTime();
+            List<Refresh> refreshes = refreshAll(sites);
+            long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+            for (Refresh refresh : refreshes) {
+                assertThat(refresh.result().getMessage(), refresh.result().kind, is(OK));
+            }
+            long total = 0;
+            for (Refresh refresh : refreshes) {
+                total += refresh.millis();
+            }
+            assertThat("Refreshes should not wait for each other", elapsed, lessThan(total / 2));
+            assertThat("Tail latency", percentile(refreshes, 99), lessThan(TimeUnit.SECONDS.toMillis(30)));
+            for (TestManagedUpdateSite site : sites) {
+                assertThat(site.getData().plugins.size(), is(PLUGINS));
+                assertThat(site.getStatistics().getRefreshes(), is(1L));
+            }
+
+            List<Refresh> again = refreshAll(sites);
+            for (Refresh refresh : again) {
+                assertThat(refresh.result().kind, is(OK));
+            }
+            assertThat("Unchanged data should not be downloaded again", server.getNotModified(), is(SITES));
+        }
+    }
+
+    @Test
+    void shouldReportFaultsWithoutHanging(JenkinsRule j) throws Exception {
+        try (StubUpdateCenter server = new StubUpdateCenter()
+                .serveCatalog("faulty", PLUGINS)
+                .setLatency(50)
+                .setErrorRate(0.2)
+                .setThrottleRate(0.1)
+                .setTruncateRate(0.2)) {
+            List<TestManagedUpdateSite> sites = sites("faulty-", server.getUrl("update-center.json"));
+
+            int succeeded = 0;
+            for (int round = 0; round < 3; round++) {
+                for (Refresh refresh : refreshAll(sites)) {
+                    if (refresh.result().kind == OK) {
+                        succeeded++;
+                    }
+                }
+            }
+            assertThat("Faults should be injected", server.getFaults(), greaterThan(0));
+            assertThat("Some refreshes should succeed", succeeded, greaterThan(0));
+            long refreshes = 0;
+            long failures = 0;
+            for (TestManagedUpdateSite site : sites) {
+                refreshes += site.getStatistics().getRefreshes();
+                failures += site.getStatistics().getRefreshFailures();
+                if (site.getData() != null) {
+                    assertThat("Only complete data should be kept", site.getData().plugins.size(), is(PLUGINS));
+                }
+            }
+            // refreshes skipped while circuits are open are not counted
+            assertThat("Every failure should be counted", refreshes - failures, is((long) succeeded));
+        }
+    }
+
+    private record Refresh(FormValidation result, long millis) {}
+}
@@ -24,9 +24,11 @@
 package jp.ikedam.jenkins.plugins.updatesitesmanager;
 
 import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsInAnyOrder;
 import static org.hamcrest.Matchers.containsString;
 import static org.hamcrest.Matchers.endsWith;
 import static org.hamcrest.Matchers.hasSize;
+import static org.hamcrest.Matchers.is;
 import static org.hamcrest.Matchers.notNullValue;
 import static org.junit.Assert.assertThrows;
 
@@ -34,11 +36,18 @@ import hudson.model.Describable;
 import hudson.model.Descriptor;
 import hudson.model.ManagementLink;
 import hudson.model.UpdateSite;
+import hudson.util.FormValidation;
 import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import net.sf.json.JSONArray;
+import net.sf.json.JSONObject;
 import org.htmlunit.FailingHttpStatusCodeException;
 import org.htmlunit.html.HtmlForm;
 import org.htmlunit.html.HtmlPage;
+import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.Test;
 import org.jvnet.hudson.test.JenkinsRule;
@@ -51,6 +60,19 @@ import org.xml.sax.SAXException;
  */
 @WithJenkins
 public class UpdateSitesManagerJenkinsTest {
+    private final int refreshThreads = UpdateSitesManager.REFRESH_THREADS;
+
+    private final long refreshTimeout = UpdateSitesManager.REFRESH_TIMEOUT;
+
+    /**
+     * Restores the settings tests change.
+     */
+    @AfterEach
+    void restoreSettings() {
+        UpdateSitesManager.REFRESH_THREADS = refreshThreads;
+        UpdateSitesManager.REFRESH_TIMEOUT = refreshTimeout;
+        UpdateSitesManager.shutdownRefresh();
+    }
 
     @Test
     void shouldExistsLinkToManager(JenkinsRule j) throws IOException, SAXException {
@@ -170,6 +192,115 @@ public class UpdateSitesManagerJenkinsTest {
         }
     }
 
+    @Test
+    void shouldRefreshAllManagedSites(JenkinsRule j) {
+        UpdateSite site1 = new UpdateSite("test1", "http://localhost:1/update-center.json");
+        UpdateSite site2 =
+                new ManagedUpdateSite("test2", "http://localhost:1/update-center.json", false, null, null, false);
+        UpdateSite site3 =
+                new ManagedUpdateSite("test3", "http://localhost:1/update-center.json", false, null, null, true);
+        j.getInstance().getUpdateCenter().getSites().clear();
+        j.getInstance().getUpdateCenter().getSites().add(site1);
+        j.getInstance().getUpdateCenter().getSites().add(site2);
+        j.getInstance().getUpdateCenter().getSites().add(site3);
+
+        UpdateSitesManager manager =
+                j.getInstance().getExtensionList(ManagementLink.class).get(UpdateSitesManager.class);
+        Assertions.assertNotNull(manager);
+        Map<String, UpdateSitesManager.RefreshResult.Status> results = new HashMap<>();
+        for (UpdateSitesManager.RefreshResult result : manager.refreshAll()) {
+            results.put(result.getId(), result.getStatus());
+        }
+
+        assertThat("only managed sites", results.keySet(), containsInAnyOrder("test2", "test3"));
+        assertThat("unreachable site", results.get("test2"), is(UpdateSitesManager.RefreshResult.Status.ERROR));
+        assertThat("disabled site", results.get("test3"), is(UpdateSitesManager.RefreshResult.Status.SKIPPED));
+    }
+
+    @Test
+    void shouldTimeOutEachSiteFromItsStart(JenkinsRule j) {
+        UpdateSitesManager.shutdownRefresh();
+        UpdateSitesManager.REFRESH_THREADS = 1;
+        UpdateSitesManager.REFRESH_TIMEOUT = 2;
+        j.getInstance().getUpdateCenter().getSites().clear();
+        // run one by one, so the last ones wait longer than the timeout before they start
+        j.getInstance().getUpdateCenter().getSites().add(new SlowSite("slow", 10_000));
+        j.getInstance().getUpdateCenter().getSites().add(new SlowSite("fast1", 1_000));
+        j.getInstance().getUpdateCenter().getSites().add(new SlowSite("fast2", 1_000));
+
+        UpdateSitesManager manager =
+                j.getInstance().getExtensionList(ManagementLink.class).get(UpdateSitesManager.class);
+        Assertions.assertNotNull(manager);
+        Map<String, UpdateSitesManager.RefreshResult.Status> results = new HashMap<>();
+        for (UpdateSitesManager.RefreshResult result : manager.refreshAll()) {
+            results.put(result.getId(), result.getStatus());
+        }
+
+        assertThat(results.get("slow"), is(UpdateSitesManager.RefreshResult.Status.TIMEOUT));
+        assertThat(results.get("fast1"), is(UpdateSitesManager.RefreshResult.Status.OK));
+        assertThat(results.get("fast2"), is(UpdateSitesManager.RefreshResult.Status.OK));
+    }
+
+    /**
+     * A site taking the given time to refresh.
+     */
+    private static class SlowSite extends ManagedUpdateSite {
+        private final long millis;
+
+        SlowSite(String id, long millis) {
+            super(id, "http://localhost:1/update-center.json", false, null, null, false);
+            this.millis = millis;
+        }
+
+        @Override
+        public FormValidation updateDirectlyNow(boolean signatureCheck) throws IOException {
+            try {
+                Thread.sleep(millis);
+            } catch (InterruptedException e) {
+                throw new InterruptedIOException();
+            }
+            return FormValidation.ok();
+        }
+    }
+
+    @Test
+    void shouldServeMetrics(JenkinsRule j) throws Exception {
+        UpdateSite site = new ManagedUpdateSite(
+                "metrics-test", "http://localhost:1/update-center.json", false, null, null, false);
+        j.getInstance().getUpdateCenter().getSites().clear();
+        j.getInstance().getUpdateCenter().getSites().add(site);
+        site.updateDirectlyNow(false);
+
+        try (JenkinsRule.WebClient wc = j.createWebClient()) {
+            JSONArray metrics = JSONArray.fromObject(wc.goTo(UpdateSitesManager.URL + "/metrics", "application/json")
+                    .getWebResponse()
+                    .getContentAsString());
+            assertThat(metrics, hasSize(1));
+            JSONObject o = metrics.getJSONObject(0);
+            assertThat(o.getString("id"), is("metrics-test"));
+            assertThat(o.getLong("refreshes"), is(1L));
+            assertThat(o.getLong("refreshFailures"), is(1L));
+            assertThat(o.getLong("hedgedRequests"), is(0L));
+            assertThat(o.getLong("hedgeWins"), is(0L));
+            assertThat(o.getLong("signatureCacheHits"), is(0L));
+            assertThat(o.getLong("deltaUpdates"), is(0L));
+            assertThat(o.getLong("deltaFallbacks"), is(0L));
+            assertThat(o.getLong("artifactCacheHits"), is(0L));
+            assertThat(o.getLong("resumedDownloads"), is(0L));
+            assertThat(o.getJSONObject("phases").has("verify"), is(true));
+
+            String text = wc.goTo(UpdateSitesManager.URL + "/metrics?format=prometheus", "text/plain")
+                    .getWebResponse()
+                    .getContentAsString();
+            assertThat(
+                    text, containsString("update_sites_manager_refresh_failures_total{site=\"metrics-test\"} 1\n"));
+            assertThat(text, containsString("# TYPE update_sites_manager_refresh_phase_seconds histogram\n"));
+            assertThat(
+                    text, containsString("update_sites_manager_signature_cache_hits_total{site=\"metrics-test\"} 0\n"));
+            assertThat(text, containsString("update_sites_manager_resumed_downloads_total{site=\"metrics-test\"} 0\n"));
+        }
+    }
+
     @Test
     @WithLocalData
     void testPrivilege(JenkinsRule j) throws Exception {
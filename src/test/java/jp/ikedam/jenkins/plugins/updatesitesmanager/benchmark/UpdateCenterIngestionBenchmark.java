@@ -0,0 +1,124 @@
+package jp.ikedam.jenkins.plugins.updatesitesmanager.benchmark;
+
+import hudson.model.UpdateSite;
+import hudson.util.FormValidation;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import jenkins.benchmark.jmh.JmhBenchmark;
+import jenkins.benchmark.jmh.JmhBenchmarkState;
+import jp.ikedam.jenkins.plugins.updatesitesmanager.ManagedUpdateSite;
+import jp.ikedam.jenkins.plugins.updatesitesmanager.internal.ExtendedCertJsonSignValidator;
+import jp.ikedam.jenkins.plugins.updatesitesmanager.internal.JsonStreamParser;
+import jp.ikedam.jenkins.plugins.updatesitesmanager.internal.JsonpUnwrappingInputStream;
+import jp.ikedam.jenkins.plugins.updatesitesmanager.testext.SignedUpdateCenter;
+import net.sf.json.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Measures the steps taking update-center.json into Jenkins with synthetic signed data.
+ */
+@JmhBenchmark
+public class UpdateCenterIngestionBenchmark {
+    private static final String SITE_ID = "benchmark";
+
+    public static class SiteState extends JmhBenchmarkState {
+        @Param({"1000", "10000", "50000"})
+        public int plugins;
+
+        String json;
+
+        byte[] jsonp;
+
+        JSONObject data;
+
+        String certificate;
+
+        BenchmarkSite site;
+
+        /**
+         * Plain site reading the same data, computing the lists on each call.
+         */
+        UpdateSite plainSite;
+
+        @Override
+        public void setup() throws Exception {
+            SignedUpdateCenter center = new SignedUpdateCenter();
+            data = center.sign(SignedUpdateCenter.generate(SITE_ID, plugins));
+            json = data.toString();
+            jsonp = ("updateCenter.post(\n" + json + "\n);").getBytes(StandardCharsets.UTF_8);
+            certificate = center.getCertificate();
+
+            site = new BenchmarkSite(certificate);
+            getJenkins().getUpdateCenter().getSites().replaceBy(List.of(site));
+            FormValidation result = site.parse(json, true);
+            if (result.kind != FormValidation.Kind.OK) {
+                throw new IllegalStateException("Generated data is not valid: " + result.getMessage());
+            }
+            plainSite = new UpdateSite(SITE_ID, site.getUrl());
+        }
+    }
+
+    public static class BenchmarkSite extends ManagedUpdateSite {
+        BenchmarkSite(String certificate) {
+            super(SITE_ID, "http://localhost/update-center.json", true, certificate, "benchmark", false);
+        }
+
+        FormValidation parse(String json, boolean signatureCheck) throws IOException {
+            return updateData(json, signatureCheck);
+        }
+    }
+
+    @Benchmark
+    public long unwrapJsonp(SiteState state) throws IOException {
+        long total = 0;
+        byte[] buf = new byte[8192];
+        try (InputStream in = new JsonpUnwrappingInputStream(new ByteArrayInputStream(state.jsonp), SITE_ID)) {
+            int len;
+            while ((len = in.read(buf)) >= 0) {
+                total += len;
+            }
+        }
+        return total;
+    }
+
+    @Benchmark
+    public FormValidation updateData(SiteState state) throws IOException {
+        return state.site.parse(state.json, false);
+    }
+
+    @Benchmark
+    public JSONObject parseText(SiteState state) throws IOException {
+        try (InputStream in = new JsonpUnwrappingInputStream(new ByteArrayInputStream(state.jsonp), SITE_ID)) {
+            return JSONObject.fromObject(new String(in.readAllBytes(), StandardCharsets.UTF_8));
+        }
+    }
+
+    @Benchmark
+    public JSONObject parseStream(SiteState state) throws IOException {
+        try (InputStream in = new JsonpUnwrappingInputStream(new ByteArrayInputStream(state.jsonp), SITE_ID)) {
+            return JsonStreamParser.parse(in);
+        }
+    }
+
+    @Benchmark
+    public FormValidation verifySignature(SiteState state) throws IOException {
+        return new ExtendedCertJsonSignValidator(SITE_ID, state.certificate).verifySignature(state.data);
+    }
+
+    @Benchmark
+    public void getAvailablesAndUpdates(SiteState state, Blackhole blackhole) {
+        blackhole.consume(state.site.getAvailables());
+        blackhole.consume(state.site.getUpdates());
+    }
+
+    @Benchmark
+    public void getAvailablesAndUpdatesUncached(SiteState state, Blackhole blackhole) {
+        blackhole.consume(state.plainSite.getAvailables());
+        blackhole.consume(state.plainSite.getUpdates());
+    }
+}
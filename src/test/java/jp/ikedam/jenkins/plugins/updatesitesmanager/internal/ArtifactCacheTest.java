@@ -0,0 +1,96 @@
+package jp.ikedam.jenkins.plugins.updatesitesmanager.internal;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.notNullValue;
+import static org.hamcrest.Matchers.nullValue;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.util.Base64;
+import java.util.stream.Stream;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class ArtifactCacheTest {
+    @TempDir
+    Path dir;
+
+    private static String keyOf(byte[] content) throws Exception {
+        byte[] digest = MessageDigest.getInstance("SHA-256").digest(content);
+        return ArtifactCache.keyOf(Base64.getEncoder().encodeToString(digest));
+    }
+
+    private static void readAll(InputStream in) throws Exception {
+        try (in) {
+            in.readAllBytes();
+        }
+    }
+
+    @Test
+    void shouldStoreCompleteDownload() throws Exception {
+        byte[] content = "plugin".getBytes(StandardCharsets.UTF_8);
+        String key = keyOf(content);
+        ArtifactCache cache = new ArtifactCache(dir);
+        assertThat(cache.get(key), nullValue());
+
+        readAll(cache.store(new ByteArrayInputStream(content), key, 1024));
+        Path cached = cache.get(key);
+        assertThat(cached, notNullValue());
+        assertThat(Files.readAllBytes(cached), is(content));
+    }
+
+    @Test
+    void shouldNotStoreUnexpectedContent() throws Exception {
+        String key = keyOf("plugin".getBytes(StandardCharsets.UTF_8));
+        ArtifactCache cache = new ArtifactCache(dir);
+        readAll(cache.store(new ByteArrayInputStream("tampered".getBytes(StandardCharsets.UTF_8)), key, 1024));
+        assertThat(cache.get(key), nullValue());
+        try (Stream<Path> files = Files.list(dir)) {
+            assertThat("Temporary file should be removed", files.count(), is(0L));
+        }
+    }
+
+    @Test
+    void shouldNotStoreIncompleteDownload() throws Exception {
+        byte[] content = "plugin".getBytes(StandardCharsets.UTF_8);
+        String key = keyOf(content);
+        ArtifactCache cache = new ArtifactCache(dir);
+        try (InputStream in = cache.store(new ByteArrayInputStream(content), key, 1024)) {
+            in.read();
+        }
+        assertThat(cache.get(key), nullValue());
+    }
+
+    @Test
+    void shouldEvictLeastRecentlyUsed() throws Exception {
+        byte[] first = new byte[600];
+        byte[] second = new byte[600];
+        second[0] = 1;
+        byte[] third = new byte[600];
+        third[0] = 2;
+        ArtifactCache cache = new ArtifactCache(dir);
+        readAll(cache.store(new ByteArrayInputStream(first), keyOf(first), 1500));
+        readAll(cache.store(new ByteArrayInputStream(second), keyOf(second), 1500));
+        Files.setLastModifiedTime(dir.resolve(keyOf(first)), FileTime.fromMillis(1000));
+        Files.setLastModifiedTime(dir.resolve(keyOf(second)), FileTime.fromMillis(2000));
+        cache.get(keyOf(first));
+
+        readAll(cache.store(new ByteArrayInputStream(third), keyOf(third), 1500));
+        assertThat(cache.get(keyOf(first)), notNullValue());
+        assertThat("Least recently used should be evicted", cache.get(keyOf(second)), nullValue());
+        assertThat(cache.get(keyOf(third)), notNullValue());
+    }
+
+    @Test
+    void shouldRejectInvalidChecksum() {
+        assertThat(ArtifactCache.keyOf(null), nullValue());
+        assertThat(ArtifactCache.keyOf("not base64!"), nullValue());
+        assertThat(ArtifactCache.keyOf(Base64.getEncoder().encodeToString(new byte[20])), nullValue());
+    }
+}
@@ -0,0 +1,66 @@
+package jp.ikedam.jenkins.plugins.updatesitesmanager.internal;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.junit.jupiter.api.Test;
+
+class CircuitBreakerTest {
+    private static final long MINUTE = TimeUnit.MINUTES.toMillis(1);
+
+    private final AtomicLong now = new AtomicLong(1_000_000L);
+
+    private final CircuitBreaker breaker = new CircuitBreaker("test", now::get);
+
+    @Test
+    void shouldOpenAfterFailuresInARow() {
+        breaker.onFailure(3, MINUTE, 60 * MINUTE, 0);
+        breaker.onFailure(3, MINUTE, 60 * MINUTE, 0);
+        assertThat(breaker.getState(), is(CircuitBreaker.State.CLOSED));
+        assertThat(breaker.tryAcquire(MINUTE), is(true));
+
+        breaker.onFailure(3, MINUTE, 60 * MINUTE, 0);
+        assertThat(breaker.getState(), is(CircuitBreaker.State.OPEN));
+        assertThat(breaker.getOpenUntil(), is(now.get() + MINUTE));
+        assertThat(breaker.tryAcquire(MINUTE), is(false));
+    }
+
+    @Test
+    void shouldOpenAsAskedByRetryAfter() {
+        breaker.onFailure(3, MINUTE, 60 * MINUTE, 10 * MINUTE);
+        assertThat(breaker.getState(), is(CircuitBreaker.State.OPEN));
+        assertThat(breaker.getOpenUntil(), is(now.get() + 10 * MINUTE));
+    }
+
+    @Test
+    void shouldLetSingleProbeThrough() {
+        breaker.onFailure(1, MINUTE, 60 * MINUTE, 0);
+        now.addAndGet(MINUTE);
+        assertThat("Should stay open until probed", breaker.getState(), is(CircuitBreaker.State.OPEN));
+
+        assertThat("Probe should go through", breaker.tryAcquire(MINUTE), is(true));
+        assertThat(breaker.getState(), is(CircuitBreaker.State.HALF_OPEN));
+        assertThat("Others should wait for the probe", breaker.tryAcquire(MINUTE), is(false));
+        now.addAndGet(MINUTE);
+        assertThat("Lost probe should be replaced", breaker.tryAcquire(MINUTE), is(true));
+
+        breaker.onSuccess();
+        assertThat(breaker.getState(), is(CircuitBreaker.State.CLOSED));
+        assertThat(breaker.getConsecutiveFailures(), is(0));
+        assertThat(breaker.tryAcquire(MINUTE), is(true));
+    }
+
+    @Test
+    void shouldOpenLongerWhenProbeFails() {
+        breaker.onFailure(1, MINUTE, 3 * MINUTE, 0);
+        for (long expected : new long[] {2 * MINUTE, 3 * MINUTE, 3 * MINUTE}) {
+            now.set(breaker.getOpenUntil());
+            assertThat(breaker.tryAcquire(MINUTE), is(true));
+            breaker.onFailure(1, MINUTE, 3 * MINUTE, 0);
+            assertThat(breaker.getState(), is(CircuitBreaker.State.OPEN));
+            assertThat(breaker.getOpenUntil(), is(now.get() + expected));
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package jp.ikedam.jenkins.plugins.updatesitesmanager.internal;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import net.sf.json.JSONObject;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class DataSnapshotTest {
+    private static final String JSON = "{\"id\":\"test\",\"updateCenterVersion\":\"1\","
+            + "\"plugins\":{"
+            + "\"a\":{\"name\":\"a\",\"version\":\"1.0\",\"labels\":[\"misc\",\"scm\"],\"popularity\":12,"
+            + "\"size\":12345678901,\"ratio\":0.5,\"deprecated\":false,"
+            + "\"dependencies\":[{\"name\":\"b\",\"optional\":true,\"version\":\"1.0\"}]},"
+            + "\"b\":{\"name\":\"b\",\"version\":\"1.0\",\"labels\":[\"misc\"],\"excerpt\":\"\\u65e5\\u672c\"}}}";
+
+    @TempDir
+    File dir;
+
+    private File source;
+
+    private File snapshot;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        source = new File(dir, "test.json");
+        Files.writeString(source.toPath(), JSON, StandardCharsets.UTF_8);
+        snapshot = new File(dir, "test.snapshot");
+    }
+
+    @Test
+    void shouldReadWrittenData() throws IOException {
+        JSONObject o = JSONObject.fromObject(JSON);
+        DataSnapshot.write(o, source.length(), source.lastModified(), snapshot);
+        assertThat(DataSnapshot.read(source, snapshot), is(o));
+    }
+
+    @Test
+    void shouldReadDataWrittenFromSource() throws IOException {
+        DataSnapshot.write(source, source.length(), source.lastModified(), snapshot);
+        assertThat(DataSnapshot.read(source, snapshot), is(JSONObject.fromObject(JSON)));
+    }
+
+    @Test
+    void shouldIgnoreStaleSnapshot() throws IOException {
+        DataSnapshot.write(JSONObject.fromObject(JSON), source.length(), source.lastModified(), snapshot);
+        Files.writeString(source.toPath(), "{\"id\":\"test\"}", StandardCharsets.UTF_8);
+        assertThat(DataSnapshot.read(source, snapshot), nullValue());
+    }
+
+    @Test
+    void shouldIgnoreTruncatedSnapshot() throws IOException {
+        DataSnapshot.write(JSONObject.fromObject(JSON), source.length(), source.lastModified(), snapshot);
+        byte[] bytes = Files.readAllBytes(snapshot.toPath());
+        Files.write(snapshot.toPath(), Arrays.copyOf(bytes, bytes.length / 2));
+        assertThat(DataSnapshot.read(source, snapshot), nullValue());
+    }
+
+    @Test
+    void shouldIgnoreMissingSnapshot() {
+        assertThat(DataSnapshot.read(source, snapshot), nullValue());
+    }
+}
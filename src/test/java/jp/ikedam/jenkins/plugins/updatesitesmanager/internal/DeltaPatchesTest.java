@@ -0,0 +1,37 @@
+package jp.ikedam.jenkins.plugins.updatesitesmanager.internal;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+
+import net.sf.json.JSONObject;
+import org.junit.jupiter.api.Test;
+
+class DeltaPatchesTest {
+    private static final JSONObject BASE = JSONObject.fromObject("{\"id\":\"test\",\"obsolete\":true,"
+            + "\"plugins\":{\"a\":{\"version\":\"1.0\"},\"b\":{\"version\":\"1.0\"}},\"signature\":{\"s\":\"1\"}}");
+
+    private static final JSONObject TARGET = JSONObject.fromObject("{\"id\":\"test\","
+            + "\"plugins\":{\"a\":{\"version\":\"2.0\"},\"c\":{\"version\":\"1.0\"}},\"signature\":{\"s\":\"2\"}}");
+
+    @Test
+    void shouldReconstructTarget() {
+        JSONObject patch = DeltaPatches.diff(BASE, "v1", TARGET, "v2");
+        JSONObject data = JSONObject.fromObject(BASE.toString());
+        assertThat(DeltaPatches.apply(data, "v1", patch), is("v2"));
+        assertThat(data, is(TARGET));
+    }
+
+    @Test
+    void shouldSendOnlyChangedEntries() {
+        JSONObject patch = DeltaPatches.diff(BASE, "v1", TARGET, "v2");
+        assertThat(patch.getJSONObject("entries").getJSONObject("plugins").keySet().size(), is(3));
+        assertThat(patch.getJSONObject("replace").containsKey("id"), is(false));
+    }
+
+    @Test
+    void shouldNotApplyToAnotherVersion() {
+        JSONObject patch = DeltaPatches.diff(BASE, "v1", TARGET, "v2");
+        assertThat(DeltaPatches.apply(JSONObject.fromObject(BASE.toString()), "v0", patch), nullValue());
+    }
+}
@@ -3,7 +3,11 @@ package jp.ikedam.jenkins.plugins.updatesitesmanager.internal;
 import static org.junit.Assert.*;
 
 import hudson.util.FormValidation;
+import java.io.IOException;
 import java.nio.charset.StandardCharsets;
+import java.security.cert.CertificateException;
+import java.security.cert.X509Certificate;
+import java.util.List;
 import java.util.Objects;
 import jenkins.util.JSONSignatureValidator;
 import net.sf.json.JSONObject;
@@ -18,6 +22,8 @@ import org.jvnet.hudson.test.junit.jupiter.WithJenkins;
  */
 @WithJenkins
 public class ExtendedCertJsonSignValidatorTest {
+    private static final String RESOURCES =
+            "jp/ikedam/jenkins/plugins/updatesitesmanager/ManagedUpdateSiteJenkinsTest/";
 
     @Test
     void shouldAddCustomCertToTrustAnchors(JenkinsRule j) throws Exception {
@@ -34,4 +40,36 @@ public class ExtendedCertJsonSignValidatorTest {
                 StandardCharsets.UTF_8));
         Assertions.assertEquals(FormValidation.Kind.OK, validator.verifySignature(ucToTest).kind);
     }
+
+    @Test
+    void shouldTrustAnyCertInBundle(JenkinsRule j) throws Exception {
+        String bundle = resource("caCertificateBundle.crt");
+        assertEquals(2, ExtendedCertJsonSignValidator.getCertificates(bundle).size());
+
+        JSONSignatureValidator validator = new ExtendedCertJsonSignValidator("test", bundle);
+        JSONObject ucToTest = JSONObject.fromObject(resource("update-center.json"));
+        Assertions.assertEquals(FormValidation.Kind.OK, validator.verifySignature(ucToTest).kind);
+    }
+
+    @Test
+    void shouldParseSameCertOnlyOnce(JenkinsRule j) throws Exception {
+        String cert = resource("caCertificate.crt");
+        List<X509Certificate> certificates = ExtendedCertJsonSignValidator.getCertificates(cert);
+        assertSame(certificates, ExtendedCertJsonSignValidator.getCertificates(cert));
+        assertSame(certificates, ExtendedCertJsonSignValidator.getCertificates(cert + "\n"));
+    }
+
+    @Test
+    void shouldRejectInvalidCert(JenkinsRule j) {
+        Assertions.assertThrows(
+                CertificateException.class, () -> ExtendedCertJsonSignValidator.getCertificates("blabla"));
+        Assertions.assertThrows(
+                CertificateException.class, () -> ExtendedCertJsonSignValidator.parseCertificates("blabla"));
+    }
+
+    private String resource(String name) throws IOException {
+        return IOUtils.toString(
+                Objects.requireNonNull(getClass().getClassLoader().getResourceAsStream(RESOURCES + name)),
+                StandardCharsets.UTF_8);
+    }
 }
@@ -0,0 +1,95 @@
+package jp.ikedam.jenkins.plugins.updatesitesmanager.internal;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThan;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class FailoverURLConnectionTest {
+    private final List<String> requests = new CopyOnWriteArrayList<>();
+
+    private final MirrorSelector selector = new MirrorSelector(new AtomicLong(1_000_000L)::get);
+
+    private HttpServer server;
+
+    @BeforeEach
+    void startServer() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/", this::serve);
+        server.start();
+    }
+
+    @AfterEach
+    void stopServer() {
+        server.stop(0);
+    }
+
+    private void serve(HttpExchange exchange) throws IOException {
+        String path = exchange.getRequestURI().getPath();
+        requests.add(path + " " + exchange.getRequestHeaders().getFirst("X-Test"));
+        byte[] body = path.substring(1).getBytes(StandardCharsets.UTF_8);
+        exchange.sendResponseHeaders(path.startsWith("/broken") ? 503 : 200, body.length);
+        exchange.getResponseBody().write(body);
+        exchange.close();
+    }
+
+    private FailoverURLConnection open(String... mirrors) throws IOException {
+        List<URL> urls = new ArrayList<>();
+        for (String mirror : mirrors) {
+            urls.add(new URL("http://localhost:%d/%s/test.hpi".formatted(server.getAddress().getPort(), mirror)));
+        }
+        return new FailoverURLConnection(
+                (HttpURLConnection) urls.get(0).openConnection(),
+                Arrays.asList(mirrors),
+                urls,
+                u -> (HttpURLConnection) u.openConnection(),
+                selector);
+    }
+
+    @Test
+    void shouldNotSendRequestUntilAsked() throws Exception {
+        open("broken", "working");
+        assertThat(requests.size(), is(0));
+    }
+
+    @Test
+    void shouldSendTheSameRequestToNextMirror() throws Exception {
+        FailoverURLConnection connection = open("broken", "working");
+        connection.setRequestProperty("X-Test", "set by caller");
+        try (InputStream in = connection.getInputStream()) {
+            assertThat(new String(in.readAllBytes(), StandardCharsets.UTF_8), is("working/test.hpi"));
+        }
+        assertThat(connection.getResponseCode(), is(200));
+        assertThat(connection.getURL().getPath(), is("/working/test.hpi"));
+        assertThat(
+                requests,
+                is(Arrays.asList("/broken/test.hpi set by caller", "/working/test.hpi set by caller")));
+        assertThat(selector.getSuccessRate("broken"), lessThan(1.0));
+    }
+
+    @Test
+    void shouldLeaveLastMirrorToCaller() throws Exception {
+        FailoverURLConnection connection = open("working", "broken");
+        assertThat(connection.getResponseCode(), is(200));
+        assertThat(requests.size(), is(1));
+        assertThat(selector.getSuccessRate("working"), is(1.0));
+
+        assertThat(open("broken", "broken").getResponseCode(), is(503));
+    }
+}
@@ -0,0 +1,104 @@
+package jp.ikedam.jenkins.plugins.updatesitesmanager.internal;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.instanceOf;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.ByteArrayInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import net.sf.json.JSONArray;
+import net.sf.json.JSONNull;
+import net.sf.json.JSONObject;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+class JsonStreamParserTest {
+    private static final String JSON = "{\"id\":\"test\",\"updateCenterVersion\":\"1\","
+            + "\"plugins\":{"
+            + "\"a\":{\"name\":\"a\",\"version\":\"1.0\",\"labels\":[\"misc\",\"scm\"],\"popularity\":12,"
+            + "\"size\":12345678901,\"ratio\":0.5,\"deprecated\":false,\"previousVersion\":null,"
+            + "\"dependencies\":[{\"name\":\"b\",\"optional\":true,\"version\":\"1.0\"}]},"
+            + "\"b\":{\"name\":\"b\",\"version\":\"1.0\",\"labels\":[],\"excerpt\":\"\\u65e5\\u672c \\\"\\\\/\\n\"}}}";
+
+    @ParameterizedTest
+    @ValueSource(ints = {1, 2, 7, 8192})
+    void shouldParseLikeJsonLib(int chunkSize) throws IOException {
+        assertThat(parse(JSON, chunkSize), is(JSONObject.fromObject(JSON)));
+    }
+
+    @Test
+    void shouldParseContentLongerThanBuffer() throws IOException {
+        String excerpt = "x".repeat(20000) + "\\n" + "\u65e5".repeat(5000);
+        String json = "{\"a\":\"" + excerpt + "\",\"b\":[" + "1,".repeat(10000) + "2]}";
+        assertThat(parse(json, 8192), is(JSONObject.fromObject(json)));
+    }
+
+    @Test
+    void shouldTypeValues() throws IOException {
+        JSONObject o = parse(
+                "{\"int\":-12,\"long\":12345678901,\"big\":123456789012345678901234567890,"
+                        + "\"double\":1.5e3,\"bool\":true,\"null\":null,\"array\":[]}",
+                8192);
+        assertThat(o.get("int"), is(-12));
+        assertThat(o.get("long"), is(12345678901L));
+        assertThat(o.get("big"), is(new BigInteger("123456789012345678901234567890")));
+        assertThat(o.get("double"), is(1500.0));
+        assertThat(o.get("bool"), is(true));
+        assertThat(o.get("null"), instanceOf(JSONNull.class));
+        assertThat(o.get("array"), instanceOf(JSONArray.class));
+    }
+
+    @Test
+    void shouldShareStrings() throws IOException {
+        JSONObject a = parse("{\"name\":\"credentials\"}", 8192);
+        JSONObject b = parse("{\"name\":\"credentials\"}", 8192);
+        assertThat(a.getString("name"), sameInstance(b.getString("name")));
+    }
+
+    @ParameterizedTest
+    @ValueSource(
+            strings = {
+                "",
+                "[]",
+                "{",
+                "{\"a\"}",
+                "{\"a\":1,}",
+                "{\"a\":1} {}",
+                "{\"a\":\"unterminated}",
+                "{\"a\":\"\\x\"}",
+                "{\"a\":\"\\u12\"}",
+                "{\"a\":tru}",
+                "{\"a\":1.2.3}",
+                "{\"a\":[1 2]}"
+            })
+    void shouldRejectMalformedContent(String json) {
+        assertThrows(IOException.class, () -> parse(json, 8192));
+    }
+
+    @Test
+    void shouldRejectDeepNesting() {
+        String json = "{\"a\":" + "[".repeat(1000) + "]".repeat(1000) + "}";
+        assertThrows(IOException.class, () -> parse(json, 8192));
+    }
+
+    /**
+     * Parses through a stream returning at most {@code chunkSize} bytes at once,
+     * like a slow network would.
+     */
+    private static JSONObject parse(String content, int chunkSize) throws IOException {
+        InputStream in = new FilterInputStream(new ByteArrayInputStream(content.getBytes(StandardCharsets.UTF_8))) {
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                return super.read(b, off, Math.min(len, chunkSize));
+            }
+        };
+        return JsonStreamParser.parse(in);
+    }
+}
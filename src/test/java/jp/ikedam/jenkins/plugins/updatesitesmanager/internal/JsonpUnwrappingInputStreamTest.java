@@ -0,0 +1,72 @@
+package jp.ikedam.jenkins.plugins.updatesitesmanager.internal;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.ByteArrayInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+class JsonpUnwrappingInputStreamTest {
+
+    @ParameterizedTest
+    @ValueSource(ints = {1, 2, 7, 8192})
+    void shouldStripWrapper(int chunkSize) throws IOException {
+        assertThat(
+                unwrap("updateCenter.post(\n{\"a\":{\"b\":1},\"c\":\"}\"}\n);", chunkSize),
+                is("{\"a\":{\"b\":1},\"c\":\"}\"}"));
+    }
+
+    @ParameterizedTest
+    @ValueSource(ints = {1, 2, 7, 8192})
+    void shouldPassPlainJson(int chunkSize) throws IOException {
+        assertThat(unwrap("{\"a\":1}", chunkSize), is("{\"a\":1}"));
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {"", "no json here", "updateCenter.post({\"a\":1"})
+    void shouldFailWithoutJson(String content) {
+        assertThrows(IOException.class, () -> unwrap(content, 8192));
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {"x", "{\"a\":\"x"})
+    void shouldFailWhenExceedingLimit(String content) {
+        InputStream endless = new InputStream() {
+            private int pos;
+
+            @Override
+            public int read() {
+                // repeats the last character forever
+                return content.charAt(Math.min(pos++, content.length() - 1));
+            }
+        };
+        IOException e = assertThrows(IOException.class, () -> {
+            try (InputStream json = new JsonpUnwrappingInputStream(endless, "test", 100_000, () -> "too large")) {
+                json.readAllBytes();
+            }
+        });
+        assertThat(e.getMessage(), is("too large"));
+    }
+
+    /**
+     * Reads through a stream returning at most {@code chunkSize} bytes at once,
+     * like a slow network would.
+     */
+    private static String unwrap(String content, int chunkSize) throws IOException {
+        InputStream in = new FilterInputStream(new ByteArrayInputStream(content.getBytes(StandardCharsets.UTF_8))) {
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                return super.read(b, off, Math.min(len, chunkSize));
+            }
+        };
+        try (InputStream json = new JsonpUnwrappingInputStream(in, "test")) {
+            return new String(json.readAllBytes(), StandardCharsets.UTF_8);
+        }
+    }
+}
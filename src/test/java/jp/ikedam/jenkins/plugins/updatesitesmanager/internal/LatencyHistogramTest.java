@@ -0,0 +1,29 @@
+package jp.ikedam.jenkins.plugins.updatesitesmanager.internal;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.Test;
+
+class LatencyHistogramTest {
+    @Test
+    void shouldCountInCumulativeBuckets() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(TimeUnit.MILLISECONDS.toNanos(3));
+        histogram.record(TimeUnit.MILLISECONDS.toNanos(5));
+        histogram.record(TimeUnit.MILLISECONDS.toNanos(70));
+        histogram.record(TimeUnit.MINUTES.toNanos(5));
+
+        long[] bounds = LatencyHistogram.getBounds();
+        long[] counts = histogram.getCumulativeCounts();
+        assertThat(counts.length, is(bounds.length + 1));
+        assertThat("up to 5ms", counts[0], is(2L));
+        assertThat("up to 50ms", counts[3], is(2L));
+        assertThat("up to 100ms", counts[4], is(3L));
+        assertThat("up to 60s", counts[bounds.length - 1], is(3L));
+        assertThat("all", counts[bounds.length], is(4L));
+        assertThat(histogram.getCount(), is(4L));
+        assertThat(histogram.getSumMillis(), is(300078.0));
+    }
+}
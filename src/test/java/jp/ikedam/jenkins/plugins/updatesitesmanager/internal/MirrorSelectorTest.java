@@ -0,0 +1,68 @@
+package jp.ikedam.jenkins.plugins.updatesitesmanager.internal;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThan;
+import static org.hamcrest.Matchers.nullValue;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.junit.jupiter.api.Test;
+
+class MirrorSelectorTest {
+    private static final List<String> MIRRORS = Arrays.asList("primary", "near", "far");
+
+    private final AtomicLong now = new AtomicLong(1_000_000L);
+
+    private final MirrorSelector selector = new MirrorSelector(now::get);
+
+    @Test
+    void shouldTryUnmeasuredMirrorsInConfiguredOrder() {
+        assertThat(selector.rank(MIRRORS), contains("primary", "near", "far"));
+        selector.succeeded("primary", 100);
+        assertThat(selector.rank(MIRRORS), contains("near", "far", "primary"));
+    }
+
+    @Test
+    void shouldPreferFastestMirror() {
+        selector.succeeded("primary", 100);
+        selector.succeeded("near", 10);
+        selector.succeeded("far", 300);
+        assertThat(selector.rank(MIRRORS), contains("near", "primary", "far"));
+        assertThat(selector.getLatency("near"), is(10L));
+    }
+
+    @Test
+    void shouldAvoidFailingMirror() {
+        selector.succeeded("primary", 100);
+        selector.succeeded("near", 10);
+        selector.succeeded("far", 300);
+        for (int i = 0; i < 5; i++) {
+            selector.failed("near");
+        }
+        assertThat(selector.rank(MIRRORS).get(0), is("primary"));
+        assertThat(selector.getSuccessRate("near"), lessThan(0.2));
+    }
+
+    @Test
+    void shouldPutNeverSucceededMirrorLast() {
+        selector.failed("primary");
+        selector.succeeded("near", 100);
+        selector.succeeded("far", 300);
+        assertThat(selector.rank(MIRRORS), contains("near", "far", "primary"));
+        assertThat(selector.getLatency("primary"), nullValue());
+    }
+
+    @Test
+    void shouldMeasureStaleMirrorsAgain() {
+        selector.succeeded("primary", 100);
+        selector.succeeded("near", 10);
+        selector.succeeded("far", 300);
+        now.addAndGet(TimeUnit.HOURS.toMillis(2));
+        selector.succeeded("near", 10);
+        assertThat(selector.rank(MIRRORS), contains("primary", "far", "near"));
+    }
+}
@@ -0,0 +1,154 @@
+package jp.ikedam.jenkins.plugins.updatesitesmanager.internal;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class RangedURLConnectionTest {
+    private static final Pattern RANGE = Pattern.compile("bytes=(\\d+)-(\\d*)");
+
+    private final byte[] content = new byte[100_000];
+
+    private final AtomicInteger rangeRequests = new AtomicInteger();
+
+    private final SiteStatistics statistics = SiteStatistics.of("ranged-test");
+
+    @TempDir
+    Path partDir;
+
+    private ExecutorService executor;
+
+    private HttpServer server;
+
+    private volatile boolean supportRanges = true;
+
+    private volatile String etag = "\"v1\"";
+
+    private volatile boolean changing;
+
+    @BeforeEach
+    void startServer() throws IOException {
+        new Random(0).nextBytes(content);
+        executor = Executors.newCachedThreadPool();
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.setExecutor(executor);
+        server.createContext("/", this::serve);
+        server.start();
+    }
+
+    @AfterEach
+    void stopServer() {
+        server.stop(0);
+        executor.shutdown();
+    }
+
+    private void serve(HttpExchange exchange) throws IOException {
+        String range = exchange.getRequestHeaders().getFirst("Range");
+        String ifRange = exchange.getRequestHeaders().getFirst("If-Range");
+        Matcher m = range != null ? RANGE.matcher(range) : null;
+        exchange.getResponseHeaders().set("ETag", etag);
+        if (changing) {
+            // the file gets replaced right after the first response
+            etag = "\"v2\"";
+        }
+        if (!supportRanges || m == null || !m.matches() || (ifRange != null && !ifRange.equals(etag))) {
+            exchange.sendResponseHeaders(200, content.length);
+            exchange.getResponseBody().write(content);
+            exchange.close();
+            return;
+        }
+        rangeRequests.incrementAndGet();
+        int start = Integer.parseInt(m.group(1));
+        int end = m.group(2).isEmpty() ? content.length - 1 : Integer.parseInt(m.group(2));
+        exchange.getResponseHeaders()
+                .set("Content-Range", "bytes %d-%d/%d".formatted(start, end, content.length));
+        exchange.sendResponseHeaders(206, end - start + 1);
+        exchange.getResponseBody().write(content, start, end - start + 1);
+        exchange.close();
+    }
+
+    private RangedURLConnection open(int parts, long minSize) throws IOException {
+        URL url = new URL("http://localhost:%d/test.hpi".formatted(server.getAddress().getPort()));
+        return new RangedURLConnection(
+                (HttpURLConnection) url.openConnection(),
+                u -> (HttpURLConnection) u.openConnection(),
+                parts,
+                minSize,
+                partDir,
+                statistics);
+    }
+
+    @Test
+    void shouldJoinRanges() throws Exception {
+        RangedURLConnection connection = open(4, 1000);
+        assertThat(connection.getResponseCode(), is(200));
+        assertThat(connection.getContentLengthLong(), is((long) content.length));
+        assertThat(connection.getHeaderField("Content-Range"), is((String) null));
+        try (InputStream in = connection.getInputStream()) {
+            assertThat(Arrays.equals(in.readAllBytes(), content), is(true));
+        }
+        assertThat(rangeRequests.get(), is(4));
+        try (Stream<Path> parts = Files.list(partDir)) {
+            assertThat(parts.count(), is(0L));
+        }
+    }
+
+    @Test
+    void shouldReadSmallFileInSingleStream() throws Exception {
+        RangedURLConnection connection = open(4, content.length + 1);
+        try (InputStream in = connection.getInputStream()) {
+            assertThat(Arrays.equals(in.readAllBytes(), content), is(true));
+        }
+        assertThat(rangeRequests.get(), is(1));
+    }
+
+    @Test
+    void shouldFallBackWithoutRangeSupport() throws Exception {
+        supportRanges = false;
+        RangedURLConnection connection = open(4, 1000);
+        assertThat(connection.getResponseCode(), is(200));
+        try (InputStream in = connection.getInputStream()) {
+            assertThat(Arrays.equals(in.readAllBytes(), content), is(true));
+        }
+        assertThat(rangeRequests.get(), is(0));
+    }
+
+    @Test
+    void shouldFailWhenFileChanges() throws Exception {
+        changing = true;
+        RangedURLConnection connection = open(4, 1000);
+        assertThat(connection.getResponseCode(), is(200));
+        try (InputStream in = connection.getInputStream()) {
+            assertThrows(IOException.class, in::readAllBytes);
+        }
+    }
+
+    @Test
+    void shouldParseContentRange() {
+        assertThat(RangedURLConnection.parseContentRange("bytes 0-99/100"), is(new long[] {0, 99, 100}));
+        assertThat(RangedURLConnection.parseContentRange("bytes */100"), is((long[]) null));
+        assertThat(RangedURLConnection.parseContentRange(null), is((long[]) null));
+    }
+}
@@ -0,0 +1,98 @@
+package jp.ikedam.jenkins.plugins.updatesitesmanager.internal;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.hasSize;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.startsWith;
+
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class RecordingURLConnectionTest {
+    private static final String EVENT = "jp.ikedam.jenkins.plugins.updatesitesmanager.Download";
+
+    @TempDir
+    Path dir;
+
+    private HttpServer server;
+
+    @BeforeEach
+    void startServer() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/", exchange -> {
+            exchange.sendResponseHeaders(200, 1000);
+            exchange.getResponseBody().write(new byte[1000]);
+            exchange.close();
+        });
+        server.start();
+    }
+
+    @AfterEach
+    void stopServer() {
+        server.stop(0);
+    }
+
+    private RecordingURLConnection open() throws IOException {
+        URL url = new URL("http://localhost:%d/test.hpi".formatted(server.getAddress().getPort()));
+        return new RecordingURLConnection((HttpURLConnection) url.openConnection(), "test");
+    }
+
+    private List<RecordedEvent> record(Download download) throws Exception {
+        Path file = dir.resolve("recording.jfr");
+        try (Recording recording = new Recording()) {
+            recording.enable(EVENT).withThreshold(Duration.ZERO);
+            recording.start();
+            download.run();
+            recording.stop();
+            recording.dump(file);
+        }
+        return RecordingFile.readAllEvents(file).stream()
+                .filter(e -> e.getEventType().getName().equals(EVENT))
+                .toList();
+    }
+
+    @Test
+    void shouldRecordDownload() throws Exception {
+        List<RecordedEvent> events = record(() -> {
+            try (InputStream in = open().getInputStream()) {
+                in.readAllBytes();
+            }
+        });
+        assertThat(events, hasSize(1));
+        RecordedEvent event = events.get(0);
+        assertThat(event.getString("siteId"), is("test"));
+        assertThat(event.getString("url"), startsWith("http://localhost:"));
+        assertThat(event.getLong("bytes"), is(1000L));
+        assertThat(event.getBoolean("cached"), is(false));
+        assertThat(event.getString("outcome"), is("completed"));
+    }
+
+    @Test
+    void shouldRecordIncompleteDownload() throws Exception {
+        List<RecordedEvent> events = record(() -> {
+            try (InputStream in = open().getInputStream()) {
+                in.read(new byte[10]);
+            }
+        });
+        assertThat(events, hasSize(1));
+        assertThat(events.get(0).getString("outcome"), is("closed before the end"));
+    }
+
+    private interface Download {
+        void run() throws Exception;
+    }
+}
@@ -0,0 +1,150 @@
+package jp.ikedam.jenkins.plugins.updatesitesmanager.internal;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import hudson.Util;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class ResumingURLConnectionTest {
+    private static final Pattern RANGE = Pattern.compile("bytes=(\\d+)-");
+
+    private final byte[] content = new byte[100_000];
+
+    private final AtomicInteger requests = new AtomicInteger();
+
+    private final SiteStatistics statistics = new SiteStatistics();
+
+    private HttpServer server;
+
+    private volatile boolean sendValidator = true;
+
+    private volatile boolean compress;
+
+    @BeforeEach
+    void startServer() throws IOException {
+        new Random(0).nextBytes(content);
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/", this::serve);
+        server.start();
+    }
+
+    @AfterEach
+    void stopServer() {
+        server.stop(0);
+    }
+
+    private void serve(HttpExchange exchange) throws IOException {
+        if (sendValidator) {
+            exchange.getResponseHeaders().set("ETag", "\"v1\"");
+        }
+        String range = exchange.getRequestHeaders().getFirst("Range");
+        if (compress) {
+            requests.incrementAndGet();
+            ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+            try (OutputStream gzip = new GZIPOutputStream(compressed)) {
+                gzip.write(content);
+            }
+            exchange.getResponseHeaders().set("Content-Encoding", "gzip");
+            exchange.sendResponseHeaders(200, compressed.size());
+            compressed.writeTo(exchange.getResponseBody());
+            exchange.close();
+            return;
+        }
+        if (requests.incrementAndGet() == 1) {
+            // break the connection halfway
+            exchange.sendResponseHeaders(200, content.length);
+            exchange.getResponseBody().write(content, 0, content.length / 2);
+            exchange.getResponseBody().flush();
+            exchange.close();
+            return;
+        }
+        Matcher m = range != null ? RANGE.matcher(range) : null;
+        if (m == null || !m.matches() || !"\"v1\"".equals(exchange.getRequestHeaders().getFirst("If-Range"))) {
+            exchange.sendResponseHeaders(200, content.length);
+            exchange.getResponseBody().write(content);
+            exchange.close();
+            return;
+        }
+        int start = Integer.parseInt(m.group(1));
+        exchange.getResponseHeaders()
+                .set("Content-Range", "bytes %d-%d/%d".formatted(start, content.length - 1, content.length));
+        exchange.sendResponseHeaders(206, content.length - start);
+        exchange.getResponseBody().write(content, start, content.length - start);
+        exchange.close();
+    }
+
+    private ResumingURLConnection open(String key) throws IOException {
+        URL url = new URL("http://localhost:%d/test.hpi".formatted(server.getAddress().getPort()));
+        return new ResumingURLConnection(
+                (HttpURLConnection) url.openConnection(),
+                u -> (HttpURLConnection) u.openConnection(),
+                3,
+                key,
+                statistics);
+    }
+
+    private String keyOf(byte[] b) throws Exception {
+        return Util.toHexString(MessageDigest.getInstance("SHA-256").digest(b));
+    }
+
+    @Test
+    void shouldResumeBrokenDownload() throws Exception {
+        try (InputStream in = open(keyOf(content)).getInputStream()) {
+            assertThat(Arrays.equals(in.readAllBytes(), content), is(true));
+        }
+        assertThat(requests.get(), is(2));
+        assertThat(statistics.getResumedDownloads(), is(1L));
+    }
+
+    @Test
+    void shouldFailWhenChecksumMismatches() throws Exception {
+        try (InputStream in = open(keyOf(new byte[1])).getInputStream()) {
+            assertThrows(IOException.class, in::readAllBytes);
+        }
+    }
+
+    @Test
+    void shouldNotVerifyCompressedContent() throws Exception {
+        compress = true;
+        byte[] received;
+        // read to the end, where the checksum is verified
+        try (InputStream in = open(keyOf(content)).getInputStream()) {
+            received = in.readAllBytes();
+        }
+        try (InputStream in = new GZIPInputStream(new ByteArrayInputStream(received))) {
+            assertThat(Arrays.equals(in.readAllBytes(), content), is(true));
+        }
+        assertThat(requests.get(), is(1));
+    }
+
+    @Test
+    void shouldNotResumeWithoutValidator() throws Exception {
+        sendValidator = false;
+        try (InputStream in = open(null).getInputStream()) {
+            assertThrows(IOException.class, in::readAllBytes);
+        }
+        assertThat(requests.get(), is(1));
+    }
+}
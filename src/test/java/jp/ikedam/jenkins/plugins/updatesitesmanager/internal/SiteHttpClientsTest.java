@@ -0,0 +1,54 @@
+package jp.ikedam.jenkins.plugins.updatesitesmanager.internal;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.not;
+import static org.hamcrest.Matchers.sameInstance;
+
+import hudson.ProxyConfiguration;
+import java.net.http.HttpClient;
+import java.util.Collections;
+import org.junit.jupiter.api.Test;
+import org.jvnet.hudson.test.JenkinsRule;
+import org.jvnet.hudson.test.junit.jupiter.WithJenkins;
+
+@WithJenkins
+class SiteHttpClientsTest {
+
+    @Test
+    void shouldReuseClientForSameSite(JenkinsRule j) {
+        HttpClient client = SiteHttpClients.get("test", "http://localhost/update-center.json");
+        assertThat(
+                "Client should be reused",
+                SiteHttpClients.get("test", "http://localhost/update-center.json"),
+                sameInstance(client));
+    }
+
+    @Test
+    void shouldRebuildClientWhenUrlChanges(JenkinsRule j) {
+        HttpClient client = SiteHttpClients.get("test", "http://localhost/update-center.json");
+        assertThat(
+                "Client should be rebuilt",
+                SiteHttpClients.get("test", "http://localhost/another/update-center.json"),
+                not(sameInstance(client)));
+    }
+
+    @Test
+    void shouldRebuildClientWhenProxyChanges(JenkinsRule j) {
+        HttpClient client = SiteHttpClients.get("test", "http://localhost/update-center.json");
+        j.jenkins.proxy = new ProxyConfiguration("localhost", 3128);
+        assertThat(
+                "Client should be rebuilt",
+                SiteHttpClients.get("test", "http://localhost/update-center.json"),
+                not(sameInstance(client)));
+    }
+
+    @Test
+    void shouldReleaseClientOfRemovedSite(JenkinsRule j) {
+        HttpClient client = SiteHttpClients.get("test", "http://localhost/update-center.json");
+        SiteHttpClients.retain(Collections.emptySet());
+        assertThat(
+                "Client should be released",
+                SiteHttpClients.get("test", "http://localhost/update-center.json"),
+                not(sameInstance(client)));
+    }
+}
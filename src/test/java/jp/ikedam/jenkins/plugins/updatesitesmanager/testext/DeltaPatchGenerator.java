@@ -0,0 +1,50 @@
+package jp.ikedam.jenkins.plugins.updatesitesmanager.testext;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import jp.ikedam.jenkins.plugins.updatesitesmanager.internal.DeltaPatches;
+import jp.ikedam.jenkins.plugins.updatesitesmanager.internal.JsonpUnwrappingInputStream;
+import net.sf.json.JSONObject;
+
+/**
+ * Generates {@link DeltaPatches} between two files, as a reference for servers.
+ * <p>
+ * Usage: {@code DeltaPatchGenerator base.json target.json}
+ */
+public final class DeltaPatchGenerator {
+    private DeltaPatchGenerator() {}
+
+    /**
+     * Prints the patch between two versions of update-center.json.
+     *
+     * @param args paths to the base and the target documents
+     * @throws IOException when failed to read the documents
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length != 2) {
+            throw new IllegalArgumentException("Usage: DeltaPatchGenerator base.json target.json");
+        }
+        byte[] base = read(new File(args[0]));
+        byte[] target = read(new File(args[1]));
+        JSONObject patch = DeltaPatches.diff(
+                JSONObject.fromObject(new String(base, StandardCharsets.UTF_8)),
+                DeltaPatches.versionOf(base),
+                JSONObject.fromObject(new String(target, StandardCharsets.UTF_8)),
+                DeltaPatches.versionOf(target));
+        PrintStream out = new PrintStream(System.out, true, StandardCharsets.UTF_8);
+        out.println(patch);
+    }
+
+    /**
+     * Reads the JSON object in the file, as sites identify versions without the JSONP wrapper.
+     */
+    private static byte[] read(File file) throws IOException {
+        try (InputStream in = new JsonpUnwrappingInputStream(Files.newInputStream(file.toPath()), file.getPath())) {
+            return in.readAllBytes();
+        }
+    }
+}
@@ -0,0 +1,110 @@
+package jp.ikedam.jenkins.plugins.updatesitesmanager.testext;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import jp.ikedam.jenkins.plugins.updatesitesmanager.internal.DeltaPatches;
+import net.sf.json.JSONObject;
+
+/**
+ * Local update center serving changes between published versions as {@link DeltaPatches}.
+ */
+public class DeltaUpdateCenterServer implements AutoCloseable {
+    private final HttpServer server;
+
+    private final List<byte[]> versions = new CopyOnWriteArrayList<>();
+
+    private final AtomicInteger fullResponses = new AtomicInteger();
+
+    private final AtomicInteger deltaResponses = new AtomicInteger();
+
+    private volatile boolean brokenPatches;
+
+    public DeltaUpdateCenterServer() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/", this::handle);
+        server.start();
+    }
+
+    /**
+     * @return URL of update-center.json
+     */
+    public String getUrl() {
+        return "http://localhost:%d/update-center.json".formatted(server.getAddress().getPort());
+    }
+
+    /**
+     * Publishes a new version of the data.
+     *
+     * @param data the data to serve
+     */
+    public void publish(JSONObject data) {
+        versions.add(data.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Makes patches apply to a version no site has.
+     *
+     * @param brokenPatches {@code true} to send broken patches
+     */
+    public void setBrokenPatches(boolean brokenPatches) {
+        this.brokenPatches = brokenPatches;
+    }
+
+    public int getFullResponses() {
+        return fullResponses.get();
+    }
+
+    public int getDeltaResponses() {
+        return deltaResponses.get();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        byte[] latest = versions.get(versions.size() - 1);
+        byte[] body = latest;
+        String contentType = "application/json";
+        String since = sinceOf(exchange.getRequestURI().getRawQuery());
+        String accept = exchange.getRequestHeaders().getFirst("Accept");
+        if (since != null && accept != null && accept.contains(DeltaPatches.MEDIA_TYPE)) {
+            for (byte[] version : versions) {
+                if (version != latest && since.equals(DeltaPatches.versionOf(version))) {
+                    JSONObject patch = DeltaPatches.diff(
+                            JSONObject.fromObject(new String(version, StandardCharsets.UTF_8)),
+                            brokenPatches ? "broken" : since,
+                            JSONObject.fromObject(new String(latest, StandardCharsets.UTF_8)),
+                            DeltaPatches.versionOf(latest));
+                    body = patch.toString().getBytes(StandardCharsets.UTF_8);
+                    contentType = DeltaPatches.MEDIA_TYPE;
+                    break;
+                }
+            }
+        }
+        (body == latest ? fullResponses : deltaResponses).incrementAndGet();
+        exchange.getResponseHeaders().add("Content-Type", contentType);
+        exchange.sendResponseHeaders(200, body.length);
+        exchange.getResponseBody().write(body);
+        exchange.close();
+    }
+
+    private static String sinceOf(String query) {
+        if (query == null) {
+            return null;
+        }
+        for (String param : query.split("&")) {
+            if (param.startsWith("since=")) {
+                return param.substring("since=".length());
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+    }
+}
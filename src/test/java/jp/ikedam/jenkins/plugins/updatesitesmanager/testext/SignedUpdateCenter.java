@@ -0,0 +1,161 @@
+package jp.ikedam.jenkins.plugins.updatesitesmanager.testext;
+
+import hudson.Util;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.MessageDigest;
+import java.security.Signature;
+import java.security.cert.X509Certificate;
+import java.util.Base64;
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+import net.sf.json.JSONArray;
+import net.sf.json.JSONObject;
+import org.bouncycastle.asn1.x500.X500Name;
+import org.bouncycastle.cert.jcajce.JcaX509CertificateConverter;
+import org.bouncycastle.cert.jcajce.JcaX509v3CertificateBuilder;
+import org.bouncycastle.operator.OperatorCreationException;
+import org.bouncycastle.operator.jcajce.JcaContentSignerBuilder;
+
+/**
+ * Generates update center data signed with a self-signed certificate created on the fly.
+ * <p>
+ * Sites trust the data when configured with {@link #getCertificate()} as their CA certificate.
+ */
+public class SignedUpdateCenter {
+    private final KeyPair keyPair;
+
+    private final X509Certificate certificate;
+
+    public SignedUpdateCenter() throws GeneralSecurityException {
+        KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+        generator.initialize(2048);
+        keyPair = generator.generateKeyPair();
+        long now = System.currentTimeMillis();
+        X500Name name = new X500Name("CN=update-sites-manager test");
+        try {
+            certificate = new JcaX509CertificateConverter()
+                    .getCertificate(new JcaX509v3CertificateBuilder(
+                                    name,
+                                    BigInteger.valueOf(now),
+                                    new Date(now - TimeUnit.DAYS.toMillis(1)),
+                                    new Date(now + TimeUnit.DAYS.toMillis(365)),
+                                    name,
+                                    keyPair.getPublic())
+                            .build(new JcaContentSignerBuilder("SHA256withRSA").build(keyPair.getPrivate())));
+        } catch (OperatorCreationException e) {
+            throw new GeneralSecurityException(e);
+        }
+    }
+
+    /**
+     * @return the certificate signing the data in PEM format
+     */
+    public String getCertificate() throws GeneralSecurityException {
+        return "-----BEGIN CERTIFICATE-----\n"
+                + Base64.getMimeEncoder(64, "\n".getBytes(StandardCharsets.US_ASCII))
+                        .encodeToString(certificate.getEncoded())
+                + "\n-----END CERTIFICATE-----\n";
+    }
+
+    /**
+     * Generates data with many plugins depending on each other.
+     *
+     * @param id   id of the update site
+     * @param size the number of plugins
+     * @return the data, not signed yet
+     */
+    public static JSONObject generate(String id, int size) {
+        JSONObject plugins = new JSONObject();
+        for (int i = 0; i < size; i++) {
+            String name = "plugin-" + i;
+            JSONArray dependencies = new JSONArray();
+            for (int d = 1; d <= 3 && i - d >= 0; d++) {
+                dependencies.add(new JSONObject()
+                        .element("name", "plugin-" + (i - d))
+                        .element("version", "1." + (i - d))
+                        .element("optional", d == 3));
+            }
+            plugins.element(
+                    name,
+                    new JSONObject()
+                            .element("name", name)
+                            .element("version", "1." + i)
+                            .element("title", "Plugin " + i)
+                            .element("excerpt", "Does the work number " + i + " for Jenkins.")
+                            .element("requiredCore", "2.479.1")
+                            .element("url", "http://localhost/download/%s/1.%d/%s.hpi".formatted(name, i, name))
+                            .element("sha256", Base64.getEncoder().encodeToString(sha256(name)))
+                            .element("labels", JSONArray.fromObject(new String[] {"misc", "label-" + i % 10}))
+                            .element("releaseTimestamp", "2025-01-01T00:00:00.00Z")
+                            .element("dependencies", dependencies));
+        }
+        return new JSONObject()
+                .element("connectionCheckUrl", "http://localhost/")
+                .element("id", id)
+                .element("updateCenterVersion", "1")
+                .element("plugins", plugins);
+    }
+
+    /**
+     * Signs the data as the Jenkins project signs its update center.
+     *
+     * @param data the data to sign, modified to carry the signature
+     * @return the data
+     */
+    public JSONObject sign(JSONObject data) throws GeneralSecurityException, IOException {
+        data.remove("signature");
+        MessageDigest sha1 = MessageDigest.getInstance("SHA-1");
+        MessageDigest sha512 = MessageDigest.getInstance("SHA-512");
+        Signature signature1 = Signature.getInstance("SHA1withRSA");
+        signature1.initSign(keyPair.getPrivate());
+        Signature signature512 = Signature.getInstance("SHA512withRSA");
+        signature512.initSign(keyPair.getPrivate());
+        try (Writer writer = new OutputStreamWriter(
+                new OutputStream() {
+                    @Override
+                    public void write(int b) throws IOException {
+                        write(new byte[] {(byte) b}, 0, 1);
+                    }
+
+                    @Override
+                    public void write(byte[] b, int off, int len) throws IOException {
+                        sha1.update(b, off, len);
+                        sha512.update(b, off, len);
+                        try {
+                            signature1.update(b, off, len);
+                            signature512.update(b, off, len);
+                        } catch (GeneralSecurityException e) {
+                            throw new IOException(e);
+                        }
+                    }
+                },
+                StandardCharsets.UTF_8)) {
+            data.writeCanonical(writer);
+        }
+        JSONObject signature = new JSONObject()
+                .element("certificates", JSONArray.fromObject(new String[] {
+                    Base64.getEncoder().encodeToString(certificate.getEncoded())
+                }))
+                .element("correct_digest", Base64.getEncoder().encodeToString(sha1.digest()))
+                .element("correct_digest512", Util.toHexString(sha512.digest()))
+                .element("correct_signature", Base64.getEncoder().encodeToString(signature1.sign()))
+                .element("correct_signature512", Util.toHexString(signature512.sign()));
+        return data.element("signature", signature);
+    }
+
+    private static byte[] sha256(String s) {
+        try {
+            return MessageDigest.getInstance("SHA-256").digest(s.getBytes(StandardCharsets.UTF_8));
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,372 @@
+package jp.ikedam.jenkins.plugins.updatesitesmanager.testext;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import hudson.Util;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
+import java.util.zip.GZIPOutputStream;
+import net.sf.json.JSONObject;
+
+/**
+ * Local update center injecting the faults real ones show.
+ * <p>
+ * Serves files registered with {@link #serve(String, byte[])},
+ * or found by the resolver given to the constructor.
+ * Responses can be delayed, throttled, replaced with {@code 5xx} or {@code 429}, or cut in the middle,
+ * each at random with the configured rate.
+ * Every file carries a strong {@code ETag} and {@code If-None-Match} is answered with {@code 304},
+ * unless {@link #setValidators(boolean) disabled}.
+ * Requests are handled in parallel, so it can serve many sites refreshing at the same time.
+ */
+public class StubUpdateCenter implements AutoCloseable {
+    private static final int CHUNK_SIZE = 8192;
+
+    private final HttpServer server;
+
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+
+    private final Map<String, Entry> files = new ConcurrentHashMap<>();
+
+    private final Function<String, byte[]> resolver;
+
+    private final Random random = new Random(0);
+
+    private final AtomicInteger requests = new AtomicInteger();
+
+    private final AtomicInteger notModified = new AtomicInteger();
+
+    private final AtomicInteger faults = new AtomicInteger();
+
+    private volatile long latencyMillis;
+
+    private volatile long bytesPerSecond;
+
+    private volatile double errorRate;
+
+    private volatile double throttleRate;
+
+    private volatile double truncateRate;
+
+    private volatile long retryAfterSeconds = 1;
+
+    private volatile boolean validators = true;
+
+    private volatile boolean compression;
+
+    private final AtomicReference<CountDownLatch> stall = new AtomicReference<>();
+
+    public StubUpdateCenter() throws IOException {
+        this(name -> null);
+    }
+
+    /**
+     * @param resolver returns the content of files not registered, by their name, {@code null} if not found
+     */
+    public StubUpdateCenter(Function<String, byte[]> resolver) throws IOException {
+        this.resolver = resolver;
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.setExecutor(executor);
+        server.createContext("/", this::handle);
+        server.start();
+    }
+
+    /**
+     * @return base URL of the server, ending with a slash
+     */
+    public String getBaseUrl() {
+        return "http://localhost:%d/".formatted(server.getAddress().getPort());
+    }
+
+    /**
+     * @param path path of the file without the leading slash
+     * @return URL of the file
+     */
+    public String getUrl(String path) {
+        return getBaseUrl() + path;
+    }
+
+    /**
+     * Registers a file to serve.
+     *
+     * @param path path of the file without the leading slash
+     * @param body content of the file
+     * @return this
+     */
+    public StubUpdateCenter serve(String path, byte[] body) {
+        files.put("/" + path, new Entry(body));
+        return this;
+    }
+
+    /**
+     * Registers update center data to serve.
+     *
+     * @param path path of the file without the leading slash
+     * @param data the data
+     * @return this
+     */
+    public StubUpdateCenter serve(String path, JSONObject data) {
+        return serve(path, data.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Registers generated update center data to serve as {@code update-center.json}.
+     *
+     * @param id      id of the update site
+     * @param plugins the number of plugins
+     * @return this
+     * @see SignedUpdateCenter#generate(String, int)
+     */
+    public StubUpdateCenter serveCatalog(String id, int plugins) {
+        return serve("update-center.json", SignedUpdateCenter.generate(id, plugins));
+    }
+
+    /**
+     * @param latencyMillis time to wait before answering
+     * @return this
+     */
+    public StubUpdateCenter setLatency(long latencyMillis) {
+        this.latencyMillis = latencyMillis;
+        return this;
+    }
+
+    /**
+     * @param bytesPerSecond the rate to send the content at for each request, {@code 0} for no limit
+     * @return this
+     */
+    public StubUpdateCenter setBandwidth(long bytesPerSecond) {
+        this.bytesPerSecond = bytesPerSecond;
+        return this;
+    }
+
+    /**
+     * @param errorRate ratio of requests answered with {@code 500} or {@code 503}
+     * @return this
+     */
+    public StubUpdateCenter setErrorRate(double errorRate) {
+        this.errorRate = errorRate;
+        return this;
+    }
+
+    /**
+     * @param throttleRate ratio of requests answered with {@code 429} and {@code Retry-After}
+     * @return this
+     */
+    public StubUpdateCenter setThrottleRate(double throttleRate) {
+        this.throttleRate = throttleRate;
+        return this;
+    }
+
+    /**
+     * @param truncateRate ratio of responses cut after half of the content
+     * @return this
+     */
+    public StubUpdateCenter setTruncateRate(double truncateRate) {
+        this.truncateRate = truncateRate;
+        return this;
+    }
+
+    /**
+     * @param retryAfterSeconds {@code Retry-After} sent with {@code 429}
+     * @return this
+     */
+    public StubUpdateCenter setRetryAfter(long retryAfterSeconds) {
+        this.retryAfterSeconds = retryAfterSeconds;
+        return this;
+    }
+
+    /**
+     * @param validators whether to send {@code ETag} and answer {@code If-None-Match} with {@code 304}
+     * @return this
+     */
+    public StubUpdateCenter setValidators(boolean validators) {
+        this.validators = validators;
+        return this;
+    }
+
+    /**
+     * @param compression whether to send the content in gzip to clients accepting it
+     * @return this
+     */
+    public StubUpdateCenter setCompression(boolean compression) {
+        this.compression = compression;
+        return this;
+    }
+
+    /**
+     * Holds the next request until released, like a stalled connection.
+     *
+     * @param released released to answer the request
+     * @return this
+     */
+    public StubUpdateCenter stallNextRequest(CountDownLatch released) {
+        stall.set(released);
+        return this;
+    }
+
+    /**
+     * @return the number of requests received
+     */
+    public int getRequests() {
+        return requests.get();
+    }
+
+    /**
+     * @return the number of requests answered with {@code 304}
+     */
+    public int getNotModified() {
+        return notModified.get();
+    }
+
+    /**
+     * @return the number of requests answered with a fault
+     */
+    public int getFaults() {
+        return faults.get();
+    }
+
+    private synchronized double nextRandom() {
+        return random.nextDouble();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            requests.incrementAndGet();
+            await(stall.getAndSet(null));
+            String path = exchange.getRequestURI().getPath();
+            Entry entry = files.get(path);
+            if (entry == null) {
+                byte[] body = resolver.apply(path.substring(path.lastIndexOf('/') + 1));
+                entry = body != null ? new Entry(body) : null;
+            }
+            sleep(latencyMillis);
+            if (entry == null) {
+                exchange.sendResponseHeaders(404, -1);
+                return;
+            }
+            double dice = nextRandom();
+            if (dice < errorRate) {
+                faults.incrementAndGet();
+                exchange.sendResponseHeaders(dice < errorRate / 2 ? 500 : 503, -1);
+                return;
+            }
+            dice -= errorRate;
+            if (dice < throttleRate) {
+                faults.incrementAndGet();
+                exchange.getResponseHeaders().set("Retry-After", String.valueOf(retryAfterSeconds));
+                exchange.sendResponseHeaders(429, -1);
+                return;
+            }
+            dice -= throttleRate;
+            if (validators) {
+                exchange.getResponseHeaders().set("ETag", entry.etag);
+                if (entry.etag.equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+                    notModified.incrementAndGet();
+                    exchange.sendResponseHeaders(304, -1);
+                    return;
+                }
+            }
+            boolean truncate = dice < truncateRate;
+            if (truncate) {
+                faults.incrementAndGet();
+            }
+            byte[] body = entry.body;
+            String acceptEncoding = exchange.getRequestHeaders().getFirst("Accept-Encoding");
+            if (compression && acceptEncoding != null && acceptEncoding.contains("gzip")) {
+                body = entry.gzipped();
+                exchange.getResponseHeaders().set("Content-Encoding", "gzip");
+            }
+            exchange.getResponseHeaders().set("Content-Type", "application/json");
+            exchange.sendResponseHeaders(200, body.length);
+            // closing the exchange before the whole content is sent drops the connection
+            send(exchange.getResponseBody(), body, truncate ? body.length / 2 : body.length);
+        }
+    }
+
+    private void send(OutputStream out, byte[] body, int length) throws IOException {
+        long rate = bytesPerSecond;
+        long start = System.nanoTime();
+        for (int off = 0; off < length; off += CHUNK_SIZE) {
+            int len = Math.min(CHUNK_SIZE, length - off);
+            out.write(body, off, len);
+            out.flush();
+            if (rate > 0) {
+                long due = start + TimeUnit.SECONDS.toNanos(off + len) / rate;
+                sleep(TimeUnit.NANOSECONDS.toMillis(due - System.nanoTime()));
+            }
+        }
+    }
+
+    private static void await(CountDownLatch released) throws IOException {
+        if (released == null) {
+            return;
+        }
+        try {
+            released.await(30, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException(e);
+        }
+    }
+
+    private static void sleep(long millis) throws IOException {
+        if (millis <= 0) {
+            return;
+        }
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException(e);
+        }
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    private static class Entry {
+        private final byte[] body;
+
+        private final String etag;
+
+        private byte[] gzipped;
+
+        Entry(byte[] body) {
+            this.body = body;
+            try {
+                this.etag = '"' + Util.toHexString(MessageDigest.getInstance("SHA-256").digest(body)) + '"';
+            } catch (NoSuchAlgorithmException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        synchronized byte[] gzipped() throws IOException {
+            if (gzipped == null) {
+                ByteArrayOutputStream out = new ByteArrayOutputStream();
+                try (OutputStream gzip = new GZIPOutputStream(out)) {
+                    gzip.write(body);
+                }
+                gzipped = out.toByteArray();
+            }
+            return gzipped;
+        }
+    }
+}
@@ -2,23 +2,15 @@ package jp.ikedam.jenkins.plugins.updatesitesmanager.testext;
 
 import java.io.File;
 import java.io.FileNotFoundException;
+import java.io.IOException;
 import java.lang.reflect.Method;
 import java.net.URISyntaxException;
 import java.net.URL;
-import java.nio.ByteBuffer;
-import java.util.HashMap;
+import java.nio.file.Files;
 import java.util.Map;
 import java.util.Optional;
-import javax.servlet.http.HttpServletResponse;
-import org.apache.commons.io.FileUtils;
+import java.util.concurrent.ConcurrentHashMap;
 import org.apache.commons.lang.StringUtils;
-import org.eclipse.jetty.http.HttpHeader;
-import org.eclipse.jetty.server.Handler;
-import org.eclipse.jetty.server.Request;
-import org.eclipse.jetty.server.Response;
-import org.eclipse.jetty.server.Server;
-import org.eclipse.jetty.server.ServerConnector;
-import org.eclipse.jetty.util.Callback;
 import org.junit.jupiter.api.extension.AfterEachCallback;
 import org.junit.jupiter.api.extension.BeforeEachCallback;
 import org.junit.jupiter.api.extension.ExtensionContext;
@@ -26,60 +18,45 @@ import org.junit.runner.Description;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+/**
+ * Starts a {@link StubUpdateCenter} for each test method, serving the resources of the test class.
+ * <p>
+ * Tests get the server with {@link #stubFor(String)} to register more files or inject faults.
+ */
 public class UpdateCenterWebServerExtension implements BeforeEachCallback, AfterEachCallback {
     private static final Logger LOGGER = LoggerFactory.getLogger(UpdateCenterWebServerExtension.class);
 
     /**
      * In case of parallel execution of multiply test-methods we can handle server for each method
      */
-    private static final Map<String, String> servers = new HashMap<String, String>();
+    private static final Map<String, StubUpdateCenter> servers = new ConcurrentHashMap<>();
 
-    private Server server;
+    private StubUpdateCenter server;
 
     @Override
     public void beforeEach(ExtensionContext context) throws Exception {
-        server = new Server();
-        ServerConnector connector = new ServerConnector(server);
-        server.addConnector(connector);
-        server.setHandler(new Handler.Abstract() {
-            @Override
-            public boolean handle(Request request, Response response, Callback callback) throws Exception {
-                String responseBody = null;
-                boolean handled = false;
-                LOGGER.info("UC gets request to: {}", request.getHttpURI());
-
-                Optional<Class<?>> testClass = context.getTestClass();
-                if (testClass.isEmpty()) {
-                    LOGGER.info("Test class is not available");
-                    return false;
-                }
-
-                try {
-                    responseBody = FileUtils.readFileToString(getResource(request.getId(), testClass.get()), "UTF-8");
-                } catch (URISyntaxException e) {
-                    response.setStatus(HttpServletResponse.SC_NOT_FOUND);
-                    handled = true;
-                }
-                if (responseBody != null) {
-                    response.getHeaders().add(HttpHeader.CONTENT_TYPE, "text/plain; charset=utf-8");
-                    response.setStatus(HttpServletResponse.SC_OK);
-                    response.write(true, ByteBuffer.wrap(responseBody.getBytes()), callback);
-                    handled = true;
-                }
-                return handled;
+        Optional<Class<?>> testClass = context.getTestClass();
+        server = new StubUpdateCenter(name -> {
+            if (testClass.isEmpty()) {
+                LOGGER.info("Test class is not available");
+                return null;
+            }
+            LOGGER.info("UC gets request to: {}", name);
+            try {
+                return Files.readAllBytes(getResource(name, testClass.get()).toPath());
+            } catch (URISyntaxException | IOException e) {
+                return null;
             }
         });
-        server.start();
-        String link = new URL("http", "localhost", connector.getLocalPort(), "").toString();
         String methodName = methodFor(context);
-        LOGGER.info("Started UC: <{}> for [{}]", link, methodName);
-        servers.put(methodName, link);
+        LOGGER.info("Started UC: <{}> for [{}]", server.getBaseUrl(), methodName);
+        servers.put(methodName, server);
     }
 
     @Override
     public void afterEach(ExtensionContext context) throws Exception {
         if (server != null) {
-            server.stop();
+            server.close();
         }
         String methodName = methodFor(context);
         LOGGER.info("Shutdown UC for: [{}]", methodName);
@@ -111,6 +88,18 @@ public class UpdateCenterWebServerExtension implements BeforeEachCallback, After
      * @return base url with defined port
      */
     public static String urlFor(String method) {
+        StubUpdateCenter server = servers.get(method);
+        return server != null ? server.getBaseUrl() : null;
+    }
+
+    /**
+     * To configure dummy-server
+     *
+     * @param method test method name
+     *
+     * @return the server started for the method
+     */
+    public static StubUpdateCenter stubFor(String method) {
         return servers.get(method);
     }
 